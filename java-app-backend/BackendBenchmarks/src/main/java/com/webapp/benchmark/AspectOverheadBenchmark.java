@@ -0,0 +1,108 @@
+package com.webapp.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.amazon.lambda.powertools.logging.Logging;
+import software.amazon.lambda.powertools.tracing.Tracing;
+
+/**
+ * Cost the powertools aspects add around a handler that does no work of its own, with the annotations the handlers in
+ * BackendFunction use. Event logging goes to a null appender, so the serialization is measured but not the I/O. There
+ * is no X-Ray segment outside Lambda, the tracing aspect runs against the IGNORE_ERROR context missing strategy.
+ */
+@Fork(jvmArgsAppend = {
+        "-Dlog4j.configurationFile=log4j2-benchmark.xml",
+        "-Dcom.amazonaws.xray.strategy.contextMissingStrategy=IGNORE_ERROR"})
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AspectOverheadBenchmark {
+
+    private final Context context = new FakeContext();
+    private final PlainHandler plainHandler = new PlainHandler();
+    private final TracedHandler tracedHandler = new TracedHandler();
+    private final LoggedHandler loggedHandler = new LoggedHandler();
+    private final AnnotatedHandler annotatedHandler = new AnnotatedHandler();
+
+    private APIGatewayProxyRequestEvent request;
+
+    @Setup
+    public void setUp() {
+        request = new APIGatewayProxyRequestEvent()
+                .withHttpMethod("GET")
+                .withPath("/upload")
+                .withQueryStringParameters(Collections.singletonMap("content-type", "image/jpeg"))
+                .withHeaders(Collections.singletonMap("Accept", "application/json"));
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent plain() {
+        return plainHandler.handleRequest(request, context);
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent tracing() {
+        return tracedHandler.handleRequest(request, context);
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent loggingWithEvent() {
+        return loggedHandler.handleRequest(request, context);
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent loggingWithEventAndTracing() {
+        return annotatedHandler.handleRequest(request, context);
+    }
+
+    private static APIGatewayProxyResponseEvent ok() {
+        return new APIGatewayProxyResponseEvent()
+                .withStatusCode(200)
+                .withBody("{}");
+    }
+
+    static class PlainHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+        @Override
+        public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+            return ok();
+        }
+    }
+
+    static class TracedHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+        @Tracing
+        @Override
+        public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+            return ok();
+        }
+    }
+
+    static class LoggedHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+        @Logging(logEvent = true)
+        @Override
+        public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+            return ok();
+        }
+    }
+
+    static class AnnotatedHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+        @Logging(logEvent = true)
+        @Tracing
+        @Override
+        public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+            return ok();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.webapp.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Camera like test images. Pixels are seeded noise rather than a flat colour so the JPEG compresses to a realistic size
+ * and the same bytes are produced on every run.
+ */
+final class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    static byte[] jpeg(final String dimensions) {
+        String[] size = dimensions.split("x");
+        return jpeg(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+    }
+
+    static byte[] jpeg(final int width,
+                       final int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31L + height);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int shade = (x * 255 / width + random.nextInt(64)) & 0xFF;
+                image.setRGB(x, y, shade << 16 | (y * 255 / height) << 8 | random.nextInt(256));
+            }
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpeg", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
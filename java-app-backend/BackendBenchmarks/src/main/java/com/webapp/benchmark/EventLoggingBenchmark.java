@@ -0,0 +1,62 @@
+package com.webapp.benchmark;
+
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.webapp.function.EventLogger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Logging a /recognise request carrying a base 64 image, serialized whole as the powertools {@code logEvent} option
+ * does, against EventLogger with its default limit. Both go to a null appender, so the serialization is measured but
+ * not the I/O. Run with {@code -prof gc} to compare the bytes allocated per event.
+ */
+@Fork(jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventLoggingBenchmark {
+    private static final Logger LOG = LogManager.getLogger(EventLoggingBenchmark.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Param({"640x480", "1920x1080", "4032x3024"})
+    public String dimensions;
+
+    private final EventLogger eventLogger = new EventLogger(1024);
+
+    private APIGatewayProxyRequestEvent request;
+
+    @Setup
+    public void setUp() {
+        request = new APIGatewayProxyRequestEvent()
+                .withHttpMethod("POST")
+                .withPath("/recognise")
+                .withResource("/recognise")
+                .withHeaders(Collections.singletonMap("Content-Type", "text/plain"))
+                .withBody(Base64.getEncoder().encodeToString(BenchmarkImages.jpeg(dimensions)));
+    }
+
+    @Benchmark
+    public void fullEvent() throws JsonProcessingException {
+        LOG.info(MAPPER.writeValueAsString(request));
+    }
+
+    @Benchmark
+    public void truncatedEvent() {
+        eventLogger.log(request);
+    }
+}
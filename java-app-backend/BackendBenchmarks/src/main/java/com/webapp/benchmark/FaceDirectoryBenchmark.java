@@ -0,0 +1,87 @@
+package com.webapp.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.webapp.function.FaceDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Loading the face directory from a table scanned in process, and looking a face up in it against a HashMap of the
+ * same entries, the simplest preloaded alternative. Two faces are enrolled per person.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FaceDirectoryBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int faces;
+
+    private FakeDynamoDb dynamoDb;
+    private FaceDirectory directory;
+    private Map<String, String> hashMap;
+    private String[] faceIds;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        List<Map<String, AttributeValue>> items = new ArrayList<>(faces);
+        hashMap = new HashMap<>();
+        faceIds = new String[4096];
+
+        for (int i = 0; i < faces; i++) {
+            String faceId = new UUID(random.nextLong(), random.nextLong()).toString();
+            String fullName = "Person " + i / 2;
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put("RekognitionId", AttributeValue.builder().s(faceId).build());
+            item.put("FullName", AttributeValue.builder().s(fullName).build());
+            items.add(item);
+            hashMap.put(faceId, fullName);
+
+            if (i < faceIds.length) {
+                faceIds[i] = faceId;
+            }
+        }
+
+        dynamoDb = new FakeDynamoDb(items);
+        directory = FaceDirectory.load(dynamoDb, "benchmark-table", 4);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    public FaceDirectory load() {
+        return FaceDirectory.load(dynamoDb, "benchmark-table", 4);
+    }
+
+    @Benchmark
+    public String directoryLookup() {
+        return directory.get(faceIds[next++ & faceIds.length - 1]);
+    }
+
+    @Benchmark
+    public String hashMapLookup() {
+        return hashMap.get(faceIds[next++ & faceIds.length - 1]);
+    }
+}
@@ -0,0 +1,93 @@
+package com.webapp.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.webapp.function.DynamoDbCalls;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+
+/**
+ * In process stand in for DynamoDB that accepts every write, so benchmarks measure request building and not the network.
+ * Scans page through the given items, split into segments by position, and reads by key find nothing.
+ */
+final class FakeDynamoDb implements DynamoDbCalls {
+    private static final BatchWriteItemResponse ALL_PROCESSED = BatchWriteItemResponse.builder().build();
+
+    // About the 1 MB a Scan page holds with the RekognitionId and FullName projection
+    private static final int PAGE_ITEMS = 10_000;
+
+    private final List<Map<String, AttributeValue>> items;
+
+    FakeDynamoDb() {
+        this(Collections.emptyList());
+    }
+
+    FakeDynamoDb(final List<Map<String, AttributeValue>> items) {
+        this.items = items;
+    }
+
+    @Override
+    public CompletableFuture<GetItemResponse> getItem(GetItemRequest request) {
+        return CompletableFuture.completedFuture(GetItemResponse.builder().build());
+    }
+
+    @Override
+    public CompletableFuture<BatchGetItemResponse> batchGetItem(BatchGetItemRequest request) {
+        return CompletableFuture.completedFuture(BatchGetItemResponse.builder().build());
+    }
+
+    @Override
+    public CompletableFuture<PutItemResponse> putItem(PutItemRequest request) {
+        return CompletableFuture.completedFuture(PutItemResponse.builder().build());
+    }
+
+    @Override
+    public CompletableFuture<DeleteItemResponse> deleteItem(DeleteItemRequest request) {
+        return CompletableFuture.completedFuture(DeleteItemResponse.builder().build());
+    }
+
+    @Override
+    public CompletableFuture<BatchWriteItemResponse> batchWriteItem(BatchWriteItemRequest request) {
+        return CompletableFuture.completedFuture(ALL_PROCESSED);
+    }
+
+    @Override
+    public CompletableFuture<ScanResponse> scan(ScanRequest request) {
+        int segments = request.totalSegments() == null ? 1 : request.totalSegments();
+        int segment = request.segment() == null ? 0 : request.segment();
+        int position = request.hasExclusiveStartKey()
+                ? Integer.parseInt(request.exclusiveStartKey().get("Position").n()) + segments
+                : segment;
+
+        List<Map<String, AttributeValue>> page = new ArrayList<>();
+        int last = position;
+        for (; position < items.size() && page.size() < PAGE_ITEMS; position += segments) {
+            page.add(items.get(position));
+            last = position;
+        }
+
+        ScanResponse.Builder response = ScanResponse.builder().items(page);
+        if (position < items.size()) {
+            response.lastEvaluatedKey(Collections.singletonMap("Position", AttributeValue.builder()
+                    .n(Integer.toString(last))
+                    .build()));
+        }
+
+        return CompletableFuture.completedFuture(response.build());
+    }
+}
@@ -0,0 +1,100 @@
+package com.webapp.benchmark;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.webapp.function.ImageUploadHandler;
+import com.webapp.function.JsonResponses;
+import com.webapp.function.UploadUrlSigner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+
+/**
+ * Work ImageUploadHandler does per request: presigning the PUT, which is local signing with static credentials here,
+ * and serializing the response body with a fresh ObjectMapper call against the pre-built writer of JsonResponses.
+ * The single and batch URL benchmarks report the cost per URL, a batch being signed and serialized in one go.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageUploadBenchmark {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectWriter RESPONSE_WRITER = JsonResponses.writerFor(ImageUploadHandler.ResponseBody.class);
+    private static final ObjectWriter BATCH_RESPONSE_WRITER = JsonResponses.listWriterFor(ImageUploadHandler.ResponseBody.class);
+    private static final int BATCH_SIZE = 20;
+
+    private S3Presigner presigner;
+    private UploadUrlSigner uploadUrlSigner;
+    private List<ImageUploadHandler.UploadRequest> uploadRequests;
+    private ImageUploadHandler.ResponseBody responseBody;
+
+    @Setup
+    public void setUp() {
+        presigner = S3Presigner.builder()
+                .region(Region.EU_WEST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("benchmark", "benchmark")))
+                .build();
+
+        responseBody = new ImageUploadHandler.ResponseBody(presign().url().toString(), "portrait.jpg");
+        uploadUrlSigner = new UploadUrlSigner(presigner, "upload-bucket", Duration.ofSeconds(60));
+
+        uploadRequests = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            uploadRequests.add(new ImageUploadHandler.UploadRequest("image/jpeg", ".jpg", "Person " + i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        presigner.close();
+    }
+
+    @Benchmark
+    public PresignedPutObjectRequest presign() {
+        return presigner.presignPutObject(req ->
+                req.putObjectRequest(obj ->
+                        obj.metadata(Collections.singletonMap("fullname", "Jane Doe"))
+                                .bucket("upload-bucket")
+                                .key("index/static/portrait.jpg")
+                                .contentType("image/jpeg")).signatureDuration(Duration.ofSeconds(60)));
+    }
+
+    @Benchmark
+    public String objectMapperResponseBody() throws JsonProcessingException {
+        return OBJECT_MAPPER.writeValueAsString(responseBody);
+    }
+
+    @Benchmark
+    public String jsonResponsesResponseBody() {
+        return JsonResponses.write(RESPONSE_WRITER, responseBody);
+    }
+
+    @Benchmark
+    public String singleUrl() {
+        return JsonResponses.write(RESPONSE_WRITER, uploadUrlSigner.sign("image/jpeg", ".jpg", "Jane Doe"));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public String batchUrls() {
+        return JsonResponses.write(BATCH_RESPONSE_WRITER, uploadUrlSigner.signAll(uploadRequests));
+    }
+}
@@ -0,0 +1,129 @@
+package com.webapp.benchmark;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+
+/**
+ * In process stand in for an SQS queue behind a Lambda event source mapping, on a simulated clock in milliseconds.
+ * <p>
+ * Batches are received once they are full or the oldest visible message waited for the batching window. Messages
+ * reported as failed become visible again after the visibility timeout, and move to the dead letter queue once they
+ * were received the maximum number of times.
+ */
+final class InMemoryQueue {
+    private final int batchSize;
+    private final long batchingWindowMillis;
+    private final long visibilityTimeoutMillis;
+    private final int maxReceiveCount;
+
+    private final Deque<Message> visible = new ArrayDeque<>();
+    private final PriorityQueue<Message> invisible = new PriorityQueue<>(Comparator.comparingLong(message -> message.visibleAt));
+    private final Map<String, Message> inFlight = new HashMap<>();
+    private final List<Message> deadLetters = new ArrayList<>();
+    private int nextId;
+    private int deleted;
+
+    InMemoryQueue(final int batchSize,
+                  final long batchingWindowMillis,
+                  final long visibilityTimeoutMillis,
+                  final int maxReceiveCount) {
+        this.batchSize = batchSize;
+        this.batchingWindowMillis = batchingWindowMillis;
+        this.visibilityTimeoutMillis = visibilityTimeoutMillis;
+        this.maxReceiveCount = maxReceiveCount;
+    }
+
+    void send(final String body,
+              final long now) {
+        visible.add(new Message(String.valueOf(nextId++), body, now));
+    }
+
+    /**
+     * @return the next batch, empty while it is neither full nor past the batching window
+     */
+    List<SQSEvent.SQSMessage> receive(final long now) {
+        while (!invisible.isEmpty() && invisible.peek().visibleAt <= now) {
+            visible.add(invisible.poll());
+        }
+
+        if (visible.isEmpty() || (visible.size() < batchSize && now - visible.peek().visibleAt < batchingWindowMillis)) {
+            return new ArrayList<>();
+        }
+
+        List<SQSEvent.SQSMessage> batch = new ArrayList<>();
+        while (!visible.isEmpty() && batch.size() < batchSize) {
+            Message message = visible.poll();
+            message.receiveCount++;
+            message.visibleAt = now + visibilityTimeoutMillis;
+            inFlight.put(message.id, message);
+
+            SQSEvent.SQSMessage sqsMessage = new SQSEvent.SQSMessage();
+            sqsMessage.setMessageId(message.id);
+            sqsMessage.setBody(message.body);
+            batch.add(sqsMessage);
+        }
+
+        return batch;
+    }
+
+    /**
+     * Deletes the messages of the batch that are not reported as failed, the way the event source mapping does.
+     */
+    void acknowledge(final List<SQSEvent.SQSMessage> batch,
+                     final SQSBatchResponse response) {
+        Set<String> failed = new HashSet<>();
+        for (SQSBatchResponse.BatchItemFailure failure : response.getBatchItemFailures()) {
+            failed.add(failure.getItemIdentifier());
+        }
+
+        for (SQSEvent.SQSMessage sqsMessage : batch) {
+            Message message = inFlight.remove(sqsMessage.getMessageId());
+
+            if (!failed.contains(message.id)) {
+                deleted++;
+            } else if (message.receiveCount >= maxReceiveCount) {
+                deadLetters.add(message);
+            } else {
+                invisible.add(message);
+            }
+        }
+    }
+
+    boolean isDrained() {
+        return visible.isEmpty() && invisible.isEmpty() && inFlight.isEmpty();
+    }
+
+    int deleted() {
+        return deleted;
+    }
+
+    int deadLetters() {
+        return deadLetters.size();
+    }
+
+    private static final class Message {
+        private final String id;
+        private final String body;
+        private long visibleAt;
+        private int receiveCount;
+
+        private Message(final String id,
+                        final String body,
+                        final long visibleAt) {
+            this.id = id;
+            this.body = body;
+            this.visibleAt = visibleAt;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.webapp.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import com.amazonaws.services.lambda.runtime.serialization.PojoSerializer;
+import com.amazonaws.services.lambda.runtime.serialization.events.LambdaEventSerializers;
+import com.webapp.function.BatchItemWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * CPU bound work of IndexImageHandler: turning the S3 event into records the way the Lambda runtime does, decoding the
+ * object keys, and building the BatchWriteItem requests for the indexed faces against an in process DynamoDB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IndexImageBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int records;
+
+    private byte[] event;
+    private PojoSerializer<S3EventNotification> serializer;
+    private List<Map<String, AttributeValue>> faceItems;
+    private BatchItemWriter batchItemWriter;
+
+    @Setup
+    public void setUp() {
+        event = s3Event(records).getBytes(StandardCharsets.UTF_8);
+        serializer = LambdaEventSerializers.serializerFor(S3EventNotification.class, getClass().getClassLoader());
+        faceItems = faceItems(records);
+        batchItemWriter = new BatchItemWriter(new FakeDynamoDb(), "benchmark-table");
+    }
+
+    @Benchmark
+    public S3EventNotification parseEvent() {
+        return serializer.fromJson(new ByteArrayInputStream(event));
+    }
+
+    @Benchmark
+    public void parseEventAndDecodeKeys(final Blackhole blackhole) {
+        for (S3EventNotification.S3EventNotificationRecord record : parseEvent().getRecords()) {
+            blackhole.consume(record.getS3().getObject().getUrlDecodedKey());
+        }
+    }
+
+    @Benchmark
+    public List<Map<String, AttributeValue>> batchWrite() {
+        return batchItemWriter.putAll(faceItems).join();
+    }
+
+    private static String s3Event(final int records) {
+        StringBuilder json = new StringBuilder("{\"Records\":[");
+
+        for (int i = 0; i < records; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"eventVersion\":\"2.1\",\"eventSource\":\"aws:s3\",\"awsRegion\":\"eu-west-1\",")
+                    .append("\"eventTime\":\"2022-10-01T12:00:00.000Z\",\"eventName\":\"ObjectCreated:Put\",")
+                    .append("\"userIdentity\":{\"principalId\":\"AWS:AIDAEXAMPLE\"},")
+                    .append("\"requestParameters\":{\"sourceIPAddress\":\"127.0.0.1\"},")
+                    .append("\"responseElements\":{\"x-amz-request-id\":\"C3D13FE58DE4C810\",\"x-amz-id-2\":\"FMyUVURIY8/IgAtTv8xRjskZQpcIZ9KG4V5Wp6S7S/JRWeUWerMUE5JgHvANOjpD\"},")
+                    .append("\"s3\":{\"s3SchemaVersion\":\"1.0\",\"configurationId\":\"index\",")
+                    .append("\"bucket\":{\"name\":\"upload-bucket\",\"ownerIdentity\":{\"principalId\":\"A3NL1KOZZKExample\"},\"arn\":\"arn:aws:s3:::upload-bucket\"},")
+                    .append("\"object\":{\"key\":\"index/static/").append(UUID.nameUUIDFromBytes(new byte[]{(byte) i}))
+                    .append("+portrait%28").append(i).append("%29.jpg\",\"size\":245760,\"eTag\":\"d41d8cd98f00b204e9800998ecf8427e\",")
+                    .append("\"sequencer\":\"0055AED6DCD90281E5\"}}}");
+        }
+
+        return json.append("]}").toString();
+    }
+
+    private static List<Map<String, AttributeValue>> faceItems(final int count) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put("RekognitionId", AttributeValue.builder().s(UUID.nameUUIDFromBytes(new byte[]{(byte) i}).toString()).build());
+            item.put("FullName", AttributeValue.builder().s("Person " + i).build());
+            item.put("ImageKey", AttributeValue.builder().s("index/static/portrait-" + i + ".jpg").build());
+            items.add(item);
+        }
+
+        return items;
+    }
+}
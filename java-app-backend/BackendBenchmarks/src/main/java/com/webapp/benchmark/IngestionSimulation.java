@@ -0,0 +1,232 @@
+package com.webapp.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.webapp.function.IndexImageHandler;
+import com.webapp.function.SqsBatchIndexer;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+/**
+ * Compares the two ways of indexing a bulk enrollment against the IndexFaces quota, on a simulated clock so a run takes
+ * seconds: every upload invoking IndexImageHandler straight from its S3 notification, against notifications buffered
+ * in a queue and consumed in batches by QueuedIndexImageHandler with bounded concurrency.
+ * <p>
+ * The queue path runs the real SqsBatchIndexer against an in process queue, only Rekognition is simulated.
+ * <p>
+ * Usage: java -cp BackendBenchmarks/target/benchmarks.jar com.webapp.benchmark.IngestionSimulation [images]
+ * [uploads per second] [IndexFaces TPS]
+ */
+public final class IngestionSimulation {
+    private static final long CALL_MILLIS = 250;
+    private static final long TICK_MILLIS = 10;
+
+    // Same values as the template
+    private static final int INDEX_CONCURRENCY = 4;
+    private static final int MAXIMUM_CONCURRENCY = 2;
+    private static final int BATCH_SIZE = 20;
+    private static final long BATCHING_WINDOW_MILLIS = 2_000;
+    private static final long VISIBILITY_TIMEOUT_MILLIS = 60_000;
+    private static final int MAX_RECEIVE_COUNT = 5;
+    // Delays of the two retries of an asynchronous invocation that failed
+    private static final long[] ASYNC_RETRY_DELAYS_MILLIS = {60_000, 120_000};
+
+    private static final SdkServiceException THROTTLED = SdkServiceException.builder()
+            .statusCode(429)
+            .message("Rate exceeded")
+            .build();
+
+    private IngestionSimulation() {
+    }
+
+    public static void main(final String[] args) {
+        int images = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int uploadsPerSecond = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int transactionsPerSecond = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        System.out.printf("%d images uploaded at %d per second, IndexFaces quota of %d TPS%n%n",
+                images, uploadsPerSecond, transactionsPerSecond);
+        System.out.printf("%-7s %8s %6s %8s %10s %12s %9s %9s%n",
+                "mode", "indexed", "lost", "calls", "throttled", "concurrency", "drain s", "images/s");
+
+        direct(images, uploadsPerSecond, transactionsPerSecond).print("direct");
+        queued(images, uploadsPerSecond, transactionsPerSecond).print("queue");
+    }
+
+    /**
+     * One invocation per upload. IndexImageHandler fails the invocation when an image is still throttled after the SDK
+     * retries, so Lambda invokes it again a minute later and then two minutes after that, before giving up on the
+     * image.
+     */
+    private static Result direct(final int images,
+                                 final int uploadsPerSecond,
+                                 final int transactionsPerSecond) {
+        RekognitionQuota quota = new RekognitionQuota(transactionsPerSecond, CALL_MILLIS);
+        // Invocations as {start, attempt}, run in the order they start
+        PriorityQueue<long[]> invocations = new PriorityQueue<>(Comparator.comparingLong(invocation -> invocation[0]));
+        List<Long> starts = new ArrayList<>();
+        List<Long> ends = new ArrayList<>();
+        int indexed = 0;
+
+        for (int i = 0; i < images; i++) {
+            invocations.add(new long[]{uploadedAt(i, uploadsPerSecond), 0});
+        }
+
+        while (!invocations.isEmpty()) {
+            long[] invocation = invocations.poll();
+            RekognitionQuota.Call call = quota.call(invocation[0]);
+            starts.add(invocation[0]);
+            ends.add(call.end);
+
+            if (call.succeeded) {
+                indexed++;
+            } else if (invocation[1] < ASYNC_RETRY_DELAYS_MILLIS.length) {
+                invocations.add(new long[]{call.end + ASYNC_RETRY_DELAYS_MILLIS[(int) invocation[1]], invocation[1] + 1});
+            }
+        }
+
+        return new Result(indexed, images - indexed, quota,
+                peakConcurrency(starts.stream().mapToLong(Long::longValue).toArray(),
+                        ends.stream().mapToLong(Long::longValue).toArray()),
+                ends.stream().mapToLong(Long::longValue).max().orElse(0));
+    }
+
+    private static Result queued(final int images,
+                                 final int uploadsPerSecond,
+                                 final int transactionsPerSecond) {
+        RekognitionQuota quota = new RekognitionQuota(transactionsPerSecond, CALL_MILLIS);
+        SimulatedIndexer indexer = new SimulatedIndexer(quota);
+        SqsBatchIndexer sqsBatchIndexer = new SqsBatchIndexer(indexer::index);
+        InMemoryQueue queue = new InMemoryQueue(BATCH_SIZE, BATCHING_WINDOW_MILLIS, VISIBILITY_TIMEOUT_MILLIS, MAX_RECEIVE_COUNT);
+
+        long[] busyUntil = new long[MAXIMUM_CONCURRENCY];
+        int sent = 0;
+        long now = 0;
+
+        // Batches are acknowledged as soon as they are handed over, the pollers keep track of when they finish
+        while (sent < images || !queue.isDrained()) {
+            while (sent < images && uploadedAt(sent, uploadsPerSecond) <= now) {
+                queue.send(notification(sent++), now);
+            }
+
+            for (int poller = 0; poller < busyUntil.length; poller++) {
+                if (busyUntil[poller] > now) {
+                    continue;
+                }
+
+                List<SQSEvent.SQSMessage> batch = queue.receive(now);
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                indexer.start = now;
+                queue.acknowledge(batch, sqsBatchIndexer.index(batch).response());
+                busyUntil[poller] = indexer.end;
+            }
+
+            now += TICK_MILLIS;
+        }
+
+        return new Result(queue.deleted(), queue.deadLetters(), quota, MAXIMUM_CONCURRENCY,
+                Arrays.stream(busyUntil).max().orElse(0));
+    }
+
+    private static long uploadedAt(final int image,
+                                   final int uploadsPerSecond) {
+        return image * 1000L / uploadsPerSecond;
+    }
+
+    private static String notification(final int image) {
+        return "{\"Records\":[{\"s3\":{\"bucket\":{\"name\":\"simulation\"},\"object\":{\"key\":\"bulk/image-" + image + ".jpg\"}}}]}";
+    }
+
+    private static int peakConcurrency(final long[] starts,
+                                       final long[] ends) {
+        long[] sortedEnds = ends.clone();
+        Arrays.sort(sortedEnds);
+        int running = 0;
+        int peak = 0;
+        int ended = 0;
+
+        // Starts are already in order
+        for (long start : starts) {
+            while (sortedEnds[ended] <= start) {
+                ended++;
+                running--;
+            }
+            running++;
+            peak = Math.max(peak, running);
+        }
+
+        return peak;
+    }
+
+    /**
+     * Stands in for IndexImageHandler.indexAll in one invocation, with the images shared by its index workers.
+     */
+    private static final class SimulatedIndexer {
+        private final RekognitionQuota quota;
+        private long start;
+        private long end;
+
+        private SimulatedIndexer(final RekognitionQuota quota) {
+            this.quota = quota;
+        }
+
+        private List<IndexImageHandler.IndexRecordResult> index(final List<IndexImageHandler.UploadedImage> images) {
+            long[] workers = new long[INDEX_CONCURRENCY];
+            Arrays.fill(workers, start);
+            List<IndexImageHandler.IndexRecordResult> results = new ArrayList<>();
+
+            for (IndexImageHandler.UploadedImage image : images) {
+                int worker = 0;
+                for (int i = 1; i < workers.length; i++) {
+                    if (workers[i] < workers[worker]) {
+                        worker = i;
+                    }
+                }
+
+                RekognitionQuota.Call call = quota.call(workers[worker]);
+                workers[worker] = call.end;
+                results.add(call.succeeded
+                        ? IndexImageHandler.IndexRecordResult.indexed(image.getBucket(), image.getKey(), "simulation", new ArrayList<>())
+                        : IndexImageHandler.IndexRecordResult.failed(image, THROTTLED));
+            }
+
+            end = Arrays.stream(workers).max().orElse(start);
+            return results;
+        }
+    }
+
+    private static final class Result {
+        private final int indexed;
+        private final int lost;
+        private final long calls;
+        private final long throttledCalls;
+        private final int concurrency;
+        private final long drainMillis;
+
+        private Result(final int indexed,
+                       final int lost,
+                       final RekognitionQuota quota,
+                       final int concurrency,
+                       final long drainMillis) {
+            this.indexed = indexed;
+            this.lost = lost;
+            this.calls = quota.calls();
+            this.throttledCalls = quota.throttledCalls();
+            this.concurrency = concurrency;
+            this.drainMillis = drainMillis;
+        }
+
+        private void print(final String mode) {
+            System.out.printf("%-7s %8d %6d %8d %9.1f%% %12d %9.1f %9.1f%n",
+                    mode, indexed, lost, calls, 100d * throttledCalls / calls, concurrency,
+                    drainMillis / 1000d, indexed * 1000d / drainMillis);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.webapp.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.webapp.function.JsonResponses;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.amazon.awssdk.services.rekognition.model.FaceMatch;
+
+/**
+ * The /recognise body of RecognizeImageHandler built by string concatenation, as bodies used to be, against
+ * JsonResponses. Run with {@code -prof gc} to compare the bytes allocated per response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonResponsesBenchmark {
+
+    @Param({"1", "5"})
+    public int matches;
+
+    private List<FaceMatch> faceMatches;
+    private Map<String, String> fullNames;
+
+    @Setup
+    public void setUp() {
+        faceMatches = new ArrayList<>(matches);
+        fullNames = new HashMap<>();
+
+        for (int i = 0; i < matches; i++) {
+            String faceId = "face-" + i;
+            faceMatches.add(FaceMatch.builder()
+                    .similarity(99.5f - i)
+                    .face(face -> face.faceId(faceId))
+                    .build());
+            fullNames.put(faceId, "Jane Doe " + i);
+        }
+    }
+
+    @Benchmark
+    public String concatenatedMatches() {
+        FaceMatch best = faceMatches.get(0);
+        String body = "{\n" +
+                "  \"person_name\": \"" + fullNames.get(best.face().faceId()) + "\",\n" +
+                "  \"similarity\": " + best.similarity() + ",\n" +
+                "  \"matches\": [";
+
+        for (int i = 0; i < faceMatches.size(); i++) {
+            FaceMatch faceMatch = faceMatches.get(i);
+            body += (i == 0 ? "\n" : ",\n") +
+                    "    {\"person_name\": \"" + fullNames.get(faceMatch.face().faceId()) + "\", " +
+                    "\"similarity\": " + faceMatch.similarity() + "}";
+        }
+
+        return body + "\n  ]\n}";
+    }
+
+    @Benchmark
+    public String jsonResponsesMatches() {
+        return JsonResponses.matches(faceMatches, fullNames::get);
+    }
+}
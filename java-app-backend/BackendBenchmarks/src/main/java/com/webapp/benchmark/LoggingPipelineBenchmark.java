@@ -0,0 +1,102 @@
+package com.webapp.benchmark;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.webapp.function.AsyncLogging;
+import com.webapp.function.LogSummaries;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.amazon.awssdk.services.rekognition.model.FaceMatch;
+import software.amazon.awssdk.services.rekognition.model.SearchFacesByImageResponse;
+
+/**
+ * Logging of one /recognise request, with the synchronous console appender BackendFunction used to have against the
+ * asynchronous one it has now, both writing to /dev/null with the Lambda JSON layout. A request logs on either side of
+ * a search, the search response at debug level and then flushes, parked for the search in between so the asynchronous
+ * appender can write while the request waits. The DEBUG level stands for the invocations picked by the powertools
+ * debug sampling. Run with {@code -prof gc} to compare the bytes allocated per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoggingPipelineBenchmark {
+    private static final Logger LOG = LogManager.getLogger(LoggingPipelineBenchmark.class);
+
+    private static final long SEARCH_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    @Param({"log4j2-sync-benchmark.xml", "log4j2-async-benchmark.xml"})
+    public String configuration;
+
+    @Param({"INFO", "DEBUG"})
+    public String level;
+
+    private SearchFacesByImageResponse response;
+
+    @Setup
+    public void setUp() throws URISyntaxException {
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        context.setConfigLocation(getClass().getClassLoader().getResource(configuration).toURI());
+        Configurator.setRootLevel(Level.valueOf(level));
+
+        List<FaceMatch> faceMatches = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            float similarity = 99.5f - i;
+            faceMatches.add(FaceMatch.builder()
+                    .similarity(similarity)
+                    .face(face -> face.faceId(UUID.randomUUID().toString())
+                            .imageId(UUID.randomUUID().toString())
+                            .externalImageId("index/static/" + UUID.randomUUID() + ".jpg")
+                            .confidence(similarity)
+                            .boundingBox(box -> box.width(0.2f).height(0.3f).left(0.4f).top(0.1f)))
+                    .build());
+        }
+
+        response = SearchFacesByImageResponse.builder()
+                .searchedFaceConfidence(99.9f)
+                .searchedFaceBoundingBox(box -> box.width(0.2f).height(0.3f).left(0.4f).top(0.1f))
+                .faceMatches(faceMatches)
+                .build();
+    }
+
+    /**
+     * The search response logged whole, as RecognizeImageHandler used to.
+     */
+    @Benchmark
+    public void responseToString() {
+        LOG.info("Searching image of {} bytes", 524288);
+        LockSupport.parkNanos(SEARCH_NANOS);
+        LOG.debug("Service response for find face {}", response);
+        LOG.info("Matched {} faces", response.faceMatches().size());
+        AsyncLogging.flush();
+    }
+
+    /**
+     * The search response summarised behind a level check, as RecognizeImageHandler does now.
+     */
+    @Benchmark
+    public void guardedSummary() {
+        LOG.info("Searching image of {} bytes", 524288);
+        LockSupport.parkNanos(SEARCH_NANOS);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Service response for find face {}", LogSummaries.searchFacesByImage(response));
+        }
+        LOG.info("Matched {} faces", response.faceMatches().size());
+        AsyncLogging.flush();
+    }
+}
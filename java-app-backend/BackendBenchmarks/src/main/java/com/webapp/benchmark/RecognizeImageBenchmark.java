@@ -0,0 +1,73 @@
+package com.webapp.benchmark;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import com.webapp.function.Base64ImageDecoder;
+import com.webapp.function.ImagePreprocessor;
+import com.webapp.function.SearchResultCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * CPU bound work RecognizeImageHandler does on the request body before calling Rekognition: decoding the base64
+ * image, fingerprinting it for the search result cache, validating or downscaling it and cutting out a face for the
+ * multi-face mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecognizeImageBenchmark {
+
+    @Param({"640x480", "1920x1080", "4032x3024"})
+    public String dimensions;
+
+    private String encoded;
+    private byte[] image;
+    private ImagePreprocessor preprocessor;
+    private BufferedImage decodedImage;
+
+    @Setup
+    public void setUp() {
+        image = BenchmarkImages.jpeg(dimensions);
+        encoded = Base64.getEncoder().encodeToString(image);
+        preprocessor = new ImagePreprocessor(1600, 0.9f, 40_000_000);
+        decodedImage = preprocessor.decode(image);
+    }
+
+    @Benchmark
+    public byte[] jdkBase64Decode() {
+        return Base64.getDecoder().decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] base64ImageDecoder() {
+        return Base64ImageDecoder.decode(encoded);
+    }
+
+    @Benchmark
+    public SearchResultCache.Fingerprint fingerprint() {
+        return SearchResultCache.fingerprint(image);
+    }
+
+    /**
+     * Header validation only for images within the limit, header validation plus a JPEG re-encode above it.
+     */
+    @Benchmark
+    public ImagePreprocessor.PreparedImage prepare() {
+        return preprocessor.prepare(image);
+    }
+
+    @Benchmark
+    public byte[] cropFace() {
+        return preprocessor.cropFace(decodedImage, new Rectangle2D.Float(0.4f, 0.3f, 0.15f, 0.2f));
+    }
+}
@@ -0,0 +1,72 @@
+package com.webapp.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Simulated IndexFaces quota on a clock in milliseconds: calls beyond the transactions per second of their second are
+ * throttled, and each call is retried the way the SDK's legacy retry policy does for throttling, with up to 3 retries
+ * and equal jitter backoff from 500 ms.
+ */
+final class RekognitionQuota {
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long THROTTLED_BASE_DELAY_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 20_000;
+
+    private final int transactionsPerSecond;
+    private final long callMillis;
+    private final Random random = new Random(42);
+    private final Map<Long, Integer> callsPerSecond = new HashMap<>();
+
+    private long calls;
+    private long throttledCalls;
+
+    RekognitionQuota(final int transactionsPerSecond,
+                     final long callMillis) {
+        this.transactionsPerSecond = transactionsPerSecond;
+        this.callMillis = callMillis;
+    }
+
+    Call call(final long start) {
+        long now = start;
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            calls++;
+            int inSecond = callsPerSecond.merge(now / 1000, 1, Integer::sum);
+
+            if (inSecond <= transactionsPerSecond) {
+                return new Call(now + callMillis, true);
+            }
+
+            // A throttled call is rejected faster than a call that indexes
+            throttledCalls++;
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, THROTTLED_BASE_DELAY_MILLIS << attempt);
+            now += callMillis / 5 + backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+        }
+
+        return new Call(now, false);
+    }
+
+    long calls() {
+        return calls;
+    }
+
+    long throttledCalls() {
+        return throttledCalls;
+    }
+
+    /**
+     * Outcome of a call once the SDK gave up retrying or it succeeded.
+     */
+    static final class Call {
+        final long end;
+        final boolean succeeded;
+
+        private Call(final long end,
+                     final boolean succeeded) {
+            this.end = end;
+            this.succeeded = succeeded;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.webapp.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import com.webapp.function.StageTimings;
+import com.webapp.function.StageTimings.Stage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Cost of timing a stage, from the handler thread alone and from the four index workers IndexImageHandler runs by
+ * default, all counting into the same histogram.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StageTimingsBenchmark {
+
+    @Benchmark
+    public long record() {
+        return StageTimings.record(Stage.DYNAMODB, System.nanoTime());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long recordContended() {
+        return StageTimings.record(Stage.DYNAMODB, System.nanoTime());
+    }
+}
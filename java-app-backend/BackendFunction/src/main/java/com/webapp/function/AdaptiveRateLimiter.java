@@ -0,0 +1,106 @@
+package com.webapp.function;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket whose rate adapts to the throttling of the service behind it, additive increase and multiplicative
+ * decrease as in TCP congestion control.
+ * <p>
+ * Every success raises the rate so it grows by about one call per second each second, every throttled call halves it,
+ * at most once per cool down so a burst of throttled responses to calls already in flight counts as one. The bucket
+ * holds up to a second worth of tokens. Calls reserve a token ahead of time and wait for it, so waiting callers are
+ * served in order.
+ */
+public class AdaptiveRateLimiter {
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final long DECREASE_COOL_DOWN_NANOS = 500_000_000L;
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final double minRate;
+    private final double maxRate;
+    private final LongSupplier nanoClock;
+
+    private double rate;
+    private double tokens;
+    private long refilledAt;
+    private long decreasedAt;
+
+    /**
+     * @param minRate calls per second the rate never goes under, however throttled
+     * @param maxRate calls per second the rate starts at and never goes over
+     */
+    public AdaptiveRateLimiter(final double minRate,
+                               final double maxRate) {
+        this(minRate, maxRate, System::nanoTime);
+    }
+
+    AdaptiveRateLimiter(final double minRate,
+                        final double maxRate,
+                        final LongSupplier nanoClock) {
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.nanoClock = nanoClock;
+        this.rate = maxRate;
+        this.tokens = Math.max(1, maxRate);
+        this.refilledAt = nanoClock.getAsLong();
+        this.decreasedAt = refilledAt - DECREASE_COOL_DOWN_NANOS;
+    }
+
+    /**
+     * Reserves a token unless it would take longer than the given time to become available.
+     *
+     * @return nanos to wait before the call, or -1 when nothing was reserved
+     */
+    public synchronized long reserve(final long maxWaitNanos) {
+        refill(nanoClock.getAsLong());
+
+        long waitNanos = tokens >= 1 ? 0 : (long) ((1 - tokens) / rate * NANOS_PER_SECOND);
+        if (waitNanos > maxWaitNanos) {
+            return -1;
+        }
+
+        tokens--;
+        return waitNanos;
+    }
+
+    public synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + 1 / rate);
+    }
+
+    public synchronized void onThrottle() {
+        long now = nanoClock.getAsLong();
+        long sinceDecrease = now - decreasedAt;
+
+        // A clock that went backwards, as across a restore, counts as a cool down over
+        if (sinceDecrease < 0 || sinceDecrease >= DECREASE_COOL_DOWN_NANOS) {
+            refill(now);
+            rate = Math.max(minRate, rate * DECREASE_FACTOR);
+            tokens = Math.min(tokens, 0);
+            decreasedAt = now;
+        }
+    }
+
+    /**
+     * Times the bucket from the current clock again, with a second worth of tokens at the current rate. Call after the
+     * clock was not continuous, such as across a restore.
+     */
+    public synchronized void restartClock() {
+        long now = nanoClock.getAsLong();
+
+        tokens = Math.max(1, rate);
+        refilledAt = now;
+        decreasedAt = now - DECREASE_COOL_DOWN_NANOS;
+    }
+
+    /**
+     * @return calls per second currently allowed
+     */
+    public synchronized double rate() {
+        return rate;
+    }
+
+    private void refill(final long now) {
+        tokens = Math.min(Math.max(1, rate), tokens + Math.max(0, now - refilledAt) / NANOS_PER_SECOND * rate);
+        refilledAt = now;
+    }
+}
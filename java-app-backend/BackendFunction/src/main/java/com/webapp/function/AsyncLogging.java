@@ -0,0 +1,92 @@
+package com.webapp.function;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractOutputStreamAppender;
+import org.apache.logging.log4j.core.appender.AsyncAppender;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+import static com.webapp.function.Env.intEnv;
+
+/**
+ * Drains the asynchronous appenders of log4j2.xml. Lambda freezes the environment as soon as the handler returns, so
+ * events still queued would only be written when it thaws for a later invocation, or never if it is not reused.
+ * Handlers call {@link #flush()} last, the laying out and writing of their events having overlapped their remote calls.
+ * <p>
+ * An empty queue alone does not mean the last event was written, as the appender thread may still be laying it out. A
+ * barrier event is queued after the events to flush instead: the appender thread takes events off the queue one at a
+ * time, so once the barrier is gone every event before it has been handed to the output appender. The barrier carries
+ * the {@link #BARRIER} marker, which log4j2.xml filters out before the output appender.
+ */
+public final class AsyncLogging {
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(intEnv("LogFlushTimeoutMillis", 200));
+    private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final Marker BARRIER = MarkerManager.getMarker("LOG_FLUSH_BARRIER");
+
+    private AsyncLogging() {
+    }
+
+    /**
+     * Waits for the queued events to be written, for at most LogFlushTimeoutMillis.
+     */
+    public static void flush() {
+        flush(FLUSH_TIMEOUT_NANOS);
+    }
+
+    /**
+     * @return false when the events were not all written once the timeout elapsed
+     */
+    public static boolean flush(final long timeoutNanos) {
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        long deadline = System.nanoTime() + timeoutNanos;
+        boolean drained = true;
+
+        for (Appender appender : context.getConfiguration().getAppenders().values()) {
+            if (appender instanceof AsyncAppender) {
+                appender.append(barrier());
+                drained &= drain((AsyncAppender) appender, deadline);
+            }
+        }
+
+        // The output appenders buffer what they were handed and write it out here
+        for (Appender appender : context.getConfiguration().getAppenders().values()) {
+            if (appender instanceof AbstractOutputStreamAppender) {
+                ((AbstractOutputStreamAppender<?>) appender).getManager().flush();
+            }
+        }
+
+        return drained;
+    }
+
+    private static LogEvent barrier() {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName(AsyncLogging.class.getName())
+                .setMarker(BARRIER)
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Flush barrier"))
+                .setTimeMillis(System.currentTimeMillis())
+                .build();
+    }
+
+    private static boolean drain(final AsyncAppender appender,
+                                 final long deadline) {
+        while (appender.getQueueRemainingCapacity() < appender.getQueueCapacity()) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(POLL_NANOS);
+        }
+
+        return true;
+    }
+}
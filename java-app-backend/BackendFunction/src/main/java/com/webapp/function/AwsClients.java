@@ -0,0 +1,450 @@
+package com.webapp.function;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.awscore.client.builder.AwsAsyncClientBuilder;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
+import software.amazon.awssdk.awscore.client.builder.AwsSyncClientBuilder;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.retry.RetryUtils;
+import software.amazon.awssdk.core.retry.conditions.AndRetryCondition;
+import software.amazon.awssdk.core.retry.conditions.RetryCondition;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.rekognition.RekognitionAsyncClient;
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.rekognition.model.CreateCollectionRequest;
+import software.amazon.awssdk.services.rekognition.model.CreateCollectionResponse;
+import software.amazon.awssdk.services.rekognition.model.DeleteCollectionRequest;
+import software.amazon.awssdk.services.rekognition.model.DeleteCollectionResponse;
+import software.amazon.awssdk.services.rekognition.model.DeleteFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.DeleteFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.IndexFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.IndexFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.ListFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.ListFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.SearchFacesByImageRequest;
+import software.amazon.awssdk.services.rekognition.model.SearchFacesByImageResponse;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+/**
+ * Creates the SDK clients used by the handlers.
+ * <p>
+ * Clients are built for a fast cold start: inside Lambda the region and credentials are pinned from the environment
+ * instead of walking the provider chains, and the HTTP client is set explicitly so the SDK does not scan the classpath
+ * for implementations. Blocking clients use the light URL connection client, async clients use netty.
+ * <p>
+ * Handlers are written once against {@link RekognitionCalls}, {@link DynamoDbCalls} and {@link S3Calls}, which hold
+ * only the APIs they call. By default each call runs on the calling thread over the blocking client and hands back an
+ * already completed future, so netty is never loaded during the cold start. With {@code ClientMode=async} the calls go
+ * over the async clients instead, which keeps the non blocking path available to compare against.
+ * <p>
+ * Every call is timed as a stage of the invocation by {@link StageTimings}. RekognitionEndpoint, DynamoDbEndpoint and
+ * S3Endpoint point a client at a stand in service, for tools run locally.
+ */
+public final class AwsClients {
+    public static final String MODE = System.getenv().getOrDefault("ClientMode", "blocking");
+
+    private static final String REGION = System.getenv("AWS_REGION");
+
+    // Calls are timed as stages of the invocation
+    private static final ClientOverrideConfiguration TIMED = ClientOverrideConfiguration.builder()
+            .addExecutionInterceptor(new StageTimings.SdkCalls())
+            .build();
+
+    // Default retries for every other failure
+    private static final RetryPolicy NO_THROTTLING_RETRIES = RetryPolicy.defaultRetryPolicy().toBuilder()
+            .retryCondition(AndRetryCondition.create(RetryCondition.defaultRetryCondition(),
+                    context -> !RetryUtils.isThrottlingException(context.exception())))
+            .build();
+
+    // Stand ins seldom resolve bucket names as hosts
+    private static final S3Configuration S3_STAND_IN = S3Configuration.builder()
+            .pathStyleAccessEnabled(System.getenv("S3Endpoint") != null)
+            .build();
+
+    private AwsClients() {
+    }
+
+    public static boolean isBlocking() {
+        return !"async".equalsIgnoreCase(MODE);
+    }
+
+    /**
+     * Rekognition client paced by {@link RateLimitedRekognition}, which takes over retrying throttled calls from the
+     * SDK.
+     */
+    public static RateLimitedRekognition rekognition() {
+        ClientOverrideConfiguration configuration = TIMED.toBuilder().retryPolicy(NO_THROTTLING_RETRIES).build();
+
+        if (isBlocking()) {
+            return RateLimitedRekognition.fromEnvironment(new BlockingRekognition(
+                    sync(endpoint(RekognitionClient.builder(), "RekognitionEndpoint"))
+                            .overrideConfiguration(configuration)
+                            .build()));
+        }
+        return RateLimitedRekognition.fromEnvironment(new AsyncRekognition(
+                async(endpoint(RekognitionAsyncClient.builder(), "RekognitionEndpoint"))
+                        .overrideConfiguration(configuration)
+                        .build()));
+    }
+
+    public static DynamoDbCalls dynamoDb() {
+        if (isBlocking()) {
+            return new BlockingDynamoDb(sync(endpoint(DynamoDbClient.builder(), "DynamoDbEndpoint")).build());
+        }
+        return new AsyncDynamoDb(async(endpoint(DynamoDbAsyncClient.builder(), "DynamoDbEndpoint")).build());
+    }
+
+    public static S3Calls s3() {
+        if (isBlocking()) {
+            return new BlockingS3(sync(endpoint(S3Client.builder(), "S3Endpoint"))
+                    .serviceConfiguration(S3_STAND_IN)
+                    .build());
+        }
+        return new AsyncS3(async(endpoint(S3AsyncClient.builder(), "S3Endpoint"))
+                .serviceConfiguration(S3_STAND_IN)
+                .build());
+    }
+
+    public static S3Presigner s3Presigner() {
+        S3Presigner.Builder builder = S3Presigner.builder();
+
+        if (REGION != null) {
+            builder.region(Region.of(REGION));
+        }
+
+        if (hasEnvironmentCredentials()) {
+            builder.credentialsProvider(EnvironmentVariableCredentialsProvider.create());
+        }
+
+        return builder.build();
+    }
+
+    private static <B extends AwsSyncClientBuilder<B, ?> & AwsClientBuilder<B, ?>> B sync(final B builder) {
+        return pinned(builder)
+                .httpClientBuilder(UrlConnectionHttpClient.builder());
+    }
+
+    private static <B extends AwsAsyncClientBuilder<B, ?> & AwsClientBuilder<B, ?>> B async(final B builder) {
+        return pinned(builder)
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder());
+    }
+
+    private static <B extends AwsClientBuilder<B, ?>> B pinned(final B builder) {
+        if (REGION != null) {
+            builder.region(Region.of(REGION));
+        }
+
+        if (hasEnvironmentCredentials()) {
+            builder.credentialsProvider(EnvironmentVariableCredentialsProvider.create());
+        }
+
+        return builder.overrideConfiguration(TIMED);
+    }
+
+    private static <B extends AwsClientBuilder<B, ?>> B endpoint(final B builder,
+                                                                 final String variable) {
+        String endpoint = System.getenv(variable);
+
+        if (endpoint != null) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+
+        return builder;
+    }
+
+    private static boolean hasEnvironmentCredentials() {
+        return System.getenv("AWS_ACCESS_KEY_ID") != null;
+    }
+
+    static <T> CompletableFuture<T> call(final Supplier<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(call.get());
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    static final class AsyncRekognition implements RekognitionCalls {
+        private final RekognitionAsyncClient client;
+
+        AsyncRekognition(final RekognitionAsyncClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public CompletableFuture<SearchFacesByImageResponse> searchFacesByImage(SearchFacesByImageRequest request) {
+            return client.searchFacesByImage(request);
+        }
+
+        @Override
+        public CompletableFuture<IndexFacesResponse> indexFaces(IndexFacesRequest request) {
+            return client.indexFaces(request);
+        }
+
+        @Override
+        public CompletableFuture<DetectFacesResponse> detectFaces(DetectFacesRequest request) {
+            return client.detectFaces(request);
+        }
+
+        @Override
+        public CompletableFuture<ListFacesResponse> listFaces(ListFacesRequest request) {
+            return client.listFaces(request);
+        }
+
+        @Override
+        public CompletableFuture<DeleteFacesResponse> deleteFaces(DeleteFacesRequest request) {
+            return client.deleteFaces(request);
+        }
+
+        @Override
+        public CompletableFuture<CreateCollectionResponse> createCollection(CreateCollectionRequest request) {
+            return client.createCollection(request);
+        }
+
+        @Override
+        public CompletableFuture<DeleteCollectionResponse> deleteCollection(DeleteCollectionRequest request) {
+            return client.deleteCollection(request);
+        }
+    }
+
+    static final class BlockingRekognition implements RekognitionCalls {
+        private final RekognitionClient client;
+
+        BlockingRekognition(final RekognitionClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public CompletableFuture<SearchFacesByImageResponse> searchFacesByImage(SearchFacesByImageRequest request) {
+            return call(() -> client.searchFacesByImage(request));
+        }
+
+        @Override
+        public CompletableFuture<IndexFacesResponse> indexFaces(IndexFacesRequest request) {
+            return call(() -> client.indexFaces(request));
+        }
+
+        @Override
+        public CompletableFuture<DetectFacesResponse> detectFaces(DetectFacesRequest request) {
+            return call(() -> client.detectFaces(request));
+        }
+
+        @Override
+        public CompletableFuture<ListFacesResponse> listFaces(ListFacesRequest request) {
+            return call(() -> client.listFaces(request));
+        }
+
+        @Override
+        public CompletableFuture<DeleteFacesResponse> deleteFaces(DeleteFacesRequest request) {
+            return call(() -> client.deleteFaces(request));
+        }
+
+        @Override
+        public CompletableFuture<CreateCollectionResponse> createCollection(CreateCollectionRequest request) {
+            return call(() -> client.createCollection(request));
+        }
+
+        @Override
+        public CompletableFuture<DeleteCollectionResponse> deleteCollection(DeleteCollectionRequest request) {
+            return call(() -> client.deleteCollection(request));
+        }
+    }
+
+    static final class AsyncDynamoDb implements DynamoDbCalls {
+        private final DynamoDbAsyncClient client;
+
+        AsyncDynamoDb(final DynamoDbAsyncClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public CompletableFuture<GetItemResponse> getItem(GetItemRequest request) {
+            return client.getItem(request);
+        }
+
+        @Override
+        public CompletableFuture<BatchGetItemResponse> batchGetItem(BatchGetItemRequest request) {
+            return client.batchGetItem(request);
+        }
+
+        @Override
+        public CompletableFuture<PutItemResponse> putItem(PutItemRequest request) {
+            return client.putItem(request);
+        }
+
+        @Override
+        public CompletableFuture<DeleteItemResponse> deleteItem(DeleteItemRequest request) {
+            return client.deleteItem(request);
+        }
+
+        @Override
+        public CompletableFuture<BatchWriteItemResponse> batchWriteItem(BatchWriteItemRequest request) {
+            return client.batchWriteItem(request);
+        }
+
+        @Override
+        public CompletableFuture<ScanResponse> scan(ScanRequest request) {
+            return client.scan(request);
+        }
+    }
+
+    static final class BlockingDynamoDb implements DynamoDbCalls {
+        private final DynamoDbClient client;
+
+        BlockingDynamoDb(final DynamoDbClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public CompletableFuture<GetItemResponse> getItem(GetItemRequest request) {
+            return call(() -> client.getItem(request));
+        }
+
+        @Override
+        public CompletableFuture<BatchGetItemResponse> batchGetItem(BatchGetItemRequest request) {
+            return call(() -> client.batchGetItem(request));
+        }
+
+        @Override
+        public CompletableFuture<PutItemResponse> putItem(PutItemRequest request) {
+            return call(() -> client.putItem(request));
+        }
+
+        @Override
+        public CompletableFuture<DeleteItemResponse> deleteItem(DeleteItemRequest request) {
+            return call(() -> client.deleteItem(request));
+        }
+
+        @Override
+        public CompletableFuture<BatchWriteItemResponse> batchWriteItem(BatchWriteItemRequest request) {
+            return call(() -> client.batchWriteItem(request));
+        }
+
+        @Override
+        public CompletableFuture<ScanResponse> scan(ScanRequest request) {
+            return call(() -> client.scan(request));
+        }
+    }
+
+    static final class AsyncS3 implements S3Calls {
+        private final S3AsyncClient client;
+
+        AsyncS3(final S3AsyncClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public CompletableFuture<HeadObjectResponse> headObject(HeadObjectRequest request) {
+            return client.headObject(request);
+        }
+
+        @Override
+        public CompletableFuture<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request request) {
+            return client.listObjectsV2(request);
+        }
+
+        @Override
+        public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(
+                CreateMultipartUploadRequest request) {
+            return client.createMultipartUpload(request);
+        }
+
+        @Override
+        public CompletableFuture<ListPartsResponse> listParts(ListPartsRequest request) {
+            return client.listParts(request);
+        }
+
+        @Override
+        public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(
+                CompleteMultipartUploadRequest request) {
+            return client.completeMultipartUpload(request);
+        }
+
+        @Override
+        public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(
+                AbortMultipartUploadRequest request) {
+            return client.abortMultipartUpload(request);
+        }
+    }
+
+    static final class BlockingS3 implements S3Calls {
+        private final S3Client client;
+
+        BlockingS3(final S3Client client) {
+            this.client = client;
+        }
+
+        @Override
+        public CompletableFuture<HeadObjectResponse> headObject(HeadObjectRequest request) {
+            return call(() -> client.headObject(request));
+        }
+
+        @Override
+        public CompletableFuture<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request request) {
+            return call(() -> client.listObjectsV2(request));
+        }
+
+        @Override
+        public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(
+                CreateMultipartUploadRequest request) {
+            return call(() -> client.createMultipartUpload(request));
+        }
+
+        @Override
+        public CompletableFuture<ListPartsResponse> listParts(ListPartsRequest request) {
+            return call(() -> client.listParts(request));
+        }
+
+        @Override
+        public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(
+                CompleteMultipartUploadRequest request) {
+            return call(() -> client.completeMultipartUpload(request));
+        }
+
+        @Override
+        public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(
+                AbortMultipartUploadRequest request) {
+            return call(() -> client.abortMultipartUpload(request));
+        }
+    }
+}
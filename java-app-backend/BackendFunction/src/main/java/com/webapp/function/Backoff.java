@@ -0,0 +1,48 @@
+package com.webapp.function;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponential backoff with full jitter: the delay before a retry is drawn uniformly between zero and a cap that doubles
+ * with every attempt, up to a maximum. Delays run on one daemon scheduler, so waiting never holds a thread.
+ */
+final class Backoff {
+    private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "backoff-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long baseMillis;
+    private final long maxMillis;
+
+    Backoff(final long baseMillis,
+            final long maxMillis) {
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * @return delay in milliseconds before the given retry, counted from 1
+     */
+    long delayMillis(final int attempt) {
+        long cap = Math.min(maxMillis, baseMillis << Math.min(attempt, 20));
+
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * @return future completed once the delay before the given retry has passed
+     */
+    CompletableFuture<Void> after(final int attempt) {
+        CompletableFuture<Void> delay = new CompletableFuture<>();
+
+        RETRY_SCHEDULER.schedule(() -> delay.complete(null), delayMillis(attempt), TimeUnit.MILLISECONDS);
+
+        return delay;
+    }
+}
@@ -0,0 +1,97 @@
+package com.webapp.function;
+
+import java.util.Arrays;
+
+/**
+ * Decodes a base 64 request body straight from the string into an exactly sized array.
+ * <p>
+ * {@code Base64.getDecoder().decode(String)} first copies the whole string into an intermediate byte array and the
+ * result was then copied once more by {@code SdkBytes.fromByteArray}. Here the characters are read in place and the
+ * returned array is sized exactly, so it can be handed to {@code SdkBytes.fromByteArrayUnsafe} without another copy.
+ */
+public final class Base64ImageDecoder {
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            VALUES[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private Base64ImageDecoder() {
+    }
+
+    /**
+     * Same contract as the basic {@link java.util.Base64} decoder: padding is optional and any character outside the
+     * base 64 alphabet is rejected.
+     *
+     * @throws IllegalArgumentException if the input is not valid base 64
+     */
+    public static byte[] decode(final String encoded) {
+        long start = System.nanoTime();
+        int length = encoded.length();
+        int padding = 0;
+
+        if (length > 0 && encoded.charAt(length - 1) == '=') {
+            padding++;
+            if (length > 1 && encoded.charAt(length - 2) == '=') {
+                padding++;
+            }
+        }
+
+        if (padding > 0 && length % 4 != 0) {
+            throw new IllegalArgumentException("Invalid base64 padding");
+        }
+
+        int dataChars = length - padding;
+        int remainder = dataChars % 4;
+
+        if (remainder == 1) {
+            throw new IllegalArgumentException("Last unit does not have at least two base64 characters");
+        }
+
+        byte[] decoded = new byte[dataChars / 4 * 3 + (remainder == 0 ? 0 : remainder - 1)];
+        int in = 0;
+        int out = 0;
+        int fullUnitsEnd = dataChars - remainder;
+
+        while (in < fullUnitsEnd) {
+            int bits = value(encoded, in) << 18
+                    | value(encoded, in + 1) << 12
+                    | value(encoded, in + 2) << 6
+                    | value(encoded, in + 3);
+            decoded[out++] = (byte) (bits >> 16);
+            decoded[out++] = (byte) (bits >> 8);
+            decoded[out++] = (byte) bits;
+            in += 4;
+        }
+
+        if (remainder > 0) {
+            int bits = value(encoded, in) << 18 | value(encoded, in + 1) << 12;
+            if (remainder == 3) {
+                bits |= value(encoded, in + 2) << 6;
+            }
+            decoded[out++] = (byte) (bits >> 16);
+            if (remainder == 3) {
+                decoded[out] = (byte) (bits >> 8);
+            }
+        }
+
+        StageTimings.record(StageTimings.Stage.DECODE, start);
+        return decoded;
+    }
+
+    private static int value(final String encoded,
+                             final int index) {
+        char c = encoded.charAt(index);
+        int value = c < VALUES.length ? VALUES[c] : -1;
+
+        if (value < 0) {
+            throw new IllegalArgumentException("Illegal base64 character " + Integer.toHexString(c));
+        }
+
+        return value;
+    }
+}
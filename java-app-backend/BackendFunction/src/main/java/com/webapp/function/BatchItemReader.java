@@ -0,0 +1,117 @@
+package com.webapp.function;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Reads items by their string hash key with BatchGetItem in chunks of 100, retrying unprocessed keys with exponential
+ * backoff and full jitter.
+ */
+public class BatchItemReader {
+    private static final Logger LOG = LogManager.getLogger(BatchItemReader.class);
+
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int MAX_ATTEMPTS = 6;
+    private static final Backoff BACKOFF = new Backoff(50, 2_000);
+
+    private final DynamoDbCalls dynamoDbClient;
+    private final String tableName;
+    private final String keyName;
+    private final AtomicLong batchCalls = new AtomicLong();
+
+    public BatchItemReader(final DynamoDbCalls dynamoDbClient,
+                           final String tableName,
+                           final String keyName) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.keyName = keyName;
+    }
+
+    /**
+     * @return future of the items found, by key, keys without an item are absent. Fails when keys are still
+     * unprocessed after all retries, so a throttled read is never mistaken for a missing item
+     */
+    public CompletableFuture<Map<String, Map<String, AttributeValue>>> getAll(final Collection<String> keys) {
+        List<String> distinctKeys = keys.stream()
+                .distinct()
+                .collect(toList());
+        List<CompletableFuture<List<Map<String, AttributeValue>>>> batches = new ArrayList<>();
+
+        for (int from = 0; from < distinctKeys.size(); from += MAX_BATCH_SIZE) {
+            List<Map<String, AttributeValue>> keyMaps = distinctKeys.subList(from, Math.min(from + MAX_BATCH_SIZE, distinctKeys.size())).stream()
+                    .map(key -> Collections.singletonMap(keyName, AttributeValue.builder()
+                            .s(key)
+                            .build()))
+                    .collect(toList());
+
+            batches.add(read(keyMaps, 0));
+        }
+
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0]))
+                .thenApply(done -> {
+                    Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+
+                    for (CompletableFuture<List<Map<String, AttributeValue>>> batch : batches) {
+                        for (Map<String, AttributeValue> item : batch.join()) {
+                            items.put(item.get(keyName).s(), item);
+                        }
+                    }
+
+                    return items;
+                });
+    }
+
+    /**
+     * @return number of BatchGetItem calls made since the previous call, retries included
+     */
+    public long drainBatchCalls() {
+        return batchCalls.getAndSet(0);
+    }
+
+    private CompletableFuture<List<Map<String, AttributeValue>>> read(final List<Map<String, AttributeValue>> keyMaps,
+                                                                    final int attempt) {
+        batchCalls.incrementAndGet();
+
+        return dynamoDbClient.batchGetItem(builder -> builder
+                        .requestItems(Collections.singletonMap(tableName, KeysAndAttributes.builder()
+                                .keys(keyMaps)
+                                .build())))
+                .thenCompose(response -> {
+                    List<Map<String, AttributeValue>> found = response.responses().getOrDefault(tableName, Collections.emptyList());
+                    KeysAndAttributes unprocessed = response.unprocessedKeys().get(tableName);
+
+                    if (unprocessed == null || unprocessed.keys().isEmpty()) {
+                        return CompletableFuture.completedFuture(found);
+                    }
+
+                    if (attempt + 1 >= MAX_ATTEMPTS) {
+                        LOG.error("Giving up on {} keys for table {} after {} attempts", unprocessed.keys().size(), tableName, MAX_ATTEMPTS);
+                        CompletableFuture<List<Map<String, AttributeValue>>> failed = new CompletableFuture<>();
+                        failed.completeExceptionally(new IllegalStateException(unprocessed.keys().size() + " keys unprocessed after " + MAX_ATTEMPTS + " attempts"));
+                        return failed;
+                    }
+
+                    LOG.debug("{} unprocessed keys after attempt {}", unprocessed.keys().size(), attempt + 1);
+                    return BACKOFF.after(attempt + 1)
+                            .thenCompose(ignored -> read(unprocessed.keys(), attempt + 1))
+                            .thenApply(retried -> {
+                                List<Map<String, AttributeValue>> all = new ArrayList<>(found);
+                                all.addAll(retried);
+                                return all;
+                            });
+                });
+    }
+}
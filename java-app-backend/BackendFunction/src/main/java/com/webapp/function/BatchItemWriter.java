@@ -0,0 +1,92 @@
+package com.webapp.function;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Writes items with BatchWriteItem in chunks of 25, retrying unprocessed items with exponential backoff and full jitter.
+ */
+public class BatchItemWriter {
+    private static final Logger LOG = LogManager.getLogger(BatchItemWriter.class);
+
+    private static final int MAX_BATCH_SIZE = 25;
+    private static final int MAX_ATTEMPTS = 6;
+    private static final Backoff BACKOFF = new Backoff(50, 2_000);
+
+    private final DynamoDbCalls dynamoDbClient;
+    private final String tableName;
+    private final AtomicLong batchCalls = new AtomicLong();
+
+    public BatchItemWriter(final DynamoDbCalls dynamoDbClient,
+                           final String tableName) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+    }
+
+    /**
+     * @return future of the items that could not be written after all retries, empty when everything was persisted
+     */
+    public CompletableFuture<List<Map<String, AttributeValue>>> putAll(final List<Map<String, AttributeValue>> items) {
+        List<CompletableFuture<List<Map<String, AttributeValue>>>> batches = new ArrayList<>();
+
+        for (int from = 0; from < items.size(); from += MAX_BATCH_SIZE) {
+            List<WriteRequest> requests = items.subList(from, Math.min(from + MAX_BATCH_SIZE, items.size())).stream()
+                    .map(item -> WriteRequest.builder()
+                            .putRequest(PutRequest.builder().item(item).build())
+                            .build())
+                    .collect(toList());
+
+            batches.add(write(requests, 0));
+        }
+
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0]))
+                .thenApply(done -> batches.stream()
+                        .flatMap(batch -> batch.join().stream())
+                        .collect(toList()));
+    }
+
+    /**
+     * @return number of BatchWriteItem calls made since the previous call, retries included
+     */
+    public long drainBatchCalls() {
+        return batchCalls.getAndSet(0);
+    }
+
+    private CompletableFuture<List<Map<String, AttributeValue>>> write(final List<WriteRequest> requests,
+                                                                     final int attempt) {
+        batchCalls.incrementAndGet();
+
+        return dynamoDbClient.batchWriteItem(builder -> builder
+                        .requestItems(Collections.singletonMap(tableName, requests)))
+                .thenCompose(response -> {
+                    List<WriteRequest> unprocessed = response.unprocessedItems().getOrDefault(tableName, Collections.emptyList());
+
+                    if (unprocessed.isEmpty()) {
+                        return CompletableFuture.completedFuture(Collections.<Map<String, AttributeValue>>emptyList());
+                    }
+
+                    if (attempt + 1 >= MAX_ATTEMPTS) {
+                        LOG.error("Giving up on {} items for table {} after {} attempts", unprocessed.size(), tableName, MAX_ATTEMPTS);
+                        return CompletableFuture.completedFuture(unprocessed.stream()
+                                .map(request -> request.putRequest().item())
+                                .collect(toList()));
+                    }
+
+                    LOG.debug("{} unprocessed items after attempt {}", unprocessed.size(), attempt + 1);
+                    return BACKOFF.after(attempt + 1)
+                            .thenCompose(ignored -> write(unprocessed, attempt + 1));
+                });
+    }
+}
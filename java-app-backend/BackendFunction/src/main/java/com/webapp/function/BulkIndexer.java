@@ -0,0 +1,251 @@
+package com.webapp.function;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.cloudwatchlogs.emf.config.EnvironmentConfigurationProvider;
+import software.amazon.cloudwatchlogs.emf.environment.Environments;
+
+import static com.webapp.function.Env.intEnv;
+import static java.util.stream.Collectors.toList;
+import static software.amazon.lambda.powertools.metrics.MetricsUtils.metricsLogger;
+
+/**
+ * Indexes every image already stored under a prefix of the bucket, to fill a new collection or one in another region,
+ * with the same code IndexImageHandler indexes uploads with.
+ * <p>
+ * Keys are listed in order one ListObjectsV2 page at a time and indexed in batches of BulkIndexBatchSize images, with
+ * IndexConcurrency images in flight and IndexFaces paced at RekognitionMaxTps. After every batch the last key is saved
+ * to the checkpoint file, and a run given the same file resumes after it. Failed images are appended to a file next to
+ * the checkpoint so they can be indexed again.
+ * <p>
+ * Usage: java -cp BackendFunction.jar com.webapp.function.BulkIndexer bucket [prefix] [checkpoint file]
+ */
+public final class BulkIndexer {
+    private static final Logger LOG = LogManager.getLogger(BulkIndexer.class);
+
+    private final S3Calls s3Client;
+    private final Function<List<IndexImageHandler.UploadedImage>, List<IndexImageHandler.IndexRecordResult>> indexer;
+    private final int batchSize;
+    private final long batchBudgetMillis;
+
+    /**
+     * @param indexer           indexes the images and returns their outcome in the same order
+     * @param batchBudgetMillis time given to a batch for the waits and retries of its throttled calls
+     */
+    public BulkIndexer(final S3Calls s3Client,
+                       final Function<List<IndexImageHandler.UploadedImage>, List<IndexImageHandler.IndexRecordResult>> indexer,
+                       final int batchSize,
+                       final long batchBudgetMillis) {
+        this.s3Client = s3Client;
+        this.indexer = indexer;
+        this.batchSize = batchSize;
+        this.batchBudgetMillis = batchBudgetMillis;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: BulkIndexer bucket [prefix] [checkpoint file]");
+            System.exit(2);
+        }
+
+        // Metrics are printed with the log instead of probing for a CloudWatch agent
+        if (System.getenv("AWS_EMF_ENVIRONMENT") == null) {
+            EnvironmentConfigurationProvider.getConfig().setEnvironmentOverride(Environments.Local);
+        }
+
+        Checkpoint checkpoint = Checkpoint.load(Paths.get(args.length > 2 ? args[2] : "bulk-index.checkpoint"),
+                args[0], args.length > 1 ? args[1] : UploadUrlSigner.KEY_PREFIX);
+
+        BulkIndexer bulkIndexer = new BulkIndexer(AwsClients.s3(),
+                IndexImageHandler.indexer(),
+                intEnv("BulkIndexBatchSize", 100),
+                TimeUnit.SECONDS.toMillis(intEnv("BulkIndexBatchTimeoutSeconds", 300)));
+
+        bulkIndexer.run(checkpoint);
+
+        // The async clients keep non daemon event loop threads
+        System.exit(checkpoint.failed > 0 ? 1 : 0);
+    }
+
+    /**
+     * Indexes the images after the checkpoint, saving it after every batch.
+     *
+     * @return images indexed per second during this run
+     */
+    public double run(final Checkpoint checkpoint) throws IOException {
+        long start = System.nanoTime();
+        long processed = 0;
+        String continuationToken = null;
+
+        LOG.info("Indexing images of bucket {} under {}, after {}", checkpoint.bucket, checkpoint.prefix,
+                checkpoint.startAfter == null ? "none" : checkpoint.startAfter);
+
+        do {
+            String token = continuationToken;
+            ListObjectsV2Response page = s3Client.listObjectsV2(builder -> builder.bucket(checkpoint.bucket)
+                            .prefix(checkpoint.prefix)
+                            .startAfter(checkpoint.startAfter)
+                            .continuationToken(token))
+                    .join();
+
+            // Folder placeholders created by the console are not images
+            List<IndexImageHandler.UploadedImage> images = page.contents().stream()
+                    .filter(object -> !object.key().endsWith("/"))
+                    .map(object -> new IndexImageHandler.UploadedImage(checkpoint.bucket, object.key()))
+                    .collect(toList());
+
+            for (int from = 0; from < images.size(); from += batchSize) {
+                List<IndexImageHandler.UploadedImage> batch = images.subList(from, Math.min(images.size(), from + batchSize));
+
+                RateLimitedRekognition.startInvocation(batchBudgetMillis);
+                List<IndexImageHandler.IndexRecordResult> results = indexer.apply(batch);
+                StageTimings.publishMetrics(metricsLogger());
+                metricsLogger().flush();
+
+                // Batches run one after the other, so every key up to the last one of the batch is done
+                checkpoint.advance(batch.get(batch.size() - 1).getKey(), results);
+                processed += batch.size();
+
+                LOG.info("Indexed {} images, {} failed, {} images per second, resuming after {}",
+                        checkpoint.indexed, checkpoint.failed, String.format("%.1f", perSecond(processed, start)),
+                        checkpoint.startAfter);
+            }
+
+            continuationToken = page.nextContinuationToken();
+        } while (continuationToken != null);
+
+        double imagesPerSecond = perSecond(processed, start);
+        LOG.info("Done with {} images indexed and {} failed, {} images this run at {} images per second",
+                checkpoint.indexed, checkpoint.failed, processed, String.format("%.1f", imagesPerSecond));
+        return imagesPerSecond;
+    }
+
+    private static double perSecond(final long images,
+                                    final long start) {
+        long elapsed = System.nanoTime() - start;
+        return elapsed == 0 ? 0 : images * 1e9 / elapsed;
+    }
+
+    /**
+     * Progress of a run, saved as a properties file. Failed images go to the same path with a .failed suffix, one key
+     * and error per line.
+     */
+    public static final class Checkpoint {
+        private final Path file;
+        private final Path failedFile;
+        private final String bucket;
+        private final String prefix;
+        private String startAfter;
+        private long indexed;
+        private long failed;
+
+        private Checkpoint(final Path file,
+                           final String bucket,
+                           final String prefix) {
+            this.file = file;
+            this.failedFile = Paths.get(file + ".failed");
+            this.bucket = bucket;
+            this.prefix = prefix;
+        }
+
+        /**
+         * @return the saved progress, or a checkpoint at the start of the prefix when the file does not exist
+         * @throws IllegalArgumentException when the file is the checkpoint of another bucket or prefix
+         */
+        public static Checkpoint load(final Path file,
+                                      final String bucket,
+                                      final String prefix) throws IOException {
+            Checkpoint checkpoint = new Checkpoint(file, bucket, prefix);
+
+            if (!Files.exists(file)) {
+                return checkpoint;
+            }
+
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+
+            if (!bucket.equals(properties.getProperty("bucket")) || !prefix.equals(properties.getProperty("prefix"))) {
+                throw new IllegalArgumentException("Checkpoint " + file + " is for bucket " + properties.getProperty("bucket")
+                        + " and prefix " + properties.getProperty("prefix"));
+            }
+
+            checkpoint.startAfter = properties.getProperty("startAfter");
+            checkpoint.indexed = Long.parseLong(properties.getProperty("indexed", "0"));
+            checkpoint.failed = Long.parseLong(properties.getProperty("failed", "0"));
+            return checkpoint;
+        }
+
+        public String startAfter() {
+            return startAfter;
+        }
+
+        public long indexed() {
+            return indexed;
+        }
+
+        public long failed() {
+            return failed;
+        }
+
+        private void advance(final String lastKey,
+                             final List<IndexImageHandler.IndexRecordResult> results) throws IOException {
+            List<IndexImageHandler.IndexRecordResult> failures = results.stream()
+                    .filter(result -> result.getError() != null)
+                    .collect(toList());
+
+            // Failures are kept before the checkpoint moves past them, a crash in between only indexes the batch again
+            if (!failures.isEmpty()) {
+                try (Writer writer = Files.newBufferedWriter(failedFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    for (IndexImageHandler.IndexRecordResult failure : failures) {
+                        writer.write(failure.getKey() + "\t" + failure.getError().replace('\n', ' ') + "\n");
+                    }
+                }
+            }
+
+            startAfter = lastKey;
+            indexed += results.size() - failures.size();
+            failed += failures.size();
+            save();
+        }
+
+        private void save() throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("bucket", bucket);
+            properties.setProperty("prefix", prefix);
+            properties.setProperty("startAfter", startAfter);
+            properties.setProperty("indexed", Long.toString(indexed));
+            properties.setProperty("failed", Long.toString(failed));
+
+            Path saved = Paths.get(file + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(saved, StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+
+            try {
+                Files.move(saved, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(saved, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.webapp.function;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.crac.Core;
+
+/**
+ * Measures how long loading and statically initialising each handler class takes, which is the part of a Lambda cold
+ * start spent building SDK clients. Only meaningful in a fresh JVM, so scripts/cold-start.sh starts one per measurement.
+ * <p>
+ * Options, given before the handler class names:
+ * <ul>
+ *     <li>{@code --restore} runs the registered {@link Priming} hooks as a checkpoint followed by a restore would</li>
+ *     <li>{@code --checkpoint} takes a real checkpoint, the JVM must be started with {@code -XX:CRaCCheckpointTo}</li>
+ *     <li>{@code --event <file>} invokes the API Gateway handlers once with the event and reports its latency</li>
+ * </ul>
+ */
+public final class ColdStartProbe {
+
+    private ColdStartProbe() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean restore = false;
+        boolean checkpoint = false;
+        File event = null;
+        List<String> handlerClassNames = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if ("--restore".equals(args[i])) {
+                restore = true;
+            } else if ("--checkpoint".equals(args[i])) {
+                checkpoint = true;
+            } else if ("--event".equals(args[i])) {
+                event = new File(args[++i]);
+            } else {
+                handlerClassNames.add(args[i]);
+            }
+        }
+
+        ClassLoader classLoader = ColdStartProbe.class.getClassLoader();
+        List<Class<?>> handlers = new ArrayList<>();
+
+        for (String handlerClassName : handlerClassNames) {
+            long start = System.nanoTime();
+            handlers.add(Class.forName(handlerClassName, true, classLoader));
+            report(handlerClassName, "init", start);
+        }
+
+        if (checkpoint) {
+            Core.checkpointRestore();
+        } else if (restore) {
+            long start = System.nanoTime();
+            Priming.simulateCheckpointRestore();
+            report("Priming", "checkpoint+restore", start);
+        }
+
+        if (event != null) {
+            for (Class<?> handler : handlers) {
+                invoke(handler, event);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void invoke(final Class<?> handlerClass,
+                               final File event) throws ReflectiveOperationException, IOException {
+        Object handler = handlerClass.getDeclaredConstructor().newInstance();
+
+        if (!(handler instanceof RequestHandler)) {
+            return;
+        }
+
+        APIGatewayProxyRequestEvent request = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .readValue(event, APIGatewayProxyRequestEvent.class);
+
+        long start = System.nanoTime();
+        try {
+            ((RequestHandler<APIGatewayProxyRequestEvent, Object>) handler).handleRequest(request, new ProbeContext());
+        } catch (RuntimeException e) {
+            System.err.println(handlerClass.getName() + " failed: " + e);
+        }
+        report(handlerClass.getName(), "first-request", start);
+    }
+
+    private static void report(final String name,
+                               final String phase,
+                               final long start) {
+        System.out.println(name + "\t" + phase + "\t" + (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static final class ProbeContext implements Context {
+        private final long deadline = System.currentTimeMillis() + 10_000;
+
+        @Override
+        public String getAwsRequestId() {
+            return "cold-start-probe";
+        }
+
+        @Override
+        public String getLogGroupName() {
+            return "cold-start-probe";
+        }
+
+        @Override
+        public String getLogStreamName() {
+            return "cold-start-probe";
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "cold-start-probe";
+        }
+
+        @Override
+        public String getFunctionVersion() {
+            return "$LATEST";
+        }
+
+        @Override
+        public String getInvokedFunctionArn() {
+            return "arn:aws:lambda:local:000000000000:function:cold-start-probe";
+        }
+
+        @Override
+        public CognitoIdentity getIdentity() {
+            return null;
+        }
+
+        @Override
+        public ClientContext getClientContext() {
+            return null;
+        }
+
+        @Override
+        public int getRemainingTimeInMillis() {
+            return (int) (deadline - System.currentTimeMillis());
+        }
+
+        @Override
+        public int getMemoryLimitInMB() {
+            return 1536;
+        }
+
+        @Override
+        public LambdaLogger getLogger() {
+            return new LambdaLogger() {
+                @Override
+                public void log(String message) {
+                    System.err.println(message);
+                }
+
+                @Override
+                public void log(byte[] message) {
+                    System.err.write(message, 0, message.length);
+                }
+            };
+        }
+    }
+}
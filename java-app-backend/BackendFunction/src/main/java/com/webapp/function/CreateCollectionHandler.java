@@ -1,7 +1,6 @@
 package com.webapp.function;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Map;
@@ -11,8 +10,6 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.json.JSONObject;
-import software.amazon.awssdk.services.rekognition.RekognitionClient;
 import software.amazon.awssdk.services.rekognition.model.CreateCollectionRequest;
 import software.amazon.awssdk.services.rekognition.model.CreateCollectionResponse;
 import software.amazon.awssdk.services.rekognition.model.DeleteCollectionRequest;
@@ -24,38 +21,42 @@ import software.amazon.lambda.powertools.logging.Logging;
  */
 public class CreateCollectionHandler implements RequestHandler<Map<String, Object>, Object> {
     private static final Logger LOG = LogManager.getLogger(CreateCollectionHandler.class);
-    private static final RekognitionClient client = RekognitionClient.create();
+    private static final RekognitionCalls client = AwsClients.rekognition();
 
     @Logging(logEvent = true)
     public APIGatewayProxyResponseEvent handleRequest(final Map<String, Object> input, final Context context) {
-        String collectionId = (String) ((Map) input.get("ResourceProperties")).get("CollectionName");
-
-        if ("Delete".equals(input.get("RequestType"))) {
-            callGracefully(input, context, () -> {
-
-                DeleteCollectionResponse deleteCollectionResponse = client.deleteCollection(DeleteCollectionRequest.builder()
-                        .collectionId(collectionId)
-                        .build());
-
-                if (deleteCollectionResponse.statusCode() == 200) {
-                    LOG.info("Resource deleted");
-                    sendResponse(input, context, "SUCCESS");
-                }
-            });
-        } else {
-            callGracefully(input, context, () -> {
-                CreateCollectionResponse response = client.createCollection(CreateCollectionRequest.builder()
-                        .collectionId(collectionId)
-                        .build());
-
-                if (response.statusCode() == 200) {
-                    LOG.info("Resource created");
-                    sendResponse(input, context, "SUCCESS");
-                }
-            });
+        try {
+            String collectionId = (String) ((Map) input.get("ResourceProperties")).get("CollectionName");
+
+            if ("Delete".equals(input.get("RequestType"))) {
+                callGracefully(input, context, () -> {
+
+                    DeleteCollectionResponse deleteCollectionResponse = client.deleteCollection(DeleteCollectionRequest.builder()
+                            .collectionId(collectionId)
+                            .build()).join();
+
+                    if (deleteCollectionResponse.statusCode() == 200) {
+                        LOG.info("Resource deleted");
+                        sendResponse(input, context, "SUCCESS");
+                    }
+                });
+            } else {
+                callGracefully(input, context, () -> {
+                    CreateCollectionResponse response = client.createCollection(CreateCollectionRequest.builder()
+                            .collectionId(collectionId)
+                            .build()).join();
+
+                    if (response.statusCode() == 200) {
+                        LOG.info("Resource created");
+                        sendResponse(input, context, "SUCCESS");
+                    }
+                });
+            }
+
+            return null;
+        } finally {
+            AsyncLogging.flush();
         }
-
-        return null;
     }
 
     private void callGracefully(final Map<String, Object> input,
@@ -83,17 +84,15 @@ public class CreateCollectionHandler implements RequestHandler<Map<String, Objec
             connection.setDoOutput(true);
             connection.setRequestMethod("PUT");
 
-            JSONObject responseBody = new JSONObject();
-            responseBody.put("Status", responseStatus);
-            responseBody.put("PhysicalResourceId", context.getLogStreamName());
-            responseBody.put("StackId", input.get("StackId"));
-            responseBody.put("RequestId", input.get("RequestId"));
-            responseBody.put("LogicalResourceId", input.get("LogicalResourceId"));
-            responseBody.put("Data", new JSONObject());
-
-            OutputStreamWriter response = new OutputStreamWriter(connection.getOutputStream());
-            response.write(responseBody.toString());
-            response.close();
+            JsonResponses.writeTo(connection.getOutputStream(), generator -> {
+                generator.writeStringField("Status", responseStatus);
+                generator.writeStringField("PhysicalResourceId", context.getLogStreamName());
+                generator.writeStringField("StackId", (String) input.get("StackId"));
+                generator.writeStringField("RequestId", (String) input.get("RequestId"));
+                generator.writeStringField("LogicalResourceId", (String) input.get("LogicalResourceId"));
+                generator.writeObjectFieldStart("Data");
+                generator.writeEndObject();
+            });
             LOG.info("Response Code: {}", connection.getResponseCode());
 
         } catch (IOException e) {
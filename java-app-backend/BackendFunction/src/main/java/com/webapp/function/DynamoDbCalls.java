@@ -0,0 +1,61 @@
+package com.webapp.function;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+
+/**
+ * DynamoDB APIs the functions call, each returning a future. {@link AwsClients} implements them over the async client
+ * or runs them on the blocking one.
+ */
+public interface DynamoDbCalls {
+
+    CompletableFuture<GetItemResponse> getItem(GetItemRequest request);
+
+    default CompletableFuture<GetItemResponse> getItem(final Consumer<GetItemRequest.Builder> request) {
+        return getItem(GetItemRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<BatchGetItemResponse> batchGetItem(BatchGetItemRequest request);
+
+    default CompletableFuture<BatchGetItemResponse> batchGetItem(final Consumer<BatchGetItemRequest.Builder> request) {
+        return batchGetItem(BatchGetItemRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<PutItemResponse> putItem(PutItemRequest request);
+
+    default CompletableFuture<PutItemResponse> putItem(final Consumer<PutItemRequest.Builder> request) {
+        return putItem(PutItemRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<DeleteItemResponse> deleteItem(DeleteItemRequest request);
+
+    default CompletableFuture<DeleteItemResponse> deleteItem(final Consumer<DeleteItemRequest.Builder> request) {
+        return deleteItem(DeleteItemRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<BatchWriteItemResponse> batchWriteItem(BatchWriteItemRequest request);
+
+    default CompletableFuture<BatchWriteItemResponse> batchWriteItem(
+            final Consumer<BatchWriteItemRequest.Builder> request) {
+        return batchWriteItem(BatchWriteItemRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<ScanResponse> scan(ScanRequest request);
+
+    default CompletableFuture<ScanResponse> scan(final Consumer<ScanRequest.Builder> request) {
+        return scan(ScanRequest.builder().applyMutation(request).build());
+    }
+}
@@ -0,0 +1,24 @@
+package com.webapp.function;
+
+/**
+ * Settings read from the environment variables of the functions and tools.
+ */
+final class Env {
+
+    private Env() {
+    }
+
+    /**
+     * @return the variable parsed as an int, or the default when it is unset or empty
+     */
+    static int intEnv(final String name,
+                      final int defaultValue) {
+        String value = System.getenv(name);
+
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+
+        return Integer.parseInt(value);
+    }
+}
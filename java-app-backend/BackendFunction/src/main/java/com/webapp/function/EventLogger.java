@@ -0,0 +1,172 @@
+package com.webapp.function;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.ReadableInstant;
+
+import static com.webapp.function.Env.intEnv;
+
+/**
+ * Logs the events handlers receive as JSON, in place of the powertools {@code logEvent} option. Every string value
+ * longer than the limit is written as its length and a hash instead, so a base 64 image body of several megabytes is
+ * neither copied into the log nor paid for in CloudWatch, while the same body sent twice can still be told apart.
+ * <p>
+ * The hash is a cheap 64 bit mix over a sample of the characters, not a digest, and is only meant to correlate log
+ * lines.
+ */
+public final class EventLogger {
+    private static final Logger LOG = LogManager.getLogger(EventLogger.class);
+
+    private static final int HASHED_RUNS = 1024;
+    private static final int HASHED_RUN_CHARS = 64;
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS)
+            // S3 event times are Joda instants, written as their ISO form rather than walked as beans
+            .registerModule(new SimpleModule().addSerializer(ReadableInstant.class, ToStringSerializer.instance));
+
+    private final int maxValueChars;
+
+    /**
+     * @param maxValueChars longest string value logged as is, below 0 to not log events at all
+     */
+    public EventLogger(final int maxValueChars) {
+        this.maxValueChars = maxValueChars;
+    }
+
+    /**
+     * Limits values to EventLogMaxValueChars characters, set per function.
+     */
+    public static EventLogger fromEnvironment() {
+        return new EventLogger(intEnv("EventLogMaxValueChars", 1024));
+    }
+
+    /**
+     * Logs the event at info level. Failing to serialize it is logged and never fails the invocation.
+     */
+    public void log(final Object event) {
+        if (maxValueChars < 0 || !LOG.isInfoEnabled()) {
+            return;
+        }
+
+        try {
+            LOG.info(format(event));
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed logging event of type {}", event == null ? null : event.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * @return the event as JSON, with long values replaced by {@code {"length": ..., "hash": ...}}
+     */
+    public String format(final Object event) throws IOException {
+        StringWriter writer = new StringWriter();
+
+        try (JsonGenerator generator = new TruncatingGenerator(MAPPER.getFactory().createGenerator(writer), maxValueChars)) {
+            MAPPER.writeValue(generator, event);
+        }
+
+        return writer.toString();
+    }
+
+    /**
+     * Hashes values up to 64 K characters whole, and longer ones from runs spread evenly over them, so hashing a
+     * 7 MB body costs as much as hashing 64 K characters.
+     */
+    static long hash(final String value) {
+        int length = value.length();
+        long hash = length;
+
+        if (length <= HASHED_RUNS * HASHED_RUN_CHARS) {
+            return hash(hash, value, 0, length);
+        }
+
+        long stride = (length - HASHED_RUN_CHARS) / (HASHED_RUNS - 1);
+        for (int run = 0; run < HASHED_RUNS; run++) {
+            int from = (int) (run * stride);
+            hash = hash(hash, value, from, from + HASHED_RUN_CHARS);
+        }
+
+        return hash;
+    }
+
+    private static long hash(final long seed,
+                             final String value,
+                             final int from,
+                             final int to) {
+        long hash = seed;
+        int i = from;
+
+        for (; i + 4 <= to; i += 4) {
+            hash = mix(hash, (long) value.charAt(i) << 48 | (long) value.charAt(i + 1) << 32
+                    | (long) value.charAt(i + 2) << 16 | value.charAt(i + 3));
+        }
+
+        long tail = 0;
+        for (; i < to; i++) {
+            tail = tail << 16 | value.charAt(i);
+        }
+
+        return mix(hash, tail);
+    }
+
+    private static long mix(final long hash,
+                            final long value) {
+        long mixed = hash ^ (value * PRIME_1);
+        mixed = Long.rotateLeft(mixed, 31) * PRIME_2;
+        return mixed ^ (mixed >>> 29);
+    }
+
+    /**
+     * Writes long strings as an object with their length and hash, wherever a value is written.
+     */
+    private static final class TruncatingGenerator extends JsonGeneratorDelegate {
+        private final int maxValueChars;
+
+        private TruncatingGenerator(final JsonGenerator generator,
+                                    final int maxValueChars) {
+            super(generator, false);
+            this.maxValueChars = maxValueChars;
+        }
+
+        @Override
+        public void writeString(final String text) throws IOException {
+            if (text != null && text.length() > maxValueChars) {
+                writeTruncated(text);
+            } else {
+                delegate.writeString(text);
+            }
+        }
+
+        @Override
+        public void writeString(final char[] text,
+                                final int offset,
+                                final int length) throws IOException {
+            if (length > maxValueChars) {
+                writeTruncated(new String(text, offset, length));
+            } else {
+                delegate.writeString(text, offset, length);
+            }
+        }
+
+        private void writeTruncated(final String text) throws IOException {
+            delegate.writeStartObject();
+            delegate.writeNumberField("length", text.length());
+            delegate.writeStringField("hash", Long.toHexString(hash(text)));
+            delegate.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.webapp.function;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static com.webapp.function.Env.intEnv;
+
+/**
+ * Read only FaceId to FullName directory of the whole table, loaded once with a parallel segmented Scan so lookups
+ * during a recognition burst make no network call.
+ * <p>
+ * Face ids are UUIDs, kept as two longs in sorted primitive arrays and found with a binary search. Every distinct name
+ * is stored once as UTF-8 in a shared byte arena, so a face costs 20 bytes plus its share of the names instead of a map
+ * of attribute values per item. Ids that are not UUIDs are kept in a plain map.
+ */
+public final class FaceDirectory {
+    private static final Logger LOG = LogManager.getLogger(FaceDirectory.class);
+
+    public static final FaceDirectory EMPTY = new Builder().build();
+
+    private final long[] mostSignificantBits;
+    private final long[] leastSignificantBits;
+    private final int[] nameIndexes;
+    private final byte[] nameArena;
+    private final int[] nameOffsets;
+    private final Map<String, String> otherIds;
+
+    private FaceDirectory(final long[] mostSignificantBits,
+                          final long[] leastSignificantBits,
+                          final int[] nameIndexes,
+                          final byte[] nameArena,
+                          final int[] nameOffsets,
+                          final Map<String, String> otherIds) {
+        this.mostSignificantBits = mostSignificantBits;
+        this.leastSignificantBits = leastSignificantBits;
+        this.nameIndexes = nameIndexes;
+        this.nameArena = nameArena;
+        this.nameOffsets = nameOffsets;
+        this.otherIds = otherIds;
+    }
+
+    /**
+     * Loads the table when FaceDirectoryPreload is true, with FaceDirectoryScanSegments segments scanned in parallel.
+     *
+     * @return the loaded directory, or an empty one when disabled or when loading failed
+     */
+    public static FaceDirectory fromEnvironment(final DynamoDbCalls dynamoDbClient,
+                                                final String tableName) {
+        if (!Boolean.parseBoolean(System.getenv("FaceDirectoryPreload"))) {
+            return EMPTY;
+        }
+
+        try {
+            return load(dynamoDbClient, tableName, intEnv("FaceDirectoryScanSegments", 4));
+        } catch (RuntimeException e) {
+            LOG.error("Failed loading face directory from table {}, names are read from the table instead", tableName, e);
+            return EMPTY;
+        }
+    }
+
+    public static FaceDirectory load(final DynamoDbCalls dynamoDbClient,
+                                     final String tableName,
+                                     final int segments) {
+        long start = System.nanoTime();
+        Builder builder = new Builder();
+
+        SegmentedScan.scan(dynamoDbClient, tableName, "RekognitionId, FullName", segments, builder::addAll);
+
+        FaceDirectory directory = builder.build();
+        LOG.info("Loaded {} faces in {} bytes from table {} in {} ms", directory.size(), directory.sizeInBytes(), tableName,
+                (System.nanoTime() - start) / 1_000_000);
+        return directory;
+    }
+
+    /**
+     * @return the full name of the face, or null when it is not in the directory
+     */
+    public String get(final String faceId) {
+        long[] uuid = new long[2];
+
+        if (!FaceIds.parse(faceId, uuid)) {
+            return otherIds.get(faceId);
+        }
+
+        int index = FaceIds.indexOf(mostSignificantBits, leastSignificantBits, mostSignificantBits.length, uuid[0], uuid[1]);
+        if (index < 0) {
+            return null;
+        }
+
+        int name = nameIndexes[index];
+        return new String(nameArena, nameOffsets[name], nameOffsets[name + 1] - nameOffsets[name], StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return mostSignificantBits.length + otherIds.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return bytes held by the arrays, ids that are not UUIDs aside
+     */
+    public long sizeInBytes() {
+        return 8L * mostSignificantBits.length + 8L * leastSignificantBits.length + 4L * nameIndexes.length
+                + nameArena.length + 4L * nameOffsets.length;
+    }
+
+    /**
+     * Collects the items of the Scan pages, from any number of threads.
+     */
+    static final class Builder {
+        private long[] mostSignificantBits = new long[1024];
+        private long[] leastSignificantBits = new long[1024];
+        private int[] nameIndexes = new int[1024];
+        private int size;
+
+        private final Map<String, Integer> names = new HashMap<>();
+        private byte[] nameArena = new byte[4096];
+        private int[] nameOffsets = new int[1025];
+        private int arenaSize;
+
+        private final Map<String, String> otherIds = new HashMap<>();
+
+        synchronized void addAll(final List<Map<String, AttributeValue>> items) {
+            long[] uuid = new long[2];
+
+            for (Map<String, AttributeValue> item : items) {
+                AttributeValue faceId = item.get("RekognitionId");
+                AttributeValue fullName = item.get("FullName");
+
+                if (faceId == null || faceId.s() == null || fullName == null || fullName.s() == null) {
+                    continue;
+                }
+
+                add(faceId.s(), fullName.s(), uuid);
+            }
+        }
+
+        private void add(final String faceId,
+                         final String fullName,
+                         final long[] uuid) {
+            if (!FaceIds.parse(faceId, uuid)) {
+                otherIds.put(faceId, fullName);
+                return;
+            }
+
+            if (size == mostSignificantBits.length) {
+                mostSignificantBits = Arrays.copyOf(mostSignificantBits, size * 2);
+                leastSignificantBits = Arrays.copyOf(leastSignificantBits, size * 2);
+                nameIndexes = Arrays.copyOf(nameIndexes, size * 2);
+            }
+
+            mostSignificantBits[size] = uuid[0];
+            leastSignificantBits[size] = uuid[1];
+            nameIndexes[size] = intern(fullName);
+            size++;
+        }
+
+        private int intern(final String fullName) {
+            Integer index = names.get(fullName);
+            if (index != null) {
+                return index;
+            }
+
+            byte[] bytes = fullName.getBytes(StandardCharsets.UTF_8);
+            int name = names.size();
+
+            if (arenaSize + bytes.length > nameArena.length) {
+                nameArena = Arrays.copyOf(nameArena, Math.max(nameArena.length * 2, arenaSize + bytes.length));
+            }
+            if (name + 2 > nameOffsets.length) {
+                nameOffsets = Arrays.copyOf(nameOffsets, nameOffsets.length * 2);
+            }
+
+            System.arraycopy(bytes, 0, nameArena, arenaSize, bytes.length);
+            arenaSize += bytes.length;
+            nameOffsets[name + 1] = arenaSize;
+            names.put(fullName, name);
+            return name;
+        }
+
+        synchronized FaceDirectory build() {
+            long[] most = Arrays.copyOf(mostSignificantBits, size);
+            long[] least = Arrays.copyOf(leastSignificantBits, size);
+            int[] indexes = Arrays.copyOf(nameIndexes, size);
+            FaceIds.sort(most, least, indexes, 0, size - 1);
+
+            return new FaceDirectory(most, least, indexes, Arrays.copyOf(nameArena, arenaSize),
+                    Arrays.copyOf(nameOffsets, names.size() + 1), new HashMap<>(otherIds));
+        }
+    }
+}
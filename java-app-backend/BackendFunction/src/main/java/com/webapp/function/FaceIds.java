@@ -0,0 +1,141 @@
+package com.webapp.function;
+
+/**
+ * Face ids held as the two longs of their UUID in parallel primitive arrays, which takes 16 bytes a face instead of a
+ * String of 36 characters and its header.
+ */
+final class FaceIds {
+
+    private FaceIds() {
+    }
+
+    /**
+     * Parses the canonical 36 character form without allocating.
+     *
+     * @param uuid receives the most and least significant bits
+     * @return false when the id is not a UUID
+     */
+    static boolean parse(final String id,
+                         final long[] uuid) {
+        if (id == null || id.length() != 36 || id.charAt(8) != '-' || id.charAt(13) != '-' || id.charAt(18) != '-'
+                || id.charAt(23) != '-') {
+            return false;
+        }
+
+        long most = 0;
+        long least = 0;
+
+        for (int i = 0; i < 36; i++) {
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                continue;
+            }
+
+            int digit = Character.digit(id.charAt(i), 16);
+            if (digit < 0) {
+                return false;
+            }
+
+            if (i < 19) {
+                most = most << 4 | digit;
+            } else {
+                least = least << 4 | digit;
+            }
+        }
+
+        uuid[0] = most;
+        uuid[1] = least;
+        return true;
+    }
+
+    static int compare(final long most,
+                       final long least,
+                       final long otherMost,
+                       final long otherLeast) {
+        int comparison = Long.compare(most, otherMost);
+        return comparison != 0 ? comparison : Long.compare(least, otherLeast);
+    }
+
+    /**
+     * Binary search over the first {@code size} ids, which must be sorted.
+     *
+     * @return index of the id, or -1
+     */
+    static int indexOf(final long[] mostSignificantBits,
+                       final long[] leastSignificantBits,
+                       final int size,
+                       final long most,
+                       final long least) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(mostSignificantBits[middle], leastSignificantBits[middle], most, least);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Quicksort of the ids between the two indexes, inclusive, moving the values along with them when given. Ids are
+     * random, so the middle element is a good pivot.
+     */
+    static void sort(final long[] most,
+                     final long[] least,
+                     final int[] values,
+                     final int from,
+                     final int to) {
+        if (from >= to) {
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        long pivotMost = most[middle];
+        long pivotLeast = least[middle];
+        int i = from;
+        int j = to;
+
+        while (i <= j) {
+            while (compare(most[i], least[i], pivotMost, pivotLeast) < 0) {
+                i++;
+            }
+            while (compare(most[j], least[j], pivotMost, pivotLeast) > 0) {
+                j--;
+            }
+            if (i <= j) {
+                swap(most, least, values, i++, j--);
+            }
+        }
+
+        sort(most, least, values, from, j);
+        sort(most, least, values, i, to);
+    }
+
+    private static void swap(final long[] most,
+                             final long[] least,
+                             final int[] values,
+                             final int i,
+                             final int j) {
+        long most1 = most[i];
+        most[i] = most[j];
+        most[j] = most1;
+
+        long least1 = least[i];
+        least[i] = least[j];
+        least[j] = least1;
+
+        if (values != null) {
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+}
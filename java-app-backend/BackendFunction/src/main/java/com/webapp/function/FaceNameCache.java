@@ -0,0 +1,160 @@
+package com.webapp.function;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import software.amazon.cloudwatchlogs.emf.logger.MetricsLogger;
+import software.amazon.cloudwatchlogs.emf.model.Unit;
+
+import static com.webapp.function.Env.intEnv;
+
+/**
+ * Bounded read-through cache of FaceId to FullName lookups that lives across warm invocations.
+ * Misses are cached as well so unknown FaceIds do not cost a round trip to dynamo db on every request.
+ */
+public class FaceNameCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<String, CachedName> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public FaceNameCache(final int maxEntries,
+                         final long ttlSeconds) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.entries = new LinkedHashMap<String, CachedName>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedName> eldest) {
+                if (size() > FaceNameCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static FaceNameCache fromEnvironment() {
+        return new FaceNameCache(intEnv("FaceCacheMaxEntries", 1000), intEnv("FaceCacheTtlSeconds", 300));
+    }
+
+    /**
+     * Returns the cached full name for the face id, calling the loader on a miss or when the entry expired.
+     * An empty result from the loader is cached as a negative entry.
+     */
+    public CompletableFuture<Optional<String>> get(final String faceId,
+                                                   final Function<String, CompletableFuture<Optional<String>>> loader) {
+        long now = System.nanoTime();
+
+        synchronized (entries) {
+            CachedName entry = entries.get(faceId);
+
+            if (entry != null && now - entry.loadedAt < ttlNanos) {
+                hits.incrementAndGet();
+                return CompletableFuture.completedFuture(entry.fullName);
+            }
+
+            if (entry != null) {
+                entries.remove(faceId);
+                evictions.incrementAndGet();
+            }
+        }
+
+        misses.incrementAndGet();
+
+        return loader.apply(faceId).thenApply(fullName -> {
+            synchronized (entries) {
+                entries.put(faceId, new CachedName(fullName, now));
+            }
+            return fullName;
+        });
+    }
+
+    /**
+     * Batched form of {@link #get}: cached names are returned straight away and every other face id is handed to the
+     * loader in a single call. Face ids missing from the loaded names are cached as unknown.
+     */
+    public CompletableFuture<Map<String, Optional<String>>> getAll(final Collection<String> faceIds,
+                                                                 final Function<Set<String>, CompletableFuture<Map<String, String>>> loader) {
+        long now = System.nanoTime();
+        Map<String, Optional<String>> fullNames = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+
+        synchronized (entries) {
+            for (String faceId : faceIds) {
+                CachedName entry = entries.get(faceId);
+
+                if (entry != null && now - entry.loadedAt < ttlNanos) {
+                    hits.incrementAndGet();
+                    fullNames.put(faceId, entry.fullName);
+                    continue;
+                }
+
+                if (entry != null) {
+                    entries.remove(faceId);
+                    evictions.incrementAndGet();
+                }
+                missing.add(faceId);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(fullNames);
+        }
+
+        misses.addAndGet(missing.size());
+
+        return loader.apply(missing).thenApply(loaded -> {
+            synchronized (entries) {
+                for (String faceId : missing) {
+                    Optional<String> fullName = Optional.ofNullable(loaded.get(faceId));
+                    entries.put(faceId, new CachedName(fullName, now));
+                    fullNames.put(faceId, fullName);
+                }
+            }
+            return fullNames;
+        });
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Publishes the counters collected since the previous call on the given metrics logger and resets them.
+     */
+    public void publishMetrics(final MetricsLogger metricsLogger) {
+        metricsLogger.putMetric("FaceNameCacheHit", hits.getAndSet(0), Unit.COUNT);
+        metricsLogger.putMetric("FaceNameCacheMiss", misses.getAndSet(0), Unit.COUNT);
+        metricsLogger.putMetric("FaceNameCacheEviction", evictions.getAndSet(0), Unit.COUNT);
+
+        synchronized (entries) {
+            metricsLogger.putMetric("FaceNameCacheSize", entries.size(), Unit.COUNT);
+        }
+    }
+
+    private static final class CachedName {
+        private final Optional<String> fullName;
+        private final long loadedAt;
+
+        private CachedName(final Optional<String> fullName,
+                           final long loadedAt) {
+            this.fullName = fullName;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
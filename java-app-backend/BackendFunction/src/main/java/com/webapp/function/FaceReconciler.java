@@ -0,0 +1,363 @@
+package com.webapp.function;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.rekognition.model.Face;
+import software.amazon.awssdk.services.rekognition.model.ListFacesResponse;
+import software.amazon.cloudwatchlogs.emf.config.EnvironmentConfigurationProvider;
+import software.amazon.cloudwatchlogs.emf.environment.Environments;
+
+import static com.webapp.function.Env.intEnv;
+import static software.amazon.lambda.powertools.metrics.MetricsUtils.metricsLogger;
+
+/**
+ * Deletes the faces of the collection that have no item in the table, left behind when persisting an indexed face
+ * failed. They use up search results and come back as matches RecognizeImageHandler cannot name.
+ * <p>
+ * ListFaces gives no order, so instead of merging two sorted streams the table ids are held sorted, as 16 bytes a face,
+ * and every listed face is looked up in them while its page streams by. With ReconcilePartitions above 1, each pass
+ * only holds and checks the ids in one range of the UUID space, trading a ListFaces walk per pass for memory.
+ * <p>
+ * A face is indexed before its item is written, so one listed while its image is being indexed has no item yet. Faces
+ * found missing are therefore read again from the table only once a grace period has passed since they were listed,
+ * longer than any indexing takes, and are kept if their item showed up. When the orphans left are more than a share of
+ * the collection, which points at the wrong table rather than failed writes, nothing is deleted unless forced. Items
+ * whose face is no longer in the collection are counted but left alone, they never match a search.
+ * <p>
+ * Usage: java -cp BackendFunction.jar com.webapp.function.FaceReconciler [--dry-run] [--force]
+ */
+public final class FaceReconciler {
+    private static final Logger LOG = LogManager.getLogger(FaceReconciler.class);
+
+    // Largest page of ListFaces and largest request of DeleteFaces
+    static final int MAX_FACES = 4096;
+
+    private static final long CALL_BUDGET_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final RekognitionCalls rekognitionClient;
+    private final DynamoDbCalls dynamoDbClient;
+    private final BatchItemReader batchItemReader;
+    private final String collectionId;
+    private final String tableName;
+    private final int scanSegments;
+    private final int partitions;
+    private final long graceMillis;
+    private final double maxOrphanRatio;
+    private final boolean dryRun;
+    private final boolean force;
+
+    /**
+     * @param graceMillis    time after being listed before a face without an item is deleted
+     * @param maxOrphanRatio share of the faces of the collection above which orphans are only deleted when forced
+     */
+    public FaceReconciler(final RekognitionCalls rekognitionClient,
+                          final DynamoDbCalls dynamoDbClient,
+                          final String collectionId,
+                          final String tableName,
+                          final int scanSegments,
+                          final int partitions,
+                          final long graceMillis,
+                          final double maxOrphanRatio,
+                          final boolean dryRun,
+                          final boolean force) {
+        this.rekognitionClient = rekognitionClient;
+        this.dynamoDbClient = dynamoDbClient;
+        this.batchItemReader = new BatchItemReader(dynamoDbClient, tableName, "RekognitionId");
+        this.collectionId = collectionId;
+        this.tableName = tableName;
+        this.scanSegments = scanSegments;
+        this.partitions = partitions;
+        this.graceMillis = graceMillis;
+        this.maxOrphanRatio = maxOrphanRatio;
+        this.dryRun = dryRun;
+        this.force = force;
+    }
+
+    public static void main(final String[] args) {
+        // Metrics are printed with the log instead of probing for a CloudWatch agent
+        if (System.getenv("AWS_EMF_ENVIRONMENT") == null) {
+            EnvironmentConfigurationProvider.getConfig().setEnvironmentOverride(Environments.Local);
+        }
+
+        int status = 1;
+        RateLimitedRekognition rekognitionClient = AwsClients.rekognition();
+
+        try {
+            FaceReconciler reconciler = new FaceReconciler(rekognitionClient,
+                    AwsClients.dynamoDb(),
+                    System.getenv("CollectionId"),
+                    System.getenv("TableName"),
+                    intEnv("ReconcileScanSegments", 4),
+                    intEnv("ReconcilePartitions", 1),
+                    TimeUnit.SECONDS.toMillis(intEnv("ReconcileGraceSeconds", 900)),
+                    intEnv("ReconcileMaxOrphanPercent", 5) / 100d,
+                    Arrays.asList(args).contains("--dry-run"),
+                    Arrays.asList(args).contains("--force"));
+
+            reconciler.run();
+            status = 0;
+        } catch (RuntimeException e) {
+            LOG.error("Reconciliation failed", e);
+        } finally {
+            rekognitionClient.publishMetrics(metricsLogger());
+            StageTimings.publishMetrics(metricsLogger());
+            metricsLogger().flush();
+
+            // The async clients keep non daemon event loop threads, whether the run succeeded or not
+            System.exit(status);
+        }
+    }
+
+    /**
+     * @throws TooManyOrphansException when the orphans are above the maximum share of the collection and the run is
+     * neither forced nor dry, before deleting any
+     */
+    public Report run() {
+        Report report = new Report();
+        FaceIdArray missing = new FaceIdArray();
+
+        for (int partition = 0; partition < partitions; partition++) {
+            long start = System.nanoTime();
+            FaceIdArray tableIds = tableIds(partition);
+            BitSet found = new BitSet(tableIds.size);
+
+            listFaces(partition, tableIds, found, missing, report);
+
+            report.tableFaces += tableIds.size;
+            report.itemsWithoutFace += tableIds.size - found.cardinality();
+
+            LOG.info("Listed partition {} of {} in {} ms, {} faces in the table", partition + 1, partitions,
+                    (System.nanoTime() - start) / 1_000_000, tableIds.size);
+        }
+
+        // Every face was listed by now, so one wait covers those of all partitions
+        if (missing.size > 0) {
+            awaitGracePeriod(missing.size);
+        }
+
+        List<String> orphans = orphans(missing, report);
+        boolean tooMany = report.collectionFaces > 0 && orphans.size() > maxOrphanRatio * report.collectionFaces;
+        if (tooMany && !force && !dryRun) {
+            throw new TooManyOrphansException(orphans.size() + " of the " + report.collectionFaces
+                    + " faces of the collection have no item in table " + tableName + ", above the maximum of "
+                    + Math.round(maxOrphanRatio * 100) + "%. Check the table, then run again with --force to delete "
+                    + "them");
+        }
+
+        if (!dryRun) {
+            delete(orphans, report);
+        }
+
+        LOG.info("{} faces in the collection and {} in the table, {} orphans, {} deleted, {} persisted since the scan, "
+                        + "{} items without a face{}", report.collectionFaces, report.tableFaces, report.orphans,
+                report.deleted, report.persistedSinceScan, report.itemsWithoutFace, dryRun ? ", dry run" : "");
+        return report;
+    }
+
+    private FaceIdArray tableIds(final int partition) {
+        FaceIdArray ids = new FaceIdArray();
+
+        SegmentedScan.scan(dynamoDbClient, tableName, "RekognitionId", scanSegments, items -> {
+            long[] uuid = new long[2];
+
+            for (Map<String, AttributeValue> item : items) {
+                AttributeValue faceId = item.get("RekognitionId");
+
+                // Rekognition face ids are UUIDs, anything else cannot match a face of the collection
+                if (faceId != null && FaceIds.parse(faceId.s(), uuid) && partitionOf(uuid[0]) == partition) {
+                    ids.add(uuid[0], uuid[1]);
+                }
+            }
+        });
+
+        ids.sort();
+        return ids;
+    }
+
+    private void listFaces(final int partition,
+                           final FaceIdArray tableIds,
+                           final BitSet found,
+                           final FaceIdArray missing,
+                           final Report report) {
+        long[] uuid = new long[2];
+        String nextToken = null;
+
+        do {
+            String token = nextToken;
+            RateLimitedRekognition.startInvocation(CALL_BUDGET_MILLIS);
+            ListFacesResponse page = rekognitionClient.listFaces(builder -> builder.collectionId(collectionId)
+                            .maxResults(MAX_FACES)
+                            .nextToken(token))
+                    .join();
+
+            for (Face face : page.faces()) {
+                if (!FaceIds.parse(face.faceId(), uuid)) {
+                    LOG.warn("Skipping face {}, its id is not a UUID", face.faceId());
+                    continue;
+                }
+
+                if (partitionOf(uuid[0]) != partition) {
+                    continue;
+                }
+
+                report.collectionFaces++;
+                int index = tableIds.indexOf(uuid[0], uuid[1]);
+
+                if (index >= 0) {
+                    found.set(index);
+                } else {
+                    missing.add(uuid[0], uuid[1]);
+                }
+            }
+
+            nextToken = page.nextToken();
+        } while (nextToken != null);
+    }
+
+    private void awaitGracePeriod(final int candidates) {
+        LOG.info("{} faces have no item, checking them again in {} s", candidates, graceMillis / 1000);
+
+        try {
+            Thread.sleep(graceMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted before checking the faces without an item again", e);
+        }
+    }
+
+    /**
+     * @return the missing faces that still have no item in the table
+     */
+    private List<String> orphans(final FaceIdArray missing,
+                                 final Report report) {
+        List<String> orphans = new ArrayList<>();
+
+        for (int from = 0; from < missing.size; from += MAX_FACES) {
+            List<String> faceIds = new ArrayList<>();
+            for (int i = from; i < Math.min(missing.size, from + MAX_FACES); i++) {
+                faceIds.add(missing.toString(i));
+            }
+
+            Set<String> persisted = batchItemReader.getAll(faceIds).join().keySet();
+            faceIds.removeAll(persisted);
+
+            report.persistedSinceScan += persisted.size();
+            orphans.addAll(faceIds);
+        }
+
+        report.orphans = orphans.size();
+        return orphans;
+    }
+
+    // Deleting after the listing is done keeps the ListFaces pagination stable
+    private void delete(final List<String> orphans,
+                        final Report report) {
+        for (int from = 0; from < orphans.size(); from += MAX_FACES) {
+            List<String> faceIds = orphans.subList(from, Math.min(orphans.size(), from + MAX_FACES));
+
+            RateLimitedRekognition.startInvocation(CALL_BUDGET_MILLIS);
+            int deleted = rekognitionClient.deleteFaces(builder -> builder.collectionId(collectionId)
+                            .faceIds(faceIds))
+                    .join()
+                    .deletedFaces()
+                    .size();
+
+            report.deleted += deleted;
+            LOG.info("Deleted {} of {} orphan faces", deleted, faceIds.size());
+        }
+    }
+
+    private int partitionOf(final long mostSignificantBits) {
+        return (int) ((mostSignificantBits >>> 32) % partitions);
+    }
+
+    /**
+     * Counts of a run, over all partitions.
+     */
+    public static final class Report {
+        private long collectionFaces;
+        private long tableFaces;
+        private long orphans;
+        private long deleted;
+        private long persistedSinceScan;
+        private long itemsWithoutFace;
+
+        public long collectionFaces() {
+            return collectionFaces;
+        }
+
+        public long tableFaces() {
+            return tableFaces;
+        }
+
+        /**
+         * @return faces of the collection with no item in the table, deleted unless it was a dry run
+         */
+        public long orphans() {
+            return orphans;
+        }
+
+        public long deleted() {
+            return deleted;
+        }
+
+        public long persistedSinceScan() {
+            return persistedSinceScan;
+        }
+
+        public long itemsWithoutFace() {
+            return itemsWithoutFace;
+        }
+    }
+
+    public static class TooManyOrphansException extends RuntimeException {
+        public TooManyOrphansException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Growable list of face ids, sorted once complete to look them up. Filled from the scanning threads, read once they
+     * are done.
+     */
+    private static final class FaceIdArray {
+        private long[] mostSignificantBits = new long[1024];
+        private long[] leastSignificantBits = new long[1024];
+        private int size;
+
+        private synchronized void add(final long most,
+                                      final long least) {
+            if (size == mostSignificantBits.length) {
+                mostSignificantBits = Arrays.copyOf(mostSignificantBits, size * 2);
+                leastSignificantBits = Arrays.copyOf(leastSignificantBits, size * 2);
+            }
+
+            mostSignificantBits[size] = most;
+            leastSignificantBits[size] = least;
+            size++;
+        }
+
+        private void sort() {
+            FaceIds.sort(mostSignificantBits, leastSignificantBits, null, 0, size - 1);
+        }
+
+        private int indexOf(final long most,
+                            final long least) {
+            return FaceIds.indexOf(mostSignificantBits, leastSignificantBits, size, most, least);
+        }
+
+        private String toString(final int index) {
+            return new UUID(mostSignificantBits[index], leastSignificantBits[index]).toString();
+        }
+    }
+}
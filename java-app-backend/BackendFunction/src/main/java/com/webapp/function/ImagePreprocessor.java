@@ -0,0 +1,484 @@
+package com.webapp.function;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import static com.webapp.function.Env.intEnv;
+
+/**
+ * Validates images before they are sent to Rekognition and shrinks the ones that are larger than face matching needs.
+ * <p>
+ * Format and dimensions are read from the header alone so corrupt or unsupported uploads are rejected without a
+ * remote round trip. Only images whose longest side exceeds the configured maximum are decoded, downscaled and
+ * re-encoded as JPEG.
+ * <p>
+ * Decoding allocates for every pixel the header declares, so a small file declaring huge dimensions could exhaust the
+ * memory of the function. Images above PreprocessMaxPixels are rejected before anything is decoded. Re-encoding drops
+ * the EXIF orientation of phone photos, so it is applied to the pixels instead, as Rekognition would have applied it.
+ */
+public class ImagePreprocessor {
+    private static final Logger LOG = LogManager.getLogger(ImagePreprocessor.class);
+
+    // Limits documented for Rekognition image operations
+    private static final int MIN_DIMENSION = 80;
+    private static final int MAX_IMAGE_BYTES = 5 * 1024 * 1024;
+
+    // Share of the face size added on every side of a crop, so the search still sees the whole head
+    private static final double CROP_MARGIN = 0.25;
+
+    private final int maxDimension;
+    private final float jpegQuality;
+    private final long maxPixels;
+
+    static {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    public ImagePreprocessor(final int maxDimension,
+                             final float jpegQuality,
+                             final long maxPixels) {
+        this.maxDimension = maxDimension;
+        this.jpegQuality = jpegQuality;
+        this.maxPixels = maxPixels;
+    }
+
+    public static ImagePreprocessor fromEnvironment() {
+        return new ImagePreprocessor(intEnv("PreprocessMaxDimension", 1600),
+                intEnv("PreprocessJpegQuality", 90) / 100f,
+                intEnv("PreprocessMaxPixels", 40_000_000));
+    }
+
+    /**
+     * @throws InvalidImageException if the image is not a JPEG or PNG, its header is corrupt or it is out of bounds
+     */
+    public PreparedImage prepare(final byte[] image) {
+        long start = System.nanoTime();
+
+        if (image.length > MAX_IMAGE_BYTES) {
+            throw new InvalidImageException("Image must be smaller than " + MAX_IMAGE_BYTES + " bytes");
+        }
+
+        ImageHeader header = ImageHeader.read(image);
+
+        if (header.width < MIN_DIMENSION || header.height < MIN_DIMENSION) {
+            throw new InvalidImageException("Image must be at least " + MIN_DIMENSION + "x" + MIN_DIMENSION
+                    + " pixels, got " + header.width + "x" + header.height);
+        }
+        checkPixels(header.width, header.height);
+
+        byte[] prepared = image;
+
+        if (Math.max(header.width, header.height) > maxDimension) {
+            byte[] downscaled = downscale(image, header);
+
+            if (downscaled.length < image.length) {
+                prepared = downscaled;
+            }
+        }
+
+        LOG.debug("Prepared {} image of {}x{} from {} to {} bytes", header.format, header.width, header.height,
+                image.length, prepared.length);
+
+        return new PreparedImage(prepared, image.length - prepared.length,
+                StageTimings.record(StageTimings.Stage.PREPROCESS, start) - start);
+    }
+
+    /**
+     * Decodes an image that already passed {@link #prepare}, for cutting faces out of it with {@link #cropFace}. The
+     * EXIF orientation is applied, as Rekognition applies it before reporting bounding boxes.
+     */
+    public BufferedImage decode(final byte[] image) {
+        long start = System.nanoTime();
+        int orientation = ImageHeader.read(image).orientation;
+        BufferedImage decoded = read(image);
+
+        if (orientation != ImageHeader.ORIENTATION_NORMAL) {
+            boolean swapped = orientation >= ImageHeader.ORIENTATION_TRANSPOSE;
+            decoded = render(decoded, orientation, swapped ? decoded.getHeight() : decoded.getWidth(),
+                    swapped ? decoded.getWidth() : decoded.getHeight());
+        }
+
+        StageTimings.record(StageTimings.Stage.DECODE, start);
+        return decoded;
+    }
+
+    /**
+     * Cuts a face out of the image with a margin around it and encodes it as JPEG. Faces too small for Rekognition are
+     * scaled up to the minimum dimension.
+     *
+     * @param box face bounds as ratios of the image width and height, the way Rekognition reports them
+     */
+    public byte[] cropFace(final BufferedImage image,
+                           final Rectangle2D box) {
+        long start = System.nanoTime();
+        int left = clamp((box.getX() - box.getWidth() * CROP_MARGIN) * image.getWidth(), image.getWidth() - 1);
+        int top = clamp((box.getY() - box.getHeight() * CROP_MARGIN) * image.getHeight(), image.getHeight() - 1);
+        int right = clamp((box.getMaxX() + box.getWidth() * CROP_MARGIN) * image.getWidth(), image.getWidth());
+        int bottom = clamp((box.getMaxY() + box.getHeight() * CROP_MARGIN) * image.getHeight(), image.getHeight());
+
+        int cropWidth = Math.max(1, right - left);
+        int cropHeight = Math.max(1, bottom - top);
+        double scale = Math.max(1, (double) MIN_DIMENSION / Math.min(cropWidth, cropHeight));
+        int width = (int) Math.ceil(cropWidth * scale);
+        int height = (int) Math.ceil(cropHeight * scale);
+
+        BufferedImage crop = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = crop.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, left, top, left + cropWidth, top + cropHeight, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        try {
+            byte[] encoded = encodeJpeg(crop);
+            StageTimings.record(StageTimings.Stage.PREPROCESS, start);
+            return encoded;
+        } catch (IOException e) {
+            throw new InvalidImageException("Unable to encode face crop: " + e.getMessage());
+        }
+    }
+
+    private static int clamp(final double value,
+                             final int max) {
+        return (int) Math.max(0, Math.min(max, Math.round(value)));
+    }
+
+    private void checkPixels(final long width,
+                             final long height) {
+        if (width * height > maxPixels) {
+            throw new InvalidImageException("Image must have at most " + maxPixels + " pixels, got " + width + "x"
+                    + height);
+        }
+    }
+
+    /**
+     * Decodes the image once the reader has checked its dimensions against the pixel budget, whatever the header
+     * parsed by {@link ImageHeader} said.
+     */
+    private BufferedImage read(final byte[] image) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+
+            if (!readers.hasNext()) {
+                throw new InvalidImageException("Unable to decode image");
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                checkPixels(reader.getWidth(0), reader.getHeight(0));
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new InvalidImageException("Unable to decode image: " + e.getMessage());
+        }
+    }
+
+    private byte[] downscale(final byte[] image,
+                             final ImageHeader header) {
+        boolean swapped = header.orientation >= ImageHeader.ORIENTATION_TRANSPOSE;
+        int displayWidth = swapped ? header.height : header.width;
+        int displayHeight = swapped ? header.width : header.height;
+        double scale = (double) maxDimension / Math.max(displayWidth, displayHeight);
+        int width = Math.max(1, (int) Math.round(displayWidth * scale));
+        int height = Math.max(1, (int) Math.round(displayHeight * scale));
+
+        try {
+            return encodeJpeg(render(read(image), header.orientation, width, height));
+        } catch (IOException e) {
+            throw new InvalidImageException("Unable to encode " + header.format + " image: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Draws the source turned upright according to its EXIF orientation and scaled to the given size, on white so
+     * transparent PNG pixels do not turn black.
+     */
+    private static BufferedImage render(final BufferedImage source,
+                                        final int orientation,
+                                        final int width,
+                                        final int height) {
+        boolean swapped = orientation >= ImageHeader.ORIENTATION_TRANSPOSE;
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        AffineTransform transform = AffineTransform.getScaleInstance(
+                (double) width / (swapped ? sourceHeight : sourceWidth),
+                (double) height / (swapped ? sourceWidth : sourceHeight));
+        transform.concatenate(orientationTransform(orientation, sourceWidth, sourceHeight));
+
+        BufferedImage rendered = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rendered.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, transform, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        return rendered;
+    }
+
+    /**
+     * Maps the stored pixels to their upright position, for the EXIF orientations 1 to 8.
+     */
+    static AffineTransform orientationTransform(final int orientation,
+                                                final int width,
+                                                final int height) {
+        switch (orientation) {
+            case 2:
+                return new AffineTransform(-1, 0, 0, 1, width, 0);
+            case 3:
+                return new AffineTransform(-1, 0, 0, -1, width, height);
+            case 4:
+                return new AffineTransform(1, 0, 0, -1, 0, height);
+            case 5:
+                return new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6:
+                return new AffineTransform(0, 1, -1, 0, height, 0);
+            case 7:
+                return new AffineTransform(0, -1, -1, 0, height, width);
+            case 8:
+                return new AffineTransform(0, -1, 1, 0, 0, width);
+            default:
+                return new AffineTransform();
+        }
+    }
+
+    private byte[] encodeJpeg(final BufferedImage image) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4);
+
+        try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Format, dimensions and EXIF orientation parsed from the first bytes of a JPEG or PNG image. The dimensions are
+     * those stored, before the orientation is applied.
+     */
+    static final class ImageHeader {
+        static final int ORIENTATION_NORMAL = 1;
+        // Orientations from this one on swap width and height
+        static final int ORIENTATION_TRANSPOSE = 5;
+
+        private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+        private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+        private static final int ORIENTATION_TAG = 0x0112;
+
+        final String format;
+        final int width;
+        final int height;
+        final int orientation;
+
+        private ImageHeader(final String format,
+                            final int width,
+                            final int height,
+                            final int orientation) {
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.orientation = orientation;
+        }
+
+        static ImageHeader read(final byte[] image) {
+            if (image.length > 3 && (image[0] & 0xFF) == 0xFF && (image[1] & 0xFF) == 0xD8 && (image[2] & 0xFF) == 0xFF) {
+                return readJpeg(image);
+            }
+
+            if (image.length >= 24 && startsWith(image, PNG_SIGNATURE)) {
+                if (image[12] != 'I' || image[13] != 'H' || image[14] != 'D' || image[15] != 'R') {
+                    throw new InvalidImageException("Corrupt PNG header");
+                }
+                return new ImageHeader("PNG", int32(image, 16), int32(image, 20), ORIENTATION_NORMAL);
+            }
+
+            throw new InvalidImageException("Unsupported image format, only JPEG and PNG are accepted");
+        }
+
+        private static ImageHeader readJpeg(final byte[] image) {
+            int offset = 2;
+            int orientation = ORIENTATION_NORMAL;
+
+            while (offset + 9 < image.length) {
+                if ((image[offset] & 0xFF) != 0xFF) {
+                    throw new InvalidImageException("Corrupt JPEG header");
+                }
+
+                int marker = image[offset + 1] & 0xFF;
+
+                if (marker == 0xFF) {
+                    offset++;
+                    continue;
+                }
+
+                // SOF0 to SOF15, excluding DHT (C4), JPG (C8) and DAC (CC), carry the frame dimensions
+                if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                    return new ImageHeader("JPEG", uint16(image, offset + 7), uint16(image, offset + 5), orientation);
+                }
+
+                // APP1 carries the EXIF metadata, and the orientation of photos taken by phones
+                if (marker == 0xE1) {
+                    orientation = exifOrientation(image, offset + 4,
+                            Math.min(image.length, offset + 2 + uint16(image, offset + 2)), orientation);
+                }
+
+                if (marker == 0xD9 || marker == 0xDA) {
+                    break;
+                }
+
+                offset += 2 + uint16(image, offset + 2);
+            }
+
+            throw new InvalidImageException("Corrupt JPEG header, no frame dimensions found");
+        }
+
+        /**
+         * Reads the orientation tag of the first IFD of an EXIF segment. A segment that is not EXIF or is truncated
+         * leaves the orientation as it was, it only decides how the image is turned.
+         */
+        private static int exifOrientation(final byte[] image,
+                                           final int start,
+                                           final int end,
+                                           final int orientation) {
+            int tiff = start + EXIF_HEADER.length;
+
+            if (tiff + 8 > end || !startsWith(image, start, EXIF_HEADER)) {
+                return orientation;
+            }
+
+            boolean littleEndian = image[tiff] == 'I' && image[tiff + 1] == 'I';
+            if (!littleEndian && (image[tiff] != 'M' || image[tiff + 1] != 'M')) {
+                return orientation;
+            }
+
+            long ifd = tiff + (exifInt32(image, tiff + 4, littleEndian) & 0xFFFFFFFFL);
+            if (ifd + 2 > end) {
+                return orientation;
+            }
+
+            int entries = exifUint16(image, (int) ifd, littleEndian);
+            for (int i = 0; i < entries; i++) {
+                int entry = (int) ifd + 2 + i * 12;
+
+                if (entry + 12 > end) {
+                    break;
+                }
+                if (exifUint16(image, entry, littleEndian) == ORIENTATION_TAG) {
+                    int value = exifUint16(image, entry + 8, littleEndian);
+                    return value >= 1 && value <= 8 ? value : ORIENTATION_NORMAL;
+                }
+            }
+
+            return orientation;
+        }
+
+        private static boolean startsWith(final byte[] image,
+                                          final byte[] prefix) {
+            return startsWith(image, 0, prefix);
+        }
+
+        private static boolean startsWith(final byte[] image,
+                                          final int offset,
+                                          final byte[] prefix) {
+            for (int i = 0; i < prefix.length; i++) {
+                if (image[offset + i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int exifUint16(final byte[] bytes,
+                                      final int offset,
+                                      final boolean littleEndian) {
+            return littleEndian ? (bytes[offset + 1] & 0xFF) << 8 | bytes[offset] & 0xFF : uint16(bytes, offset);
+        }
+
+        private static int exifInt32(final byte[] bytes,
+                                     final int offset,
+                                     final boolean littleEndian) {
+            return littleEndian ? exifUint16(bytes, offset + 2, true) << 16 | exifUint16(bytes, offset, true)
+                    : int32(bytes, offset);
+        }
+
+        private static int uint16(final byte[] bytes,
+                                  final int offset) {
+            return (bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF;
+        }
+
+        private static int int32(final byte[] bytes,
+                                 final int offset) {
+            return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                    | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+        }
+    }
+
+    public static final class PreparedImage {
+        private final byte[] bytes;
+        private final long bytesSaved;
+        private final long durationNanos;
+
+        private PreparedImage(final byte[] bytes,
+                              final long bytesSaved,
+                              final long durationNanos) {
+            this.bytes = bytes;
+            this.bytesSaved = bytesSaved;
+            this.durationNanos = durationNanos;
+        }
+
+        public byte[] bytes() {
+            return bytes;
+        }
+
+        public long bytesSaved() {
+            return bytesSaved;
+        }
+
+        public long durationNanos() {
+            return durationNanos;
+        }
+    }
+
+    public static class InvalidImageException extends RuntimeException {
+        public InvalidImageException(final String message) {
+            super(message);
+        }
+    }
+}
@@ -1,95 +1,353 @@
 package com.webapp.function;
 
-import java.net.URL;
+import java.io.IOException;
 import java.time.Duration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.CompletionException;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
 import software.amazon.cloudwatchlogs.emf.model.Unit;
 import software.amazon.lambda.powertools.logging.Logging;
 import software.amazon.lambda.powertools.metrics.Metrics;
 import software.amazon.lambda.powertools.tracing.Tracing;
 
+import static com.webapp.function.Env.intEnv;
 import static software.amazon.lambda.powertools.metrics.MetricsUtils.metricsLogger;
 
 public class ImageUploadHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     private static final Logger LOG = LogManager.getLogger(ImageUploadHandler.class);
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-    private static final S3Presigner client = S3Presigner.create();
+    private static final ObjectWriter RESPONSE_WRITER = JsonResponses.writerFor(ResponseBody.class);
+    private static final ObjectWriter BATCH_RESPONSE_WRITER = JsonResponses.listWriterFor(ResponseBody.class);
+    private static final ObjectReader BATCH_REQUEST_READER = new ObjectMapper().readerFor(new TypeReference<List<UploadRequest>>() {
+    });
+    private static final ObjectReader MULTIPART_REQUEST_READER = new ObjectMapper().readerFor(MultipartRequest.class);
+    private static final S3Presigner client = AwsClients.s3Presigner();
+    private static final EventLogger eventLogger = EventLogger.fromEnvironment();
 
     private static final String S3_BUCKET = System.getenv("UploadBucket");
+    private static final UploadUrlSigner uploadUrlSigner = new UploadUrlSigner(client, S3_BUCKET == null ? "priming" : S3_BUCKET, Duration.ofSeconds(60));
+    private static final MultipartUploads multipartUploads = new MultipartUploads(AwsClients.s3(),
+            client,
+            S3_BUCKET == null ? "priming" : S3_BUCKET,
+            intEnv("MultipartPartSizeBytes", 5 * 1024 * 1024),
+            // Largest image Rekognition reads from S3
+            intEnv("MultipartMaxBytes", 15 * 1024 * 1024),
+            Duration.ofSeconds(intEnv("MultipartUrlTtlSeconds", 900)));
 
-    @Logging(logEvent = true, samplingRate = 0.5)
+    private static final String BATCH_RESOURCE = "/upload-url/batch";
+    private static final String MULTIPART_RESOURCE = "/upload-url/multipart";
+    private static final String MULTIPART_RESUME_RESOURCE = "/upload-url/multipart/resume";
+    private static final String MULTIPART_COMPLETE_RESOURCE = "/upload-url/multipart/complete";
+    private static final int BATCH_MAX_URLS = intEnv("UploadBatchMaxUrls", 50);
+    private static final String MISSING_QUERY_PARAMS = JsonResponses.message("Both content-type and file-extension need to passed as query param!");
+    private static final String INVALID_FILE_EXTENSION = JsonResponses.message("file-extension must be a dot followed by letters and digits");
+    private static final String INVALID_BATCH = JsonResponses.message("Pass a JSON array of 1 to " + BATCH_MAX_URLS
+            + " objects with content-type, file-extension such as .jpg and optionally person-name in the request body");
+    private static final String INVALID_MULTIPART = JsonResponses.message("Pass a JSON object with content-type, file-extension, size"
+            + " and optionally person-name to start an upload, or fileName and uploadId of the upload to resume or complete it");
+    private static final String UNKNOWN_UPLOAD = JsonResponses.message("No such upload, it was completed or aborted");
+
+    private static final Priming priming = Priming.register(ImageUploadHandler.class,
+            ImageUploadHandler::prime,
+            ImageUploadHandler::prime);
+
+    private static void prime() {
+        // Presigning is local, repeating it after restore resolves fresh credentials before the first request
+        ResponseBody responseBody = uploadUrlSigner.sign("image/jpeg", ".jpg", "priming");
+
+        Priming.quietly(() -> JsonResponses.write(RESPONSE_WRITER, responseBody));
+        Priming.quietly(() -> batchUploadRequests("[{\"content-type\": \"image/jpeg\", \"file-extension\": \".jpg\"}]"));
+        Priming.quietly(() -> multipartRequest("{\"fileName\": \"priming.jpg\", \"uploadId\": \"priming\", \"size\": 1}"));
+    }
+
+    @Logging(samplingRate = 0.5)
     @Tracing
     @Metrics(captureColdStart = true)
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
-        APIGatewayProxyResponseEvent apiGatewayProxyResponseEvent = new APIGatewayProxyResponseEvent();
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Access-Control-Allow-Origin", "*");
-        apiGatewayProxyResponseEvent.withHeaders(headers);
+        try {
+            StageTimings.reset();
+            eventLogger.log(input);
+            APIGatewayProxyResponseEvent apiGatewayProxyResponseEvent = new APIGatewayProxyResponseEvent();
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Access-Control-Allow-Origin", "*");
+            apiGatewayProxyResponseEvent.withHeaders(headers);
+
+            if (BATCH_RESOURCE.equals(input.getResource())) {
+                return batchResponse(input.getBody(), apiGatewayProxyResponseEvent, context);
+            }
+
+            if (input.getResource() != null && input.getResource().startsWith(MULTIPART_RESOURCE)) {
+                return multipartResponse(input.getResource(), input.getBody(), apiGatewayProxyResponseEvent, context);
+            }
+
+            String contentType = input.getQueryStringParameters().getOrDefault("content-type", "");
+            String fileExtension = input.getQueryStringParameters().getOrDefault("file-extension", "");
+
+            if (contentType.isEmpty() || fileExtension.isEmpty()) {
+                return apiGatewayProxyResponseEvent
+                        .withStatusCode(400)
+                        .withBody(MISSING_QUERY_PARAMS);
+            }
+
+            if (!UploadUrlSigner.isValidFileExtension(fileExtension)) {
+                return apiGatewayProxyResponseEvent
+                        .withStatusCode(400)
+                        .withBody(INVALID_FILE_EXTENSION);
+            }
 
-        String contentType = input.getQueryStringParameters().getOrDefault("content-type", "");
-        String fileExtension = input.getQueryStringParameters().getOrDefault("file-extension", "");
+            String personName = input.getQueryStringParameters().getOrDefault("person-name", "");
+            ResponseBody responseBody = uploadUrlSigner.sign(contentType, fileExtension, personName);
 
-        if (contentType.isEmpty() || fileExtension.isEmpty()) {
+            metricsLogger().putMetric("RemainingTime", context.getRemainingTimeInMillis(), Unit.MILLISECONDS);
+            metricsLogger().putMetric("UploadUrlCount", 1, Unit.COUNT);
+
+            return response(apiGatewayProxyResponseEvent, JsonResponses.write(RESPONSE_WRITER, responseBody));
+        } finally {
+            StageTimings.publishMetrics(metricsLogger());
+            AsyncLogging.flush();
+        }
+    }
+
+    /**
+     * Hands out one upload URL per entry of the request body, in the same order, so enrolling a whole team costs one
+     * invocation instead of one per photo.
+     */
+    private APIGatewayProxyResponseEvent batchResponse(final String body,
+                                                       final APIGatewayProxyResponseEvent apiGatewayProxyResponseEvent,
+                                                       final Context context) {
+        List<UploadRequest> uploadRequests = batchUploadRequests(body);
+
+        if (uploadRequests == null || uploadRequests.isEmpty() || uploadRequests.size() > BATCH_MAX_URLS
+                || !uploadRequests.stream().allMatch(UploadRequest::isValid)) {
             return apiGatewayProxyResponseEvent
                     .withStatusCode(400)
-                    .withBody("{\n" +
-                            "  \"message\": \"Both content-type and file-extension need to passed as query param!\" \n" +
-                            "}");
+                    .withBody(INVALID_BATCH);
         }
 
-        String fileName = UUID.randomUUID() + fileExtension;
-        String imagePath = "index/static/" + fileName;
-        String personName = input.getQueryStringParameters().getOrDefault("person-name", "");
-        LOG.debug("File path to be saved {} in bucket {}", imagePath, S3_BUCKET);
-        LOG.debug("Received metadata {}", personName);
+        List<ResponseBody> responseBodies = uploadUrlSigner.signAll(uploadRequests);
 
-        HashMap<String, String> metaData = new HashMap<>();
-        metaData.put("fullname", personName);
+        metricsLogger().putMetric("RemainingTime", context.getRemainingTimeInMillis(), Unit.MILLISECONDS);
+        metricsLogger().putMetric("UploadUrlCount", responseBodies.size(), Unit.COUNT);
 
-        PresignedPutObjectRequest requestObject = client.presignPutObject(req ->
-                req.putObjectRequest(obj ->
-                        obj.metadata(metaData)
-                                .bucket(S3_BUCKET)
-                                .key(imagePath)
-                                .contentType(contentType)).signatureDuration(Duration.ofSeconds(60)));
+        return response(apiGatewayProxyResponseEvent, JsonResponses.write(BATCH_RESPONSE_WRITER, responseBodies));
+    }
+
+    private static List<UploadRequest> batchUploadRequests(final String body) {
+        if (body == null || body.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return BATCH_REQUEST_READER.readValue(body);
+        } catch (IOException e) {
+            LOG.debug("Failed parsing batch upload request. Reason: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Starts, resumes or completes a multipart upload. Parts are uploaded by the client straight to S3, in parallel, and
+     * S3 only creates the object on completion, so IndexImageHandler is triggered exactly once per image.
+     */
+    private APIGatewayProxyResponseEvent multipartResponse(final String resource,
+                                                           final String body,
+                                                           final APIGatewayProxyResponseEvent apiGatewayProxyResponseEvent,
+                                                           final Context context) {
+        MultipartRequest request = multipartRequest(body);
+
+        if (request == null || !request.isValid(resource)) {
+            return apiGatewayProxyResponseEvent
+                    .withStatusCode(400)
+                    .withBody(INVALID_MULTIPART);
+        }
+
+        String responseBody;
+        try {
+            switch (resource) {
+                case MULTIPART_RESOURCE:
+                    responseBody = uploadBody(multipartUploads.start(request.getContentType(), request.getFileExtension(),
+                            request.getPersonName(), request.getSize()).join());
+                    break;
+                case MULTIPART_RESUME_RESOURCE:
+                    responseBody = uploadBody(multipartUploads.resume(request.getFileName(), request.getUploadId(),
+                            request.getSize()).join());
+                    break;
+                default:
+                    multipartUploads.complete(request.getFileName(), request.getUploadId()).join();
+                    responseBody = JsonResponses.write(generator -> generator.writeStringField("fileName", request.getFileName()));
+            }
+        } catch (MultipartUploads.InvalidUploadException e) {
+            return apiGatewayProxyResponseEvent
+                    .withStatusCode(400)
+                    .withBody(JsonResponses.message(e.getMessage()));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof MultipartUploads.InvalidUploadException) {
+                return apiGatewayProxyResponseEvent
+                        .withStatusCode(400)
+                        .withBody(JsonResponses.message(e.getCause().getMessage()));
+            }
+
+            if (e.getCause() instanceof NoSuchUploadException) {
+                return apiGatewayProxyResponseEvent
+                        .withStatusCode(404)
+                        .withBody(UNKNOWN_UPLOAD);
+            }
+
+            throw e;
+        }
 
         metricsLogger().putMetric("RemainingTime", context.getRemainingTimeInMillis(), Unit.MILLISECONDS);
+        metricsLogger().putMetric(MULTIPART_RESOURCE.equals(resource) ? "MultipartUploadStarted"
+                : MULTIPART_RESUME_RESOURCE.equals(resource) ? "MultipartUploadResumed" : "MultipartUploadCompleted", 1, Unit.COUNT);
+
+        return response(apiGatewayProxyResponseEvent, responseBody);
+    }
+
+    private static String uploadBody(final MultipartUploads.Upload upload) {
+        return JsonResponses.write(generator -> {
+            generator.writeStringField("fileName", upload.fileName());
+            generator.writeStringField("uploadId", upload.uploadId());
+            generator.writeNumberField("partSize", upload.partSize());
+            writeParts(generator, "parts", "uploadURL", upload.partUrls());
+            writeParts(generator, "uploadedParts", "eTag", upload.uploadedParts());
+        });
+    }
+
+    private static void writeParts(final JsonGenerator generator,
+                                   final String fieldName,
+                                   final String valueName,
+                                   final Map<Integer, String> parts) throws IOException {
+        generator.writeArrayFieldStart(fieldName);
+        for (Map.Entry<Integer, String> part : parts.entrySet()) {
+            generator.writeStartObject();
+            generator.writeNumberField("partNumber", part.getKey());
+            generator.writeStringField(valueName, part.getValue());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
 
-        LOG.debug("Generated pre signed url {}", requestObject.url());
-        LOG.debug("Generated pre signed details meta {}", requestObject.signedHeaders());
+    private static MultipartRequest multipartRequest(final String body) {
+        if (body == null || body.isEmpty()) {
+            return null;
+        }
 
-        return response(apiGatewayProxyResponseEvent, fileName, requestObject.url());
+        try {
+            return MULTIPART_REQUEST_READER.readValue(body);
+        } catch (IOException e) {
+            LOG.debug("Failed parsing multipart upload request. Reason: {}", e.getMessage());
+            return null;
+        }
     }
 
     @Tracing
     private APIGatewayProxyResponseEvent response(final APIGatewayProxyResponseEvent apiGatewayProxyResponseEvent,
-                                                  final String fileName,
-                                                  final URL url) {
-        try {
-            return apiGatewayProxyResponseEvent
-                    .withStatusCode(200)
-                    .withBody(OBJECT_MAPPER.writeValueAsString(new ResponseBody(url.toString(), fileName)));
-        } catch (JsonProcessingException e) {
-            LOG.error("Failed sending response", e);
-            throw new RuntimeException(e);
+                                                  final String body) {
+        return apiGatewayProxyResponseEvent
+                .withStatusCode(200)
+                .withBody(body);
+    }
+
+    public static class UploadRequest {
+        @JsonProperty("content-type")
+        private String contentType;
+
+        @JsonProperty("file-extension")
+        private String fileExtension;
+
+        @JsonProperty("person-name")
+        private String personName = "";
+
+        public UploadRequest() {
+        }
+
+        public UploadRequest(String contentType, String fileExtension, String personName) {
+            this.contentType = contentType;
+            this.fileExtension = fileExtension;
+            this.personName = personName;
+        }
+
+        boolean isValid() {
+            return contentType != null && !contentType.isEmpty() && UploadUrlSigner.isValidFileExtension(fileExtension);
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getFileExtension() {
+            return fileExtension;
+        }
+
+        public String getPersonName() {
+            return personName == null ? "" : personName;
+        }
+    }
+
+    public static class MultipartRequest extends UploadRequest {
+        private long size;
+        private String fileName;
+        private String uploadId;
+
+        boolean isValid(final String resource) {
+            switch (resource) {
+                case MULTIPART_RESOURCE:
+                    return isValid() && size > 0;
+                case MULTIPART_RESUME_RESOURCE:
+                    return hasUpload() && size > 0;
+                case MULTIPART_COMPLETE_RESOURCE:
+                    return hasUpload();
+                default:
+                    return false;
+            }
+        }
+
+        private boolean hasUpload() {
+            return fileName != null && !fileName.isEmpty() && uploadId != null && !uploadId.isEmpty();
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public void setFileName(String fileName) {
+            this.fileName = fileName;
+        }
+
+        public String getUploadId() {
+            return uploadId;
+        }
+
+        public void setUploadId(String uploadId) {
+            this.uploadId = uploadId;
         }
     }
 
-    public class ResponseBody {
+    public static class ResponseBody {
         private String uploadURL;
         private String fileName;
 
@@ -1,109 +1,489 @@
 package com.webapp.function;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
-import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
-import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.rekognition.model.BoundingBox;
+import software.amazon.awssdk.services.rekognition.model.FaceRecord;
 import software.amazon.awssdk.services.rekognition.model.IndexFacesRequest;
 import software.amazon.awssdk.services.rekognition.model.IndexFacesResponse;
 import software.amazon.awssdk.services.rekognition.model.S3Object;
-import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.cloudwatchlogs.emf.model.Unit;
 import software.amazon.lambda.powertools.logging.Logging;
+import software.amazon.lambda.powertools.metrics.Metrics;
 import software.amazon.lambda.powertools.tracing.Tracing;
 
+import static com.webapp.function.Env.intEnv;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static software.amazon.lambda.powertools.metrics.MetricsUtils.metricsLogger;
 import static software.amazon.lambda.powertools.tracing.TracingUtils.putAnnotation;
 import static software.amazon.lambda.powertools.tracing.TracingUtils.putMetadata;
 
-public class IndexImageHandler implements RequestHandler<S3EventNotification, IndexFacesResponse> {
+public class IndexImageHandler implements RequestHandler<S3EventNotification, List<IndexImageHandler.IndexRecordResult>> {
     private static final Logger LOG = LogManager.getLogger(IndexImageHandler.class);
 
     private static final String COLLECTION_ID = System.getenv("CollectionId");
     private static final String TABLE_NAME = System.getenv("TableName");
 
-    private static final RekognitionClient rekognitionClient = RekognitionClient.create();
-    private static final DynamoDbClient dynamoDbClient = DynamoDbClient.create();
-    private static final S3Client s3Client = S3Client.create();
+    private static final RateLimitedRekognition rekognitionClient = AwsClients.rekognition();
+    private static final DynamoDbCalls dynamoDbClient = AwsClients.dynamoDb();
+    private static final S3Calls s3Client = AwsClients.s3();
+
+    private static final BatchItemWriter batchItemWriter = new BatchItemWriter(dynamoDbClient, TABLE_NAME);
+    private static final IndexedImages indexedImages = IndexedImages.fromEnvironment(dynamoDbClient);
+    private static final EventLogger eventLogger = EventLogger.fromEnvironment();
+    private static final TracedExecutor indexExecutor = TracedExecutor.fixed("index-worker", intEnv("IndexConcurrency", 4));
+
+    private static final String PRIMING_BUCKET = "priming-bucket-does-not-exist";
+    private static final Priming priming = Priming.register(IndexImageHandler.class,
+            IndexImageHandler::warmRemoteCalls,
+            IndexImageHandler::restore);
 
     @Override
-    @Logging(logEvent = true, samplingRate = 0.5)
+    @Logging(samplingRate = 0.5)
     @Tracing(namespace = "ImageIndexer")
-    public IndexFacesResponse handleRequest(S3EventNotification input, Context context) {
-        String bucketName = input.getRecords().get(0).getS3().getBucket().getName();
-        String bucketKey = input.getRecords().get(0).getS3().getObject().getUrlDecodedKey();
-
+    @Metrics(captureColdStart = true)
+    public List<IndexRecordResult> handleRequest(S3EventNotification input, Context context) {
         try {
-            IndexFacesResponse indexFacesResponse = indexFaces(bucketName, bucketKey);
-            LOG.debug("Response from service after indexing {}", indexFacesResponse);
+            StageTimings.reset();
+            eventLogger.log(input);
+            long start = System.nanoTime();
+            RateLimitedRekognition.startInvocation(context);
 
-            if (indexFacesResponse.sdkHttpResponse().isSuccessful()) {
-                String faceId = indexFacesResponse.faceRecords().get(0).face().faceId();
+            List<IndexRecordResult> results = indexAll(input.getRecords().stream()
+                    .map(record -> new UploadedImage(record.getS3().getBucket().getName(), record.getS3().getObject().getUrlDecodedKey()))
+                    .collect(toList()));
 
-                HeadObjectResponse headObjectResponse = s3Client.headObject(HeadObjectRequest.builder()
-                        .bucket(bucketName)
-                        .key(bucketKey)
-                        .build());
+            metricsLogger().putProperty("ClientMode", AwsClients.MODE);
+            metricsLogger().putMetric("IndexLatency", (System.nanoTime() - start) / 1_000_000d, Unit.MILLISECONDS);
+
+            // S3 invokes the function asynchronously and ignores the result, only an error gets the event retried and
+            // then sent to the on failure destination. The faces of the other images are persisted by now.
+            List<String> failedKeys = results.stream()
+                    .filter(result -> result.getError() != null)
+                    .map(IndexRecordResult::getKey)
+                    .collect(toList());
+
+            if (!failedKeys.isEmpty()) {
+                throw new IndexFailedException(failedKeys, results.size());
+            }
+
+            return results;
+        } finally {
+            StageTimings.publishMetrics(metricsLogger());
+            AsyncLogging.flush();
+        }
+    }
+
+    /**
+     * Initialises the handler, which registers its priming hooks, for handlers indexing images delivered another way.
+     */
+    static Function<List<UploadedImage>, List<IndexRecordResult>> indexer() {
+        return IndexImageHandler::indexAll;
+    }
+
+    /**
+     * Indexes the images concurrently and persists all their faces with batched writes. Called on the handler thread,
+     * as it puts metrics.
+     *
+     * @return outcome of each image, in the same order
+     */
+    static List<IndexRecordResult> indexAll(final List<UploadedImage> images) {
+        List<CompletableFuture<IndexRecordResult>> pending = images.stream()
+                .map(image -> indexExecutor.supplyAsync(() -> indexRecord(image))
+                        .thenCompose(Function.identity())
+                        .exceptionally(e -> IndexRecordResult.failed(image, e instanceof CompletionException ? e.getCause() : e)))
+                .collect(toList());
+
+        List<IndexRecordResult> indexed = pending.stream()
+                .map(CompletableFuture::join)
+                .collect(toList());
+
+        List<Map<String, AttributeValue>> items = indexed.stream()
+                .flatMap(result -> result.faceItems.stream())
+                .collect(toList());
+
+        Set<String> unwritten = updateIndexDetails(items).stream()
+                .map(item -> item.get("RekognitionId").s())
+                .collect(toSet());
+
+        List<IndexRecordResult> results = indexed.stream()
+                .map(result -> result.getFaceIds().stream().anyMatch(unwritten::contains)
+                        ? result.withError("Failed persisting face details")
+                        : result)
+                .collect(toList());
+
+        settleClaims(results);
+
+        long failed = results.stream()
+                .filter(result -> result.getError() != null)
+                .count();
+        long throttled = results.stream()
+                .filter(IndexRecordResult::throttled)
+                .count();
+        long duplicates = results.stream()
+                .filter(IndexRecordResult::isDuplicate)
+                .count();
+
+        metricsLogger().putMetric("IndexThrottledCount", throttled, Unit.COUNT);
+        metricsLogger().putMetric("SkippedDuplicateCount", duplicates, Unit.COUNT);
+        // One IndexFaces call per image skipped
+        metricsLogger().putMetric("RekognitionCallsAvoided", duplicates, Unit.COUNT);
+        rekognitionClient.publishMetrics(metricsLogger());
+
+        LOG.info("Indexed {} of {} images, {} throttled, {} duplicates skipped", results.size() - failed - duplicates,
+                results.size(), throttled, duplicates);
+        return results;
+    }
+
+    /**
+     * Marks the content of the images whose faces were persisted as indexed, and releases the content of the others.
+     * Images that failed before their faces were known released their claim already.
+     */
+    private static void settleClaims(final List<IndexRecordResult> results) {
+        Map<String, List<String>> indexedContent = new HashMap<>();
+        List<CompletableFuture<Void>> releases = new ArrayList<>();
+
+        for (IndexRecordResult result : results) {
+            if (result.contentKey == null) {
+                continue;
+            }
 
-                String fullname = headObjectResponse.metadata().getOrDefault("fullname", "");
+            if (result.getError() == null) {
+                indexedContent.put(result.contentKey, result.getFaceIds());
+            } else {
+                releases.add(indexedImages.release(result.contentKey));
+            }
+        }
+
+        indexedImages.markIndexed(indexedContent);
+        CompletableFuture.allOf(releases.toArray(new CompletableFuture[0])).join();
+    }
+
+    private static CompletableFuture<IndexRecordResult> indexRecord(final UploadedImage image) {
+        String bucketName = image.getBucket();
+        String bucketKey = image.getKey();
+
+        // The content is claimed before calling Rekognition, so a duplicate only costs the HeadObject and the claim
+        return headObject(bucketName, bucketKey).thenCompose(headObjectResponse -> {
+            String contentKey = IndexedImages.contentKey(COLLECTION_ID, headObjectResponse);
+            String fullname = headObjectResponse.metadata().getOrDefault("fullname", "");
+
+            return indexedImages.claim(contentKey, bucketKey).thenCompose(claim -> {
+                if (claim == IndexedImages.Claim.INDEXED) {
+                    LOG.info("Skipping image from bucket {} with key {}, its content is indexed already", bucketName, bucketKey);
+                    return CompletableFuture.completedFuture(IndexRecordResult.duplicate(image));
+                }
 
-                putMetadata("full_name", fullname);
-                putAnnotation("full_name", fullname);
+                // Failed rather than skipped, so the event or message is delivered again in case that attempt fails
+                if (claim == IndexedImages.Claim.INDEXING) {
+                    LOG.info("Image from bucket {} with key {} is being indexed by another invocation", bucketName, bucketKey);
+                    return CompletableFuture.completedFuture(IndexRecordResult.failed(image,
+                            new IllegalStateException("Content is being indexed by another invocation")));
+                }
 
-                updateIndexDetails(faceId, fullname);
+                return indexFaces(bucketName, bucketKey)
+                        .thenApply(indexFacesResponse -> indexed(bucketName, bucketKey, fullname, indexFacesResponse)
+                                .withContentKey(contentKey))
+                        .handle((result, e) -> e == null
+                                ? CompletableFuture.completedFuture(result)
+                                : indexedImages.release(contentKey).<IndexRecordResult>thenApply(released -> {
+                                    throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                                }))
+                        .thenCompose(Function.identity());
+            });
+        }).whenComplete((result, e) -> {
+            if (e != null) {
+                LOG.error("Failed indexing uploaded image from bucket {} with key {}", bucketName, bucketKey, e);
             }
+        });
+    }
+
+    private static IndexRecordResult indexed(final String bucketName,
+                                             final String bucketKey,
+                                             final String fullname,
+                                             final IndexFacesResponse indexFacesResponse) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Response from service after indexing {}", LogSummaries.indexFaces(indexFacesResponse));
+        }
 
-            return indexFacesResponse;
-        } catch (Exception e) {
-            LOG.error("Failed indexing uploaded image from bucket {} with key {}", bucketName, bucketKey, e);
-            throw e;
+        if (!indexFacesResponse.sdkHttpResponse().isSuccessful()) {
+            throw new IllegalStateException("Index faces failed with status " + indexFacesResponse.sdkHttpResponse().statusCode());
         }
 
+        if (indexFacesResponse.faceRecords().isEmpty()) {
+            throw new IllegalStateException("No face detected in image");
+        }
+
+        putMetadata("full_name", fullname);
+        putAnnotation("full_name", fullname);
+
+        List<Map<String, AttributeValue>> faceItems = indexFacesResponse.faceRecords().stream()
+                .map(faceRecord -> faceItem(faceRecord, fullname, bucketKey))
+                .collect(toList());
+
+        return IndexRecordResult.indexed(bucketName, bucketKey, fullname, faceItems);
     }
 
     @Tracing
-    private IndexFacesResponse indexFaces(final String bucketName,
-                                          final String bucketKey) {
+    private static CompletableFuture<IndexFacesResponse> indexFaces(final String bucketName,
+                                                             final String bucketKey) {
 
-        IndexFacesResponse indexFacesResponse = rekognitionClient.indexFaces(IndexFacesRequest.builder()
+        return rekognitionClient.indexFaces(IndexFacesRequest.builder()
                 .collectionId(COLLECTION_ID)
                 .image(builder -> builder.s3Object(S3Object.builder()
                         .bucket(bucketName)
                         .name(bucketKey)
                         .build()))
                 .build());
+    }
+
+    @Tracing
+    private static CompletableFuture<HeadObjectResponse> headObject(final String bucketName,
+                                                                  final String bucketKey) {
 
-        LOG.debug("Response from index face: {}", indexFacesResponse);
-        return indexFacesResponse;
+        return s3Client.headObject(HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(bucketKey)
+                .build());
     }
 
     @Tracing
-    private void updateIndexDetails(final String faceId,
-                                    final String fullname) {
+    private static List<Map<String, AttributeValue>> updateIndexDetails(final List<Map<String, AttributeValue>> items) {
+        List<Map<String, AttributeValue>> unwritten = batchItemWriter.putAll(items)
+                .exceptionally(e -> {
+                    LOG.error("Failed persisting {} faces to dynamo db", items.size(), e);
+                    return items;
+                })
+                .join();
+
+        metricsLogger().putMetric("IndexedFaceCount", items.size() - unwritten.size(), Unit.COUNT);
+        metricsLogger().putMetric("BatchWriteCalls", batchItemWriter.drainBatchCalls(), Unit.COUNT);
+
+        LOG.debug("Persisted {} of {} faces to dynamo db", items.size() - unwritten.size(), items.size());
+        return unwritten;
+    }
+
+    private static void restore() {
+        rekognitionClient.restore();
+        warmRemoteCalls();
+    }
+
+    private static void warmRemoteCalls() {
+        faceItem(FaceRecord.builder()
+                .face(face -> face.faceId("priming")
+                        .boundingBox(box -> box.width(0.5f).height(0.5f).left(0.25f).top(0.25f)))
+                .build(), "priming", "priming.jpg");
+
+        // Both calls fail on the missing bucket, after request marshalling, signing and connection setup
+        Priming.quietly(() -> rekognitionClient.indexFaces(builder -> builder.collectionId(COLLECTION_ID)
+                        .image(image -> image.s3Object(S3Object.builder()
+                                .bucket(PRIMING_BUCKET)
+                                .name("priming.jpg")
+                                .build())))
+                .join());
+
+        Priming.quietly(() -> s3Client.headObject(builder -> builder.bucket(PRIMING_BUCKET)
+                        .key("priming.jpg"))
+                .join());
+    }
+
+    private static Map<String, AttributeValue> faceItem(final FaceRecord faceRecord,
+                                                 final String fullname,
+                                                 final String bucketKey) {
         Map<String, AttributeValue> item = new HashMap<>();
 
         item.put("RekognitionId", AttributeValue.builder()
-                .s(faceId)
+                .s(faceRecord.face().faceId())
                 .build());
 
         item.put("FullName", AttributeValue.builder()
                 .s(fullname)
                 .build());
 
-        PutItemResponse putItemResponse = dynamoDbClient.putItem(PutItemRequest.builder()
-                .tableName(TABLE_NAME)
-                .item(item)
+        item.put("ImageKey", AttributeValue.builder()
+                .s(bucketKey)
                 .build());
 
-        LOG.debug("Persistance response from dynamo db {}", putItemResponse);
+        BoundingBox boundingBox = faceRecord.face().boundingBox();
+
+        if (boundingBox != null) {
+            Map<String, AttributeValue> box = new HashMap<>();
+            box.put("Width", number(boundingBox.width()));
+            box.put("Height", number(boundingBox.height()));
+            box.put("Left", number(boundingBox.left()));
+            box.put("Top", number(boundingBox.top()));
+
+            item.put("BoundingBox", AttributeValue.builder()
+                    .m(box)
+                    .build());
+        }
+
+        return item;
+    }
+
+    private static AttributeValue number(final Float value) {
+        return AttributeValue.builder()
+                .n(String.valueOf(value))
+                .build();
+    }
+
+    /**
+     * Location of an uploaded image to index, whether it came straight from S3 or through the queue.
+     */
+    public static class UploadedImage {
+        private final String bucket;
+        private final String key;
+
+        public UploadedImage(final String bucket,
+                             final String key) {
+            this.bucket = bucket;
+            this.key = key;
+        }
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * Fails the invocation when images of the event were not indexed, so Lambda retries the event. Images indexed by
+     * the failed attempt are skipped as duplicates by the retry.
+     */
+    public static class IndexFailedException extends RuntimeException {
+        public IndexFailedException(final List<String> failedKeys,
+                                    final int images) {
+            super("Failed indexing " + failedKeys.size() + " of " + images + " images: " + failedKeys);
+        }
+    }
+
+    /**
+     * Outcome of indexing a single record of the event, so one bad image does not fail the others.
+     */
+    public static class IndexRecordResult {
+        private final String bucket;
+        private final String key;
+        private final List<String> faceIds;
+        private final String fullName;
+        private final String error;
+        private final boolean throttled;
+        private final boolean duplicate;
+
+        // Not exposed through a getter so they stay out of the serialized handler output
+        private final List<Map<String, AttributeValue>> faceItems;
+        private final String contentKey;
+
+        private IndexRecordResult(final String bucket,
+                                  final String key,
+                                  final List<String> faceIds,
+                                  final String fullName,
+                                  final String error,
+                                  final boolean throttled,
+                                  final boolean duplicate,
+                                  final List<Map<String, AttributeValue>> faceItems,
+                                  final String contentKey) {
+            this.bucket = bucket;
+            this.key = key;
+            this.faceIds = faceIds;
+            this.fullName = fullName;
+            this.error = error;
+            this.throttled = throttled;
+            this.duplicate = duplicate;
+            this.faceItems = faceItems;
+            this.contentKey = contentKey;
+        }
+
+        public static IndexRecordResult indexed(final String bucket,
+                                                final String key,
+                                                final String fullName,
+                                                final List<Map<String, AttributeValue>> faceItems) {
+            List<String> faceIds = faceItems.stream()
+                    .map(item -> item.get("RekognitionId").s())
+                    .collect(toList());
+
+            return new IndexRecordResult(bucket, key, faceIds, fullName, null, false, false, faceItems, null);
+        }
+
+        public static IndexRecordResult failed(final UploadedImage image,
+                                               final Throwable error) {
+            return new IndexRecordResult(image.getBucket(),
+                    image.getKey(),
+                    Collections.emptyList(),
+                    null,
+                    String.valueOf(error.getMessage()),
+                    RateLimitedRekognition.isThrottled(error),
+                    false,
+                    Collections.emptyList(),
+                    null);
+        }
+
+        /**
+         * The content of the image is indexed already, so it was skipped.
+         */
+        public static IndexRecordResult duplicate(final UploadedImage image) {
+            return new IndexRecordResult(image.getBucket(), image.getKey(), Collections.emptyList(), null, null, false,
+                    true, Collections.emptyList(), null);
+        }
+
+        IndexRecordResult withError(final String error) {
+            return new IndexRecordResult(bucket, key, faceIds, fullName, error, false, false, faceItems, contentKey);
+        }
+
+        IndexRecordResult withContentKey(final String contentKey) {
+            return new IndexRecordResult(bucket, key, faceIds, fullName, error, throttled, duplicate, faceItems, contentKey);
+        }
+
+        /**
+         * Kept out of the serialized handler output, like the face items.
+         *
+         * @return whether indexing failed because a service throttled the call
+         */
+        boolean throttled() {
+            return throttled;
+        }
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public List<String> getFaceIds() {
+            return faceIds;
+        }
+
+        public String getFullName() {
+            return fullName;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isDuplicate() {
+            return duplicate;
+        }
     }
 }
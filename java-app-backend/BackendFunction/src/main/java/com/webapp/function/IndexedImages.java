@@ -0,0 +1,204 @@
+package com.webapp.function;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import static com.webapp.function.Env.intEnv;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Claims image contents before they are indexed, so a redelivered S3 event or the same photo uploaded again is
+ * skipped before calling IndexFaces instead of adding duplicate faces to the collection.
+ * <p>
+ * Contents are keyed on the collection, the ETag and the size of the object. A claim is a conditional PutItem that
+ * only succeeds when the content was never claimed, or when an earlier claim was left indexing for longer than the
+ * claim timeout by an invocation that died. Claims are marked indexed once the faces are persisted, and deleted when
+ * indexing failed so the image can be indexed again. Only indexed content is a duplicate: content still being indexed
+ * elsewhere may yet fail there, so the caller has to try again later rather than drop the image.
+ * <p>
+ * The ETag of an object uploaded in parts is not the MD5 of its content, so the same photo uploaded once in one part
+ * and once in parts is indexed twice.
+ */
+public class IndexedImages {
+    private static final Logger LOG = LogManager.getLogger(IndexedImages.class);
+
+    private static final String INDEXING = "INDEXING";
+    private static final String INDEXED = "INDEXED";
+
+    private final DynamoDbCalls dynamoDbClient;
+    private final String tableName;
+    private final long claimTimeoutMillis;
+    private final BatchItemWriter batchItemWriter;
+
+    public IndexedImages(final DynamoDbCalls dynamoDbClient,
+                         final String tableName,
+                         final long claimTimeoutMillis) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.claimTimeoutMillis = claimTimeoutMillis;
+        this.batchItemWriter = tableName == null ? null : new BatchItemWriter(dynamoDbClient, tableName);
+    }
+
+    /**
+     * Claims contents in the IndexedImageTableName table, or claims every image when it is not set. Claims left
+     * indexing are taken over after IndexClaimTimeoutSeconds.
+     */
+    public static IndexedImages fromEnvironment(final DynamoDbCalls dynamoDbClient) {
+        return new IndexedImages(dynamoDbClient, System.getenv("IndexedImageTableName"),
+                TimeUnit.SECONDS.toMillis(intEnv("IndexClaimTimeoutSeconds", 60)));
+    }
+
+    /**
+     * @return key of the object content within the collection
+     */
+    public static String contentKey(final String collectionId,
+                                    final HeadObjectResponse headObjectResponse) {
+        return collectionId + "#" + headObjectResponse.eTag().replace("\"", "") + "#" + headObjectResponse.contentLength();
+    }
+
+    /**
+     * @return future of the outcome, {@link Claim#CLAIMED} when the content is now claimed by the caller
+     */
+    public CompletableFuture<Claim> claim(final String contentKey,
+                                          final String imageKey) {
+        if (tableName == null) {
+            return CompletableFuture.completedFuture(Claim.CLAIMED);
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("ContentKey", string(contentKey));
+        item.put("State", string(INDEXING));
+        item.put("ImageKey", string(imageKey));
+        item.put("ClaimedAt", number(now));
+
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":indexing", string(INDEXING));
+        values.put(":stale", number(now - claimTimeoutMillis));
+
+        return dynamoDbClient.putItem(builder -> builder.tableName(tableName)
+                        .item(item)
+                        .conditionExpression("attribute_not_exists(ContentKey) OR (#state = :indexing AND ClaimedAt < :stale)")
+                        .expressionAttributeNames(Collections.singletonMap("#state", "State"))
+                        .expressionAttributeValues(values))
+                .handle((response, e) -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+
+                    if (cause == null) {
+                        return CompletableFuture.completedFuture(Claim.CLAIMED);
+                    }
+                    if (cause instanceof ConditionalCheckFailedException) {
+                        return state(contentKey);
+                    }
+                    throw new CompletionException(cause);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    // The SDK in use cannot return the item of a failed condition, so it is read back
+    private CompletableFuture<Claim> state(final String contentKey) {
+        return dynamoDbClient.getItem(builder -> builder.tableName(tableName)
+                        .key(Collections.singletonMap("ContentKey", string(contentKey)))
+                        .consistentRead(true))
+                .thenApply(response -> {
+                    AttributeValue state = response.hasItem() ? response.item().get("State") : null;
+
+                    // A claim released in between is reported as in progress, the image is retried either way
+                    return state != null && INDEXED.equals(state.s()) ? Claim.INDEXED : Claim.INDEXING;
+                });
+    }
+
+    /**
+     * Marks the claims of the indexed images as done, along with the faces found.
+     *
+     * @param faceIdsByContentKey faces indexed, by key of the image content
+     */
+    public void markIndexed(final Map<String, List<String>> faceIdsByContentKey) {
+        if (tableName == null || faceIdsByContentKey.isEmpty()) {
+            return;
+        }
+
+        List<Map<String, AttributeValue>> items = faceIdsByContentKey.entrySet().stream()
+                .map(entry -> {
+                    Map<String, AttributeValue> item = new HashMap<>();
+                    item.put("ContentKey", string(entry.getKey()));
+                    item.put("State", string(INDEXED));
+                    item.put("FaceIds", AttributeValue.builder().ss(entry.getValue()).build());
+                    return item;
+                })
+                .collect(toList());
+
+        // A claim left indexing only delays indexing the same content again until it times out
+        List<Map<String, AttributeValue>> unwritten = batchItemWriter.putAll(items)
+                .exceptionally(e -> {
+                    LOG.warn("Failed marking {} images indexed", items.size(), e);
+                    return items;
+                })
+                .join();
+
+        if (!unwritten.isEmpty()) {
+            LOG.warn("{} of {} images not marked indexed", unwritten.size(), items.size());
+        }
+    }
+
+    /**
+     * Deletes the claim, so a later delivery of the same content indexes it again.
+     */
+    public CompletableFuture<Void> release(final String contentKey) {
+        if (tableName == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return dynamoDbClient.deleteItem(builder -> builder.tableName(tableName)
+                        .key(Collections.singletonMap("ContentKey", string(contentKey))))
+                .handle((response, e) -> {
+                    if (e != null) {
+                        LOG.warn("Failed releasing claim of {}, it is taken over once timed out", contentKey, e);
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Outcome of claiming a content.
+     */
+    public enum Claim {
+        /**
+         * Claimed by the caller, which indexes the image and then marks it indexed or releases it.
+         */
+        CLAIMED,
+        /**
+         * Indexed already, the image is a duplicate.
+         */
+        INDEXED,
+        /**
+         * Claimed by another invocation that is still within the claim timeout. The image has to be tried again later,
+         * as that attempt may fail.
+         */
+        INDEXING
+    }
+
+    private static AttributeValue string(final String value) {
+        return AttributeValue.builder()
+                .s(value)
+                .build();
+    }
+
+    private static AttributeValue number(final long value) {
+        return AttributeValue.builder()
+                .n(Long.toString(value))
+                .build();
+    }
+}
@@ -0,0 +1,149 @@
+package com.webapp.function;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import software.amazon.awssdk.services.rekognition.model.FaceMatch;
+
+/**
+ * Writes the JSON bodies of every handler.
+ * <p>
+ * Bodies are generated with Jackson into a buffer reused per thread, so a response costs the final string and little
+ * else, and values are always escaped. Bodies that never change are serialized once when the class is loaded.
+ */
+public final class JsonResponses {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON_FACTORY = OBJECT_MAPPER.getFactory();
+
+    // Buffers that grew past this are dropped after use instead of being held by the thread
+    private static final int MAX_RETAINED_CHARS = 64 * 1024;
+    private static final ThreadLocal<CharArrayWriter> BUFFER = ThreadLocal.withInitial(() -> new CharArrayWriter(512));
+
+    public static final String NO_IMAGE = message("No image found in body. Pass base 64 encode image in the request body");
+    public static final String NO_MATCH = message("No match found in the record");
+
+    private JsonResponses() {
+    }
+
+    /**
+     * Body generated field by field with the streaming API.
+     */
+    @FunctionalInterface
+    public interface Body {
+        void writeTo(JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * Pre-built writer for a response type, create once per type and keep it in a static field.
+     */
+    public static ObjectWriter writerFor(final Class<?> type) {
+        return OBJECT_MAPPER.writerFor(type);
+    }
+
+    /**
+     * Pre-built writer for a JSON array of the given element type.
+     */
+    public static ObjectWriter listWriterFor(final Class<?> elementType) {
+        return OBJECT_MAPPER.writerFor(OBJECT_MAPPER.getTypeFactory().constructCollectionType(List.class, elementType));
+    }
+
+    public static String message(final String message) {
+        return write(generator -> generator.writeStringField("message", message));
+    }
+
+    /**
+     * Body of a recognition: the name and similarity of the best match, then every match in order.
+     *
+     * @param fullNameOf full name of a face id of the matches
+     */
+    public static String matches(final List<FaceMatch> matches,
+                                 final Function<String, String> fullNameOf) {
+        FaceMatch best = matches.get(0);
+
+        return write(generator -> {
+            generator.writeStringField("person_name", fullNameOf.apply(best.face().faceId()));
+            generator.writeNumberField("similarity", best.similarity());
+            generator.writeArrayFieldStart("matches");
+
+            for (FaceMatch faceMatch : matches) {
+                generator.writeStartObject();
+                generator.writeStringField("person_name", fullNameOf.apply(faceMatch.face().faceId()));
+                generator.writeNumberField("similarity", faceMatch.similarity());
+                generator.writeEndObject();
+            }
+
+            generator.writeEndArray();
+        });
+    }
+
+    /**
+     * @return the fields written by the body wrapped in a JSON object
+     */
+    public static String write(final Body body) {
+        long start = System.nanoTime();
+        CharArrayWriter buffer = buffer();
+
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(buffer)) {
+            generator.writeStartObject();
+            body.writeTo(generator);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return release(buffer, start);
+    }
+
+    public static String write(final ObjectWriter writer,
+                               final Object value) {
+        long start = System.nanoTime();
+        CharArrayWriter buffer = buffer();
+
+        try {
+            writer.writeValue(buffer, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return release(buffer, start);
+    }
+
+    /**
+     * Streams the body as UTF-8 straight to the output, which is closed afterwards.
+     */
+    public static void writeTo(final OutputStream out,
+                               final Body body) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            body.writeTo(generator);
+            generator.writeEndObject();
+        }
+    }
+
+    private static CharArrayWriter buffer() {
+        CharArrayWriter buffer = BUFFER.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    private static String release(final CharArrayWriter buffer,
+                                  final long start) {
+        String json = buffer.toString();
+
+        if (buffer.size() > MAX_RETAINED_CHARS) {
+            BUFFER.remove();
+        }
+
+        StageTimings.record(StageTimings.Stage.SERIALIZATION, start);
+        return json;
+    }
+}
@@ -0,0 +1,62 @@
+package com.webapp.function;
+
+import java.util.List;
+
+import software.amazon.awssdk.services.rekognition.model.FaceMatch;
+import software.amazon.awssdk.services.rekognition.model.FaceRecord;
+import software.amazon.awssdk.services.rekognition.model.IndexFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.SearchFacesByImageResponse;
+import software.amazon.awssdk.services.rekognition.model.UnindexedFace;
+
+/**
+ * Short descriptions of Rekognition responses for debug logs. The toString of the SDK models writes every attribute,
+ * landmarks, pose and quality included, which runs to kilobytes for an IndexFaces response. Callers check
+ * {@code isDebugEnabled()} first, so nothing is built for invocations outside the debug sample.
+ */
+public final class LogSummaries {
+
+    private LogSummaries() {
+    }
+
+    /**
+     * @return face id and similarity of every match, best first
+     */
+    public static String faceMatches(final List<FaceMatch> faceMatches) {
+        StringBuilder summary = new StringBuilder().append('[');
+
+        for (FaceMatch faceMatch : faceMatches) {
+            if (summary.length() > 1) {
+                summary.append(", ");
+            }
+            summary.append(faceMatch.face().faceId()).append(' ').append(faceMatch.similarity());
+        }
+
+        return summary.append(']').toString();
+    }
+
+    public static String searchFacesByImage(final SearchFacesByImageResponse response) {
+        return "searched face confidence " + response.searchedFaceConfidence() + ", matches "
+                + faceMatches(response.faceMatches());
+    }
+
+    public static String indexFaces(final IndexFacesResponse response) {
+        StringBuilder summary = new StringBuilder("indexed [");
+
+        for (FaceRecord faceRecord : response.faceRecords()) {
+            if (summary.charAt(summary.length() - 1) != '[') {
+                summary.append(", ");
+            }
+            summary.append(faceRecord.face().faceId());
+        }
+
+        summary.append("], unindexed [");
+        for (UnindexedFace unindexedFace : response.unindexedFaces()) {
+            if (summary.charAt(summary.length() - 1) != '[') {
+                summary.append(", ");
+            }
+            summary.append(unindexedFace.reasonsAsStrings());
+        }
+
+        return summary.append(']').toString();
+    }
+}
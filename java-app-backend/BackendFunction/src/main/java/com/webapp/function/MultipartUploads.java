@@ -0,0 +1,265 @@
+package com.webapp.function;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.model.Part;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Multipart upload of enrollment images: the client uploads the parts in parallel to presigned URLs and can resume an
+ * interrupted upload by asking again for the parts S3 does not have yet. The object only exists once the upload is
+ * completed, so IndexImageHandler is triggered once for it and never sees a partial image.
+ */
+public class MultipartUploads {
+    private static final Logger LOG = LogManager.getLogger(MultipartUploads.class);
+
+    // Smallest part S3 accepts, except for the last one
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+    private final S3Calls s3Client;
+    private final S3Presigner presigner;
+    private final String bucket;
+    private final long partSize;
+    private final long maxBytes;
+    private final Duration signatureDuration;
+
+    public MultipartUploads(final S3Calls s3Client,
+                            final S3Presigner presigner,
+                            final String bucket,
+                            final long partSize,
+                            final long maxBytes,
+                            final Duration signatureDuration) {
+        this.s3Client = s3Client;
+        this.presigner = presigner;
+        this.bucket = bucket;
+        this.partSize = Math.max(MIN_PART_SIZE, partSize);
+        this.maxBytes = maxBytes;
+        this.signatureDuration = signatureDuration;
+    }
+
+    /**
+     * @throws InvalidUploadException if the size is not positive or above the maximum, or the extension is not made of
+     * letters and digits
+     */
+    public CompletableFuture<Upload> start(final String contentType,
+                                           final String fileExtension,
+                                           final String personName,
+                                           final long size) {
+        int partCount = partCount(size);
+        String fileName = UUID.randomUUID() + fileExtension;
+        String key = key(fileName);
+
+        return s3Client.createMultipartUpload(builder -> builder.bucket(bucket)
+                        .key(key)
+                        .contentType(contentType)
+                        .metadata(Collections.singletonMap("fullname", personName)))
+                .thenApply(response -> {
+                    LOG.debug("Started multipart upload {} of {} parts for {}", response.uploadId(), partCount, key);
+                    return new Upload(fileName, response.uploadId(), partSize, Collections.emptySortedMap(),
+                            partUrls(key, response.uploadId(), partCount, Collections.emptySortedMap()));
+                });
+    }
+
+    /**
+     * Fresh URLs for every part S3 does not have yet, along with the parts already uploaded.
+     */
+    public CompletableFuture<Upload> resume(final String fileName,
+                                            final String uploadId,
+                                            final long size) {
+        int partCount = partCount(size);
+        String key = key(fileName);
+
+        return uploadedParts(key, uploadId)
+                .thenApply(uploaded -> new Upload(fileName, uploadId, partSize, uploaded,
+                        partUrls(key, uploadId, partCount, uploaded)));
+    }
+
+    /**
+     * Completes the upload with the parts S3 has, so clients do not have to collect the ETags themselves. The size
+     * announced when starting is not binding on the parts, so an upload whose parts add up to more than the maximum is
+     * aborted instead.
+     *
+     * @return the key of the uploaded object
+     */
+    public CompletableFuture<String> complete(final String fileName,
+                                              final String uploadId) {
+        String key = key(fileName);
+
+        return listParts(key, uploadId)
+                .thenCompose(parts -> {
+                    if (parts.isEmpty()) {
+                        throw new InvalidUploadException("No parts uploaded yet");
+                    }
+
+                    long size = parts.stream()
+                            .mapToLong(Part::size)
+                            .sum();
+                    if (size > maxBytes) {
+                        return abort(key, uploadId, size);
+                    }
+
+                    List<CompletedPart> completedParts = parts.stream()
+                            .map(part -> CompletedPart.builder()
+                                    .partNumber(part.partNumber())
+                                    .eTag(part.eTag())
+                                    .build())
+                            .collect(toList());
+
+                    return s3Client.completeMultipartUpload(builder -> builder.bucket(bucket)
+                            .key(key)
+                            .uploadId(uploadId)
+                            .multipartUpload(upload -> upload.parts(completedParts)));
+                })
+                .thenApply(response -> {
+                    LOG.debug("Completed multipart upload {} of {}", uploadId, key);
+                    return key;
+                });
+    }
+
+    private int partCount(final long size) {
+        if (size <= 0 || size > maxBytes) {
+            throw new InvalidUploadException("size must be between 1 and " + maxBytes + " bytes");
+        }
+
+        return (int) ((size + partSize - 1) / partSize);
+    }
+
+    private static String key(final String fileName) {
+        if (fileName == null || !UploadUrlSigner.FILE_NAME.matcher(fileName).matches()) {
+            throw new InvalidUploadException("Invalid fileName");
+        }
+
+        return UploadUrlSigner.KEY_PREFIX + fileName;
+    }
+
+    private CompletableFuture<CompleteMultipartUploadResponse> abort(final String key,
+                                                                     final String uploadId,
+                                                                     final long size) {
+        LOG.warn("Aborting multipart upload {} of {}, its parts add up to {} bytes", uploadId, key, size);
+
+        return s3Client.abortMultipartUpload(builder -> builder.bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId))
+                .handle((response, error) -> {
+                    if (error != null) {
+                        LOG.error("Failed aborting multipart upload {} of {}", uploadId, key, error);
+                    }
+                    throw new InvalidUploadException("Uploaded " + size + " bytes, above the maximum of " + maxBytes);
+                });
+    }
+
+    private CompletableFuture<SortedMap<Integer, String>> uploadedParts(final String key,
+                                                                        final String uploadId) {
+        return listParts(key, uploadId)
+                .thenApply(parts -> {
+                    SortedMap<Integer, String> uploaded = new TreeMap<>();
+                    for (Part part : parts) {
+                        uploaded.put(part.partNumber(), part.eTag());
+                    }
+                    return uploaded;
+                });
+    }
+
+    // Uploads are capped well below the 1000 parts a single ListParts page returns
+    private CompletableFuture<List<Part>> listParts(final String key,
+                                                    final String uploadId) {
+        return s3Client.listParts(builder -> builder.bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId))
+                .thenApply(ListPartsResponse::parts);
+    }
+
+    private SortedMap<Integer, String> partUrls(final String key,
+                                                final String uploadId,
+                                                final int partCount,
+                                                final Map<Integer, String> uploaded) {
+        SortedMap<Integer, String> partUrls = new TreeMap<>();
+
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            if (uploaded.containsKey(partNumber)) {
+                continue;
+            }
+
+            int part = partNumber;
+            partUrls.put(part, presigner.presignUploadPart(request -> request
+                            .signatureDuration(signatureDuration)
+                            .uploadPartRequest(upload -> upload.bucket(bucket)
+                                    .key(key)
+                                    .uploadId(uploadId)
+                                    .partNumber(part)))
+                    .url()
+                    .toString());
+        }
+
+        return partUrls;
+    }
+
+    /**
+     * State of a multipart upload handed back to the client.
+     */
+    public static final class Upload {
+        private final String fileName;
+        private final String uploadId;
+        private final long partSize;
+        private final SortedMap<Integer, String> uploadedParts;
+        private final SortedMap<Integer, String> partUrls;
+
+        private Upload(final String fileName,
+                       final String uploadId,
+                       final long partSize,
+                       final SortedMap<Integer, String> uploadedParts,
+                       final SortedMap<Integer, String> partUrls) {
+            this.fileName = fileName;
+            this.uploadId = uploadId;
+            this.partSize = partSize;
+            this.uploadedParts = uploadedParts;
+            this.partUrls = partUrls;
+        }
+
+        public String fileName() {
+            return fileName;
+        }
+
+        public String uploadId() {
+            return uploadId;
+        }
+
+        public long partSize() {
+            return partSize;
+        }
+
+        /**
+         * @return ETag of every uploaded part by part number
+         */
+        public SortedMap<Integer, String> uploadedParts() {
+            return uploadedParts;
+        }
+
+        /**
+         * @return presigned PUT URL of every part still to upload by part number
+         */
+        public SortedMap<Integer, String> partUrls() {
+            return partUrls;
+        }
+    }
+
+    public static class InvalidUploadException extends RuntimeException {
+        public InvalidUploadException(final String message) {
+            super(message);
+        }
+    }
+}
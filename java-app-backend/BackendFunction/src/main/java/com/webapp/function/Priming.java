@@ -0,0 +1,116 @@
+package com.webapp.function;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.imageio.ImageIO;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+
+/**
+ * Checkpoint and restore hooks for SnapStart or any other CRaC capable runtime.
+ * <p>
+ * Before the snapshot a handler exercises its hot paths so classes are loaded, the JIT has seen them and Jackson and
+ * SDK marshallers are initialised. After restore it drops state that does not survive a snapshot, such as clock based
+ * cache entries, and opens fresh connections and credentials with a cheap call.
+ * <p>
+ * Failures in a hook are logged and swallowed, a failed priming must never prevent the snapshot or the restore.
+ */
+public final class Priming implements Resource {
+    private static final Logger LOG = LogManager.getLogger(Priming.class);
+
+    // org.crac contexts may only hold registered resources weakly
+    private static final List<Priming> REGISTERED = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final Runnable beforeCheckpoint;
+    private final Runnable afterRestore;
+
+    private Priming(final String name,
+                    final Runnable beforeCheckpoint,
+                    final Runnable afterRestore) {
+        this.name = name;
+        this.beforeCheckpoint = beforeCheckpoint;
+        this.afterRestore = afterRestore;
+    }
+
+    public static Priming register(final Class<?> handler,
+                                   final Runnable beforeCheckpoint,
+                                   final Runnable afterRestore) {
+        Priming priming = new Priming(handler.getSimpleName(), beforeCheckpoint, afterRestore);
+        REGISTERED.add(priming);
+        Core.getGlobalContext().register(priming);
+        return priming;
+    }
+
+    /**
+     * Runs the hooks of every registered handler in the same order a checkpoint followed by a restore would, for JVMs
+     * that cannot checkpoint.
+     */
+    public static void simulateCheckpointRestore() {
+        for (Priming priming : REGISTERED) {
+            priming.beforeCheckpoint(null);
+        }
+        for (Priming priming : REGISTERED) {
+            priming.afterRestore(null);
+        }
+    }
+
+    /**
+     * Runs the call and ignores any failure. Priming calls use dummy keys, so service errors are expected.
+     */
+    public static void quietly(final Runnable call) {
+        try {
+            call.run();
+        } catch (Exception e) {
+            LOG.debug("Ignoring priming failure: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Small JPEG generated in memory, large enough to pass the preprocessing size checks.
+     */
+    public static byte[] sampleJpeg(final int width,
+                                    final int height) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpeg", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void beforeCheckpoint(final Context<? extends Resource> context) {
+        long start = System.nanoTime();
+        run(beforeCheckpoint);
+        LOG.info("Primed {} before checkpoint in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+
+        // Queued events would be written after every restore of the snapshot
+        AsyncLogging.flush();
+    }
+
+    @Override
+    public void afterRestore(final Context<? extends Resource> context) {
+        long start = System.nanoTime();
+        run(afterRestore);
+        LOG.info("Restored {} in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void run(final Runnable hook) {
+        try {
+            hook.run();
+        } catch (Exception e) {
+            LOG.error("Priming hook of {} failed", name, e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.webapp.function;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.cloudwatchlogs.emf.model.Unit;
+import software.amazon.lambda.powertools.logging.Logging;
+import software.amazon.lambda.powertools.metrics.Metrics;
+import software.amazon.lambda.powertools.tracing.Tracing;
+
+import static software.amazon.lambda.powertools.metrics.MetricsUtils.metricsLogger;
+
+/**
+ * Indexes uploaded images from S3 event notifications buffered in an SQS queue.
+ * <p>
+ * The event source mapping hands over batches collected during the batching window, and its maximum concurrency bounds
+ * the calls in flight to Rekognition, so a bulk enrollment is drained at a steady rate instead of throttling. Only the
+ * messages with a failed image are reported back, which leaves them on the queue for another attempt.
+ */
+public class QueuedIndexImageHandler implements RequestHandler<SQSEvent, SQSBatchResponse> {
+    private static final Logger LOG = LogManager.getLogger(QueuedIndexImageHandler.class);
+
+    // Remote calls are warmed by the priming hooks of IndexImageHandler, registered when it is initialised here
+    private static final SqsBatchIndexer sqsBatchIndexer = new SqsBatchIndexer(IndexImageHandler.indexer());
+    private static final EventLogger eventLogger = EventLogger.fromEnvironment();
+
+    private static final String SAMPLE_NOTIFICATION = "{\"Records\":[{\"s3\":{\"bucket\":{\"name\":\"priming\"},"
+            + "\"object\":{\"key\":\"index/priming%2Bimage.jpg\"}}}]}";
+    private static final Priming priming = Priming.register(QueuedIndexImageHandler.class,
+            QueuedIndexImageHandler::prime,
+            QueuedIndexImageHandler::prime);
+
+    private static void prime() {
+        Priming.quietly(() -> {
+            try {
+                SqsBatchIndexer.uploadedImages(SAMPLE_NOTIFICATION);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    @Logging(samplingRate = 0.5)
+    @Tracing(namespace = "ImageIndexer")
+    @Metrics(captureColdStart = true)
+    public SQSBatchResponse handleRequest(SQSEvent input, Context context) {
+        try {
+            StageTimings.reset();
+            eventLogger.log(input);
+            long start = System.nanoTime();
+            RateLimitedRekognition.startInvocation(context);
+
+            SqsBatchIndexer.Batch batch = sqsBatchIndexer.index(input.getRecords());
+            int failedMessages = batch.response().getBatchItemFailures().size();
+
+            metricsLogger().putProperty("ClientMode", AwsClients.MODE);
+            metricsLogger().putMetric("QueueBatchSize", input.getRecords().size(), Unit.COUNT);
+            metricsLogger().putMetric("QueueFailedMessageCount", failedMessages, Unit.COUNT);
+            metricsLogger().putMetric("IndexLatency", (System.nanoTime() - start) / 1_000_000d, Unit.MILLISECONDS);
+
+            LOG.info("Processed {} messages, {} left on the queue for retry", input.getRecords().size(), failedMessages);
+            return batch.response();
+        } finally {
+            StageTimings.publishMetrics(metricsLogger());
+            AsyncLogging.flush();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.webapp.function;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.retry.RetryUtils;
+import software.amazon.awssdk.services.rekognition.model.CreateCollectionRequest;
+import software.amazon.awssdk.services.rekognition.model.CreateCollectionResponse;
+import software.amazon.awssdk.services.rekognition.model.DeleteCollectionRequest;
+import software.amazon.awssdk.services.rekognition.model.DeleteCollectionResponse;
+import software.amazon.awssdk.services.rekognition.model.DeleteFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.DeleteFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.IndexFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.IndexFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.ListFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.ListFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.SearchFacesByImageRequest;
+import software.amazon.awssdk.services.rekognition.model.SearchFacesByImageResponse;
+import software.amazon.cloudwatchlogs.emf.logger.MetricsLogger;
+import software.amazon.cloudwatchlogs.emf.model.Unit;
+
+import static com.webapp.function.Env.intEnv;
+
+/**
+ * Rekognition client that paces the calls of the image and face APIs with an {@link AdaptiveRateLimiter} per API, as
+ * each has its own quota, and retries throttled calls with exponential backoff and full jitter.
+ * <p>
+ * Waits and retries stay within the time left to the current invocation, minus a margin to respond. A call still
+ * throttled then fails with {@link ThrottledException}, so callers can tell throttling apart from an empty result.
+ * The SDK client must not retry throttled calls itself, or the limiter would never see them.
+ */
+public class RateLimitedRekognition implements RekognitionCalls {
+    private static final Logger LOG = LogManager.getLogger(RateLimitedRekognition.class);
+
+    private static final int MAX_ATTEMPTS = 8;
+    private static final Backoff BACKOFF = new Backoff(100, 2_000);
+    private static final long NO_DEADLINE_NANOS = TimeUnit.DAYS.toNanos(1);
+    private static final long RESPONSE_MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(intEnv("RekognitionResponseMarginMillis", 500));
+
+    private static final ScheduledExecutorService DELAY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rekognition-delay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Delayed calls are sent from here, so a blocking client never holds up the scheduler
+    private static final ExecutorService DISPATCHER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "rekognition-dispatch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // One invocation at a time per execution environment, so the budget is set by the handler for all its calls
+    private static volatile long deadline = System.nanoTime() + NO_DEADLINE_NANOS;
+
+    private final RekognitionCalls client;
+    private final Api searchFacesByImage;
+    private final Api indexFaces;
+    private final Api detectFaces;
+    private final Api listFaces;
+    private final Api deleteFaces;
+
+    public RateLimitedRekognition(final RekognitionCalls client,
+                                  final double minRate,
+                                  final double maxRate) {
+        this.client = client;
+        this.searchFacesByImage = new Api("SearchFacesByImage", minRate, maxRate);
+        this.indexFaces = new Api("IndexFaces", minRate, maxRate);
+        this.detectFaces = new Api("DetectFaces", minRate, maxRate);
+        this.listFaces = new Api("ListFaces", minRate, maxRate);
+        this.deleteFaces = new Api("DeleteFaces", minRate, maxRate);
+    }
+
+    /**
+     * Limits every API to RekognitionMaxTps calls per second, the default quota, and lets throttling bring it down to
+     * RekognitionMinTps.
+     */
+    public static RateLimitedRekognition fromEnvironment(final RekognitionCalls client) {
+        return new RateLimitedRekognition(client, intEnv("RekognitionMinTps", 1), intEnv("RekognitionMaxTps", 50));
+    }
+
+    /**
+     * Bounds the waits and retries of the calls made until the next invocation starts.
+     */
+    public static void startInvocation(final Context context) {
+        startInvocation(context.getRemainingTimeInMillis());
+    }
+
+    /**
+     * Same as {@link #startInvocation(Context)}, for callers running outside Lambda with their own time budget.
+     */
+    public static void startInvocation(final long remainingMillis) {
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remainingMillis) - RESPONSE_MARGIN_NANOS;
+    }
+
+    /**
+     * Times the limiters and the budget from the current clock again. Call from the restore hooks, System.nanoTime() is
+     * not continuous across a restore.
+     */
+    public void restore() {
+        deadline = System.nanoTime() + NO_DEADLINE_NANOS;
+        searchFacesByImage.limiter.restartClock();
+        indexFaces.limiter.restartClock();
+        detectFaces.limiter.restartClock();
+        listFaces.limiter.restartClock();
+        deleteFaces.limiter.restartClock();
+    }
+
+    /**
+     * @return whether the failure, possibly wrapped, is Rekognition or the limiter throttling a call
+     */
+    public static boolean isThrottled(final Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof ThrottledException
+                || cause instanceof SdkException && RetryUtils.isThrottlingException((SdkException) cause);
+    }
+
+    @Override
+    public CompletableFuture<SearchFacesByImageResponse> searchFacesByImage(SearchFacesByImageRequest request) {
+        return searchFacesByImage.call(() -> client.searchFacesByImage(request), 1);
+    }
+
+    @Override
+    public CompletableFuture<IndexFacesResponse> indexFaces(IndexFacesRequest request) {
+        return indexFaces.call(() -> client.indexFaces(request), 1);
+    }
+
+    @Override
+    public CompletableFuture<DetectFacesResponse> detectFaces(DetectFacesRequest request) {
+        return detectFaces.call(() -> client.detectFaces(request), 1);
+    }
+
+    @Override
+    public CompletableFuture<ListFacesResponse> listFaces(ListFacesRequest request) {
+        return listFaces.call(() -> client.listFaces(request), 1);
+    }
+
+    @Override
+    public CompletableFuture<DeleteFacesResponse> deleteFaces(DeleteFacesRequest request) {
+        return deleteFaces.call(() -> client.deleteFaces(request), 1);
+    }
+
+    @Override
+    public CompletableFuture<CreateCollectionResponse> createCollection(CreateCollectionRequest request) {
+        return client.createCollection(request);
+    }
+
+    @Override
+    public CompletableFuture<DeleteCollectionResponse> deleteCollection(DeleteCollectionRequest request) {
+        return client.deleteCollection(request);
+    }
+
+    /**
+     * Puts the allowed rate and the throttling counts of every API called since the previous publish. Call from the
+     * handler thread, the metrics logger is not thread safe.
+     */
+    public void publishMetrics(final MetricsLogger metricsLogger) {
+        searchFacesByImage.publishMetrics(metricsLogger);
+        indexFaces.publishMetrics(metricsLogger);
+        detectFaces.publishMetrics(metricsLogger);
+        listFaces.publishMetrics(metricsLogger);
+        deleteFaces.publishMetrics(metricsLogger);
+    }
+
+    private static <T> CompletableFuture<T> failed(final Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    private static CompletableFuture<Void> after(final long delayNanos) {
+        CompletableFuture<Void> delay = new CompletableFuture<>();
+        DELAY_SCHEDULER.schedule(() -> delay.complete(null), delayNanos, TimeUnit.NANOSECONDS);
+        return delay;
+    }
+
+    /**
+     * Limiter and counters of one API.
+     */
+    private static final class Api {
+        private final String name;
+        private final AdaptiveRateLimiter limiter;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong throttled = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        private Api(final String name,
+                    final double minRate,
+                    final double maxRate) {
+            this.name = name;
+            this.limiter = new AdaptiveRateLimiter(minRate, maxRate);
+        }
+
+        private <T> CompletableFuture<T> call(final Supplier<CompletableFuture<T>> request,
+                                              final int attempt) {
+            long waitNanos = limiter.reserve(deadline - System.nanoTime());
+
+            if (waitNanos < 0) {
+                rejected.incrementAndGet();
+                return failed(new ThrottledException(name + " rate limited to " + Math.round(limiter.rate())
+                        + " calls per second, no capacity left in the time budget", null));
+            }
+
+            CompletableFuture<T> sent = waitNanos == 0
+                    ? send(request)
+                    : after(waitNanos).thenComposeAsync(ignored -> send(request), DISPATCHER);
+
+            return sent.handle((response, error) -> {
+                        if (error == null) {
+                            limiter.onSuccess();
+                            return CompletableFuture.completedFuture(response);
+                        }
+
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        if (!isThrottled(cause)) {
+                            return RateLimitedRekognition.<T>failed(cause);
+                        }
+
+                        throttled.incrementAndGet();
+                        limiter.onThrottle();
+                        return retry(request, attempt, cause);
+                    })
+                    .thenCompose(result -> result);
+        }
+
+        private <T> CompletableFuture<T> retry(final Supplier<CompletableFuture<T>> request,
+                                               final int attempt,
+                                               final Throwable cause) {
+            long backoffNanos = TimeUnit.MILLISECONDS.toNanos(BACKOFF.delayMillis(attempt));
+
+            if (attempt >= MAX_ATTEMPTS || System.nanoTime() + backoffNanos >= deadline) {
+                LOG.warn("{} still throttled after {} attempts", name, attempt);
+                return failed(new ThrottledException(name + " throttled after " + attempt + " attempts", cause));
+            }
+
+            retries.incrementAndGet();
+            return after(backoffNanos).thenComposeAsync(ignored -> call(request, attempt + 1), DISPATCHER);
+        }
+
+        private <T> CompletableFuture<T> send(final Supplier<CompletableFuture<T>> request) {
+            calls.incrementAndGet();
+
+            try {
+                return request.get();
+            } catch (RuntimeException e) {
+                return failed(e);
+            }
+        }
+
+        private void publishMetrics(final MetricsLogger metricsLogger) {
+            long sent = calls.getAndSet(0);
+            long rejections = rejected.getAndSet(0);
+
+            if (sent == 0 && rejections == 0) {
+                return;
+            }
+
+            metricsLogger.putMetric(name + "AllowedRate", limiter.rate(), Unit.COUNT_SECOND);
+            metricsLogger.putMetric(name + "Calls", sent, Unit.COUNT);
+            metricsLogger.putMetric(name + "Throttled", throttled.getAndSet(0), Unit.COUNT);
+            metricsLogger.putMetric(name + "Retries", retries.getAndSet(0), Unit.COUNT);
+            metricsLogger.putMetric(name + "RateLimited", rejections, Unit.COUNT);
+        }
+    }
+
+    /**
+     * The call was throttled by Rekognition until the time budget or attempts ran out, or the limiter had no capacity
+     * left in the budget.
+     */
+    public static class ThrottledException extends RuntimeException {
+        public ThrottledException(final String message,
+                                  final Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
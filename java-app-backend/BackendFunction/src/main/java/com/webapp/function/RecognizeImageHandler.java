@@ -1,31 +1,47 @@
 package com.webapp.function;
 
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import software.amazon.awssdk.core.SdkBytes;
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
-import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.rekognition.model.BoundingBox;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.FaceDetail;
 import software.amazon.awssdk.services.rekognition.model.FaceMatch;
 import software.amazon.awssdk.services.rekognition.model.Image;
-import software.amazon.awssdk.services.rekognition.model.SearchFacesByImageResponse;
 import software.amazon.cloudwatchlogs.emf.model.Unit;
 import software.amazon.lambda.powertools.logging.Logging;
 import software.amazon.lambda.powertools.metrics.Metrics;
 import software.amazon.lambda.powertools.tracing.Tracing;
 
+import static com.webapp.function.Env.intEnv;
 import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static software.amazon.lambda.powertools.metrics.MetricsUtils.metricsLogger;
 import static software.amazon.lambda.powertools.tracing.CaptureMode.ERROR;
 import static software.amazon.lambda.powertools.tracing.TracingUtils.putAnnotation;
@@ -37,103 +53,678 @@ public class RecognizeImageHandler implements RequestHandler<APIGatewayProxyRequ
     private static final String COLLECTION_ID = System.getenv("CollectionName");
     private static final String TABLE_NAME = System.getenv("TableName");
 
-    private static final RekognitionClient rekognitionClient = RekognitionClient.create();
-    private static final DynamoDbClient dynamoDbClient = DynamoDbClient.create();
+    private static final RateLimitedRekognition rekognitionClient = AwsClients.rekognition();
+    private static final DynamoDbCalls dynamoDbClient = AwsClients.dynamoDb();
+    private static final FaceNameCache faceNameCache = FaceNameCache.fromEnvironment();
+    private static final SearchResultCache searchResultCache = SearchResultCache.fromEnvironment();
+    private static final ImagePreprocessor imagePreprocessor = ImagePreprocessor.fromEnvironment();
+    private static final FaceDirectory faceDirectory = FaceDirectory.fromEnvironment(dynamoDbClient, TABLE_NAME);
+    private static final BatchItemReader batchItemReader = new BatchItemReader(dynamoDbClient, TABLE_NAME, "RekognitionId");
+    private static final EventLogger eventLogger = EventLogger.fromEnvironment();
+    private static final TracedExecutor recognitionExecutor = TracedExecutor.fixed("recognition-worker", intEnv("RecognitionConcurrency", 4));
+
+    private static final String BATCH_RESOURCE = "/recognise/batch";
+    private static final int BATCH_MAX_IMAGES = intEnv("RecognitionBatchMaxImages", 10);
+    private static final ObjectReader BATCH_REQUEST_READER = new ObjectMapper().readerFor(BatchRequest.class);
+    private static final String INVALID_BATCH = JsonResponses.message("Pass a JSON object with an images array of 1 to "
+            + BATCH_MAX_IMAGES + " base 64 encoded images in the request body");
+    private static final String NO_MATCH_MESSAGE = "No match found in the record";
+    private static final String THROTTLED_MESSAGE = "Too many recognition requests, retry shortly";
+    private static final String THROTTLED = JsonResponses.message(THROTTLED_MESSAGE);
+    private static final int MULTI_FACE_MAX_FACES = intEnv("MultiFaceMaxFaces", 10);
+    private static final int MAX_FACES_LIMIT = intEnv("SearchMaxFacesLimit", 10);
+    private static final float DEFAULT_THRESHOLD = intEnv("SearchFaceMatchThreshold", 90);
+
+    private static final String SINGLE_MODE = "single";
+    private static final String BATCH_MODE = "batch";
+    private static final String MULTI_FACE_MODE = "multi-face";
+
+    private static final Priming priming = Priming.register(RecognizeImageHandler.class,
+            RecognizeImageHandler::prime,
+            RecognizeImageHandler::restore);
 
     @Override
-    @Logging(logEvent = true, samplingRate = 0.5)
+    @Logging(samplingRate = 0.5)
     @Tracing(namespace = "Recognition", captureMode = ERROR)
     @Metrics(namespace = "Recognition", service = "FindImage", captureColdStart = true, raiseOnEmptyMetrics = true)
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
-        String image = input.getBody();
+        try {
+            StageTimings.reset();
+            eventLogger.log(input);
+            long start = System.nanoTime();
+            RateLimitedRekognition.startInvocation(context);
+            String image = input.getBody();
+            metricsLogger().putProperty("ClientMode", AwsClients.MODE);
+
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Access-Control-Allow-Origin", "*");
+            headers.put("Access-Control-Allow-Methods", "POST,GET");
+            headers.put("Access-Control-Expose-Headers", "X-Search-Cache");
+            APIGatewayProxyResponseEvent apiGatewayProxyResponseEvent = new APIGatewayProxyResponseEvent()
+                    .withHeaders(headers);
+
+            String mode = recognitionMode(input);
+            APIGatewayProxyResponseEvent response;
 
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Access-Control-Allow-Origin", "*");
-        headers.put("Access-Control-Allow-Methods", "POST,GET");
-        APIGatewayProxyResponseEvent apiGatewayProxyResponseEvent = new APIGatewayProxyResponseEvent()
-                .withHeaders(headers);
+            try {
+                if (BATCH_MODE.equals(mode)) {
+                    response = recogniseBatch(image, apiGatewayProxyResponseEvent);
+                } else if (MULTI_FACE_MODE.equals(mode)) {
+                    response = recogniseAllFaces(image, apiGatewayProxyResponseEvent);
+                } else {
+                    response = recognise(image, input.getQueryStringParameters(), headers, apiGatewayProxyResponseEvent);
+                }
+            } catch (CompletionException e) {
+                if (!RateLimitedRekognition.isThrottled(e)) {
+                    throw e;
+                }
 
+                LOG.warn("Recognition throttled. Reason: {}", e.getCause().getMessage());
+                headers.put("Retry-After", "1");
+                metricsLogger().putMetric("ThrottledResponseCount", 1, Unit.COUNT);
+                response = apiGatewayProxyResponseEvent
+                        .withStatusCode(429)
+                        .withBody(THROTTLED);
+            }
+
+            rekognitionClient.publishMetrics(metricsLogger());
+            metricsLogger().putProperty("RecognitionMode", mode);
+            metricsLogger().putMetric("RecognitionLatency", (System.nanoTime() - start) / 1_000_000d, Unit.MILLISECONDS);
+            return response;
+        } finally {
+            StageTimings.publishMetrics(metricsLogger());
+            AsyncLogging.flush();
+        }
+    }
+
+    private static String recognitionMode(final APIGatewayProxyRequestEvent input) {
+        if (BATCH_RESOURCE.equals(input.getResource())) {
+            return BATCH_MODE;
+        }
+
+        Map<String, String> queryStringParameters = input.getQueryStringParameters();
+
+        if (queryStringParameters != null && "all".equals(queryStringParameters.get("faces"))) {
+            return MULTI_FACE_MODE;
+        }
+
+        return SINGLE_MODE;
+    }
+
+    private APIGatewayProxyResponseEvent recognise(final String image,
+                                                   final Map<String, String> queryStringParameters,
+                                                   final Map<String, String> headers,
+                                                   final APIGatewayProxyResponseEvent apiGatewayProxyResponseEvent) {
         if (image == null || image.isEmpty()) {
             LOG.debug("No Image found in payload");
             return apiGatewayProxyResponseEvent
                     .withStatusCode(400)
-                    .withBody("{\n" +
-                            "  \"message\": \"No image found in body. Pass base 64 encode image in the request body\"\n" +
-                            "}");
+                    .withBody(JsonResponses.NO_IMAGE);
         }
 
+        SearchOptions searchOptions;
+        ImageSearch search;
+        try {
+            searchOptions = SearchOptions.from(queryStringParameters);
+            search = searchImage(image, searchOptions);
+        } catch (SearchOptions.InvalidSearchOptionsException | ImagePreprocessor.InvalidImageException
+                 | IllegalArgumentException e) {
+            LOG.debug("Rejected image before search. Reason: {}", e.getMessage());
+            return apiGatewayProxyResponseEvent
+                    .withStatusCode(400)
+                    .withBody(JsonResponses.message(e.getMessage()));
+        }
 
-        byte[] decodedImage = Base64.getDecoder().decode(image);
+        headers.put("X-Search-Cache", search.preparedImage == null ? "Hit" : "Miss");
+        putPreprocessMetrics(search);
 
-        List<FaceMatch> faceMatches = faceSearch(decodedImage);
+        List<FaceMatch> faceMatches = search.faceMatches;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Details of matched faces: {}", LogSummaries.faceMatches(faceMatches));
+        }
 
-        if (faceMatches.size() > 0) {
-            FaceMatch faceMatch = faceMatches.get(0);
+        Map<String, Optional<String>> fullNames = resolveFullNames(faceMatches.stream()
+                .map(faceMatch -> faceMatch.face().faceId())
+                .collect(toList()))
+                .join();
 
-            LOG.debug("Details of matched face: {}", faceMatch);
+        if (!faceMatches.isEmpty()) {
+            faceNameCache.publishMetrics(metricsLogger());
+        }
+
+        List<FaceMatch> named = faceMatches.stream()
+                .filter(faceMatch -> fullNames.get(faceMatch.face().faceId()).isPresent())
+                .collect(toList());
+
+        if (named.isEmpty()) {
+            metricsLogger().putMetric("FaceSearchCount", 0, Unit.COUNT);
+            return apiGatewayProxyResponseEvent
+                    .withStatusCode(200)
+                    .withBody(JsonResponses.NO_MATCH);
+        }
 
-            Map<String, AttributeValue> keyMap = new HashMap<>();
+        FaceMatch best = named.get(0);
+        String bestName = fullNames.get(best.face().faceId()).get();
 
-            keyMap.put("RekognitionId", AttributeValue.builder()
-                    .s(faceMatch.face().faceId())
-                    .build());
+        putAnnotation("FullName", bestName);
+        putMetadata("Confidence", best.face().confidence());
 
-            GetItemResponse faceDetails = query(keyMap);
+        metricsLogger().putMetric("FaceSearchCount", 1, Unit.COUNT);
+        metricsLogger().putMetric("CandidateCount", named.size(), Unit.COUNT);
 
-            if (faceDetails.hasItem()) {
-                String fullName = faceDetails.item().get("FullName").s();
+        return apiGatewayProxyResponseEvent
+                .withStatusCode(200)
+                .withBody(JsonResponses.matches(named, faceId -> fullNames.get(faceId).get()));
+    }
+
+    /**
+     * A single face id keeps going through GetItem so the default search costs no more than it used to, candidates of
+     * a top K search are resolved with one BatchGetItem.
+     */
+    private CompletableFuture<Map<String, Optional<String>>> resolveFullNames(final List<String> faceIds) {
+        if (faceIds.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.<String, Optional<String>>emptyMap());
+        }
 
-                putAnnotation("FullName", fullName);
-                putMetadata("Confidence", faceMatch.face().confidence());
+        if (faceIds.size() == 1) {
+            String faceId = faceIds.get(0);
+            return faceNameCache.get(faceId, this::fullName)
+                    .thenApply(fullName -> Collections.singletonMap(faceId, fullName));
+        }
 
-                metricsLogger().putMetric("FaceSearchCount", 1, Unit.COUNT);
+        return faceNameCache.getAll(faceIds, this::fullNames);
+    }
 
-                return apiGatewayProxyResponseEvent
-                        .withStatusCode(200)
-                        .withBody("{\n" +
-                                "  \"person_name\": \"" + fullName + "\"\n" +
-                                "}");
+    /**
+     * Names everyone in a group shot. searchFacesByImage only searches the largest face, so all faces are detected
+     * first, then each one is cut out and searched on the recognition pool, and every match is resolved with one
+     * BatchGetItem.
+     */
+    private APIGatewayProxyResponseEvent recogniseAllFaces(final String image,
+                                                           final APIGatewayProxyResponseEvent apiGatewayProxyResponseEvent) {
+        if (image == null || image.isEmpty()) {
+            LOG.debug("No Image found in payload");
+            return apiGatewayProxyResponseEvent
+                    .withStatusCode(400)
+                    .withBody(JsonResponses.NO_IMAGE);
+        }
+
+        ImagePreprocessor.PreparedImage preparedImage;
+        try {
+            preparedImage = imagePreprocessor.prepare(Base64ImageDecoder.decode(image));
+        } catch (ImagePreprocessor.InvalidImageException | IllegalArgumentException e) {
+            LOG.debug("Rejected image before detection. Reason: {}", e.getMessage());
+            return apiGatewayProxyResponseEvent
+                    .withStatusCode(400)
+                    .withBody(JsonResponses.message(e.getMessage()));
+        }
+
+        List<BoundingBox> boundingBoxes = detectFaces(preparedImage.bytes()).join().stream()
+                .map(FaceDetail::boundingBox)
+                .filter(Objects::nonNull)
+                .limit(MULTI_FACE_MAX_FACES)
+                .collect(toList());
+
+        List<FaceMatch> faceMatches = emptyList();
+        Set<Integer> throttled = new HashSet<>();
+
+        if (!boundingBoxes.isEmpty()) {
+            BufferedImage decodedImage = imagePreprocessor.decode(preparedImage.bytes());
+
+            List<CompletableFuture<List<FaceMatch>>> pending = boundingBoxes.stream()
+                    .map(boundingBox -> recognitionExecutor.supplyAsync(() -> {
+                        byte[] crop = imagePreprocessor.cropFace(decodedImage, new Rectangle2D.Float(boundingBox.left(),
+                                boundingBox.top(), boundingBox.width(), boundingBox.height()));
+                        // Crops are fresh encodes that never repeat, caching them would only evict whole images
+                        return faceSearch(crop, null, SearchOptions.DEFAULT).join();
+                    }).exceptionally(e -> {
+                        if (RateLimitedRekognition.isThrottled(e)) {
+                            return null;
+                        }
+
+                        LOG.error("Failed searching face at {}", boundingBox, e);
+                        return emptyList();
+                    }))
+                    .collect(toList());
+
+            List<List<FaceMatch>> searched = pending.stream()
+                    .map(CompletableFuture::join)
+                    .collect(toList());
+
+            faceMatches = new ArrayList<>();
+            for (int i = 0; i < searched.size(); i++) {
+                List<FaceMatch> matches = searched.get(i);
+
+                // Null when the search of the face was throttled
+                if (matches == null) {
+                    throttled.add(i);
+                }
+
+                faceMatches.add(matches == null || matches.isEmpty() ? null : matches.get(0));
+            }
+        }
+
+        Set<String> faceIds = faceMatches.stream()
+                .filter(Objects::nonNull)
+                .map(faceMatch -> faceMatch.face().faceId())
+                .collect(toSet());
+
+        Map<String, Optional<String>> fullNames = faceNameCache.getAll(faceIds, this::fullNames).join();
+
+        List<Integer> named = new ArrayList<>();
+        for (int i = 0; i < faceMatches.size(); i++) {
+            FaceMatch faceMatch = faceMatches.get(i);
+
+            if (faceMatch != null && fullNames.get(faceMatch.face().faceId()).isPresent() || throttled.contains(i)) {
+                named.add(i);
             }
         }
 
-        metricsLogger().putMetric("FaceSearchCount", 0, Unit.COUNT);
+        metricsLogger().putMetric("PreprocessBytesSaved", preparedImage.bytesSaved(), Unit.BYTES);
+        metricsLogger().putMetric("PreprocessTime", preparedImage.durationNanos() / 1_000_000d, Unit.MILLISECONDS);
+        metricsLogger().putMetric("DetectedFaceCount", boundingBoxes.size(), Unit.COUNT);
+        metricsLogger().putMetric("FaceSearchCount", named.size() - throttled.size(), Unit.COUNT);
+        metricsLogger().putMetric("ThrottledFaceCount", throttled.size(), Unit.COUNT);
+        metricsLogger().putMetric("BatchGetCalls", batchItemReader.drainBatchCalls(), Unit.COUNT);
+        faceNameCache.publishMetrics(metricsLogger());
+
+        List<FaceMatch> matches = faceMatches;
+        return apiGatewayProxyResponseEvent
+                .withStatusCode(200)
+                .withBody(JsonResponses.write(generator -> {
+                    generator.writeNumberField("detected_faces", boundingBoxes.size());
+                    generator.writeArrayFieldStart("faces");
+
+                    for (int i : named) {
+                        BoundingBox boundingBox = boundingBoxes.get(i);
+
+                        generator.writeStartObject();
+                        if (throttled.contains(i)) {
+                            generator.writeStringField("error", THROTTLED_MESSAGE);
+                        } else {
+                            generator.writeStringField("person_name", fullNames.get(matches.get(i).face().faceId()).get());
+                        }
+                        generator.writeObjectFieldStart("bounding_box");
+                        generator.writeNumberField("width", boundingBox.width());
+                        generator.writeNumberField("height", boundingBox.height());
+                        generator.writeNumberField("left", boundingBox.left());
+                        generator.writeNumberField("top", boundingBox.top());
+                        generator.writeEndObject();
+                        generator.writeEndObject();
+                    }
+
+                    generator.writeEndArray();
+                }));
+    }
+
+    /**
+     * Searches every image of the batch on the recognition pool, at most RecognitionConcurrency at a time, then
+     * resolves all matched face ids with one BatchGetItem. Results keep the order of the request and a failed image
+     * only fails its own entry.
+     */
+    private APIGatewayProxyResponseEvent recogniseBatch(final String body,
+                                                        final APIGatewayProxyResponseEvent apiGatewayProxyResponseEvent) {
+        List<String> images = batchImages(body);
+
+        if (images == null || images.isEmpty() || images.size() > BATCH_MAX_IMAGES) {
+            LOG.debug("Rejected batch without images or with more than {}", BATCH_MAX_IMAGES);
+            return apiGatewayProxyResponseEvent
+                    .withStatusCode(400)
+                    .withBody(INVALID_BATCH);
+        }
+
+        List<CompletableFuture<ImageSearch>> pending = images.stream()
+                .map(image -> recognitionExecutor.supplyAsync(() -> searchBatchImage(image)))
+                .collect(toList());
+
+        List<ImageSearch> searches = pending.stream()
+                .map(CompletableFuture::join)
+                .collect(toList());
+
+        Set<String> faceIds = searches.stream()
+                .map(ImageSearch::bestFaceId)
+                .filter(Objects::nonNull)
+                .collect(toSet());
+
+        Map<String, Optional<String>> fullNames = faceNameCache.getAll(faceIds, this::fullNames)
+                .exceptionally(e -> {
+                    LOG.error("Failed resolving {} matched faces", faceIds.size(), e);
+                    return null;
+                })
+                .join();
+
+        long named = searches.stream()
+                .map(ImageSearch::bestFaceId)
+                .filter(faceId -> faceId != null && fullNames != null && fullNames.get(faceId).isPresent())
+                .count();
+
+        searches.forEach(RecognizeImageHandler::putPreprocessMetrics);
+        faceNameCache.publishMetrics(metricsLogger());
+        metricsLogger().putMetric("RecognitionBatchSize", images.size(), Unit.COUNT);
+        metricsLogger().putMetric("BatchGetCalls", batchItemReader.drainBatchCalls(), Unit.COUNT);
+        metricsLogger().putMetric("FaceSearchCount", named, Unit.COUNT);
+
         return apiGatewayProxyResponseEvent
                 .withStatusCode(200)
-                .withBody("{\n" +
-                        "  \"message\": \"No match found in the record\"\n" +
-                        "}");
+                .withBody(JsonResponses.write(generator -> {
+                    generator.writeArrayFieldStart("results");
+
+                    for (ImageSearch search : searches) {
+                        generator.writeStartObject();
+                        String faceId = search.bestFaceId();
+
+                        if (search.error != null) {
+                            generator.writeStringField("error", search.error);
+                        } else if (faceId == null) {
+                            generator.writeStringField("message", NO_MATCH_MESSAGE);
+                        } else if (fullNames == null) {
+                            generator.writeStringField("error", "Failed resolving the matched face");
+                        } else if (fullNames.get(faceId).isPresent()) {
+                            generator.writeStringField("person_name", fullNames.get(faceId).get());
+                        } else {
+                            generator.writeStringField("message", NO_MATCH_MESSAGE);
+                        }
+
+                        generator.writeEndObject();
+                    }
+
+                    generator.writeEndArray();
+                }));
+    }
+
+    private static List<String> batchImages(final String body) {
+        if (body == null || body.isEmpty()) {
+            return null;
+        }
+
+        try {
+            BatchRequest batchRequest = BATCH_REQUEST_READER.readValue(body);
+            return batchRequest.getImages();
+        } catch (IOException e) {
+            LOG.debug("Failed parsing batch request. Reason: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private ImageSearch searchBatchImage(final String image) {
+        if (image == null || image.isEmpty()) {
+            return ImageSearch.failed("No image found");
+        }
+
+        try {
+            return searchImage(image, SearchOptions.DEFAULT);
+        } catch (ImagePreprocessor.InvalidImageException | IllegalArgumentException e) {
+            LOG.debug("Rejected image of batch before search. Reason: {}", e.getMessage());
+            return ImageSearch.failed(e.getMessage());
+        } catch (CompletionException e) {
+            if (!RateLimitedRekognition.isThrottled(e)) {
+                throw e;
+            }
+
+            return ImageSearch.failed(THROTTLED_MESSAGE);
+        }
+    }
+
+    /**
+     * Decodes the image and searches it, unless the same image was searched moments ago.
+     *
+     * @throws ImagePreprocessor.InvalidImageException if the image fails validation
+     */
+    private ImageSearch searchImage(final String image,
+                                    final SearchOptions searchOptions) {
+        byte[] decodedImage = Base64ImageDecoder.decode(image);
+
+        SearchResultCache.Fingerprint fingerprint = SearchResultCache.fingerprint(decodedImage)
+                .withSearchOptions(searchOptions.maxFaces, searchOptions.threshold);
+        List<FaceMatch> faceMatches = searchResultCache.get(fingerprint);
+
+        if (faceMatches != null) {
+            return new ImageSearch(faceMatches, null, null);
+        }
+
+        ImagePreprocessor.PreparedImage preparedImage = imagePreprocessor.prepare(decodedImage);
+        return new ImageSearch(faceSearch(preparedImage.bytes(), fingerprint, searchOptions).join(), preparedImage, null);
+    }
+
+    // Metrics are only put from the handler thread, the metrics logger is not thread safe
+    private static void putPreprocessMetrics(final ImageSearch search) {
+        if (search.preparedImage != null) {
+            metricsLogger().putMetric("PreprocessBytesSaved", search.preparedImage.bytesSaved(), Unit.BYTES);
+            metricsLogger().putMetric("PreprocessTime", search.preparedImage.durationNanos() / 1_000_000d, Unit.MILLISECONDS);
+        }
+    }
+
+    private static void prime() {
+        String encoded = Base64.getEncoder().encodeToString(Priming.sampleJpeg(640, 480));
+        byte[] decoded = Base64ImageDecoder.decode(encoded);
+        SearchResultCache.fingerprint(decoded);
+        JsonResponses.matches(Collections.singletonList(FaceMatch.builder()
+                .similarity(99f)
+                .face(face -> face.faceId("priming"))
+                .build()), faceId -> "priming");
+        batchImages("{\"images\": [\"" + encoded + "\"]}");
+
+        byte[] prepared = imagePreprocessor.prepare(Priming.sampleJpeg(2400, 1800)).bytes();
+        imagePreprocessor.cropFace(imagePreprocessor.decode(prepared), new Rectangle2D.Float(0.4f, 0.4f, 0.05f, 0.05f));
+        warmRemoteCalls(prepared);
+    }
+
+    private static void restore() {
+        // Entries and rate limits are timed with System.nanoTime(), which is not continuous across a restore
+        faceNameCache.clear();
+        searchResultCache.clear();
+        rekognitionClient.restore();
+
+        warmRemoteCalls(Priming.sampleJpeg(640, 480));
+    }
+
+    private static void warmRemoteCalls(final byte[] image) {
+        Priming.quietly(() -> rekognitionClient.detectFaces(builder -> builder.image(Image.builder()
+                        .bytes(SdkBytes.fromByteArrayUnsafe(image)).build()))
+                .join());
+
+        Priming.quietly(() -> rekognitionClient.searchFacesByImage(builder -> builder.collectionId(COLLECTION_ID)
+                        .image(Image.builder()
+                                .bytes(SdkBytes.fromByteArrayUnsafe(image)).build())
+                        .maxFaces(SearchOptions.DEFAULT.maxFaces)
+                        .faceMatchThreshold(SearchOptions.DEFAULT.threshold))
+                .join());
+
+        Priming.quietly(() -> dynamoDbClient.getItem(builder -> builder.tableName(TABLE_NAME)
+                        .key(Collections.singletonMap("RekognitionId", AttributeValue.builder()
+                                .s("priming")
+                                .build())))
+                .join());
+
+        Priming.quietly(() -> batchItemReader.getAll(Collections.singleton("priming")).join());
+    }
+
+    // Faces enrolled after the directory was loaded are read from the table
+    private CompletableFuture<Map<String, String>> fullNames(final Set<String> faceIds) {
+        Map<String, String> fullNames = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+
+        for (String faceId : faceIds) {
+            String fullName = faceDirectory.get(faceId);
+
+            if (fullName != null) {
+                fullNames.put(faceId, fullName);
+            } else {
+                missing.add(faceId);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(fullNames);
+        }
+
+        return batchItemReader.getAll(missing)
+                .thenApply(items -> {
+                    items.values().forEach(item -> fullNames.put(item.get("RekognitionId").s(), item.get("FullName").s()));
+                    return fullNames;
+                });
+    }
+
+    private CompletableFuture<Optional<String>> fullName(final String faceId) {
+        String fullName = faceDirectory.get(faceId);
+        if (fullName != null) {
+            return CompletableFuture.completedFuture(Optional.of(fullName));
+        }
+
+        Map<String, AttributeValue> keyMap = new HashMap<>();
+
+        keyMap.put("RekognitionId", AttributeValue.builder()
+                .s(faceId)
+                .build());
+
+        return query(keyMap).thenApply(faceDetails -> {
+            if (faceDetails.hasItem()) {
+                return Optional.of(faceDetails.item().get("FullName").s());
+            }
+
+            return Optional.empty();
+        });
     }
 
     @Tracing(captureMode = ERROR)
-    private GetItemResponse query(Map<String, AttributeValue> keyMap) {
+    private CompletableFuture<GetItemResponse> query(Map<String, AttributeValue> keyMap) {
         GetItemRequest itemRequest = GetItemRequest.builder()
                 .tableName(TABLE_NAME)
                 .key(keyMap)
                 .build();
-        try {
-            return dynamoDbClient.getItem(itemRequest);
-        } catch (Exception e) {
-            LOG.error("Failed querying dynamo tab for query {}", itemRequest, e);
-            throw e;
-        }
+
+        return dynamoDbClient.getItem(itemRequest)
+                .whenComplete((response, e) -> {
+                    if (e != null) {
+                        LOG.error("Failed querying dynamo tab for query {}", itemRequest, e);
+                    }
+                });
     }
 
     @Tracing(captureMode = ERROR)
-    private List<FaceMatch> faceSearch(byte[] decodedImage) {
-        try {
-            SearchFacesByImageResponse searchFacesByImageResponse = rekognitionClient.searchFacesByImage(builder -> builder.collectionId(COLLECTION_ID)
-                    .image(Image.builder()
-                            .bytes(SdkBytes.fromByteArray(decodedImage)).build())
-                    .maxFaces(1)
-                    .faceMatchThreshold(90f));
-
-            LOG.debug("Service response for find face {}", searchFacesByImageResponse);
-
-            return searchFacesByImageResponse
-                    .faceMatches();
-        } catch (Exception e) {
-            LOG.error("Failed getting find face result. Reason: {}", e.getMessage(), e);
-            return emptyList();
+    private CompletableFuture<List<FaceDetail>> detectFaces(final byte[] image) {
+        return rekognitionClient.detectFaces(builder -> builder.image(Image.builder()
+                        .bytes(SdkBytes.fromByteArrayUnsafe(image)).build()))
+                .thenApply(DetectFacesResponse::faceDetails);
+    }
+
+    /**
+     * @param fingerprint key to cache the matches under, null to leave them out of the cache
+     */
+    @Tracing(captureMode = ERROR)
+    private CompletableFuture<List<FaceMatch>> faceSearch(byte[] decodedImage,
+                                                          SearchResultCache.Fingerprint fingerprint,
+                                                          SearchOptions searchOptions) {
+        return rekognitionClient.searchFacesByImage(builder -> builder.collectionId(COLLECTION_ID)
+                        .image(Image.builder()
+                                .bytes(SdkBytes.fromByteArrayUnsafe(decodedImage)).build())
+                        .maxFaces(searchOptions.maxFaces)
+                        .faceMatchThreshold(searchOptions.threshold))
+                .thenApply(searchFacesByImageResponse -> {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Service response for find face {}", LogSummaries.searchFacesByImage(searchFacesByImageResponse));
+                    }
+
+                    if (fingerprint != null) {
+                        searchResultCache.put(fingerprint, searchFacesByImageResponse.faceMatches());
+                    }
+
+                    return searchFacesByImageResponse
+                            .faceMatches();
+                })
+                .exceptionally(e -> {
+                    // A throttled search is reported to the caller, it must not look like a face without a match
+                    if (RateLimitedRekognition.isThrottled(e)) {
+                        throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                    }
+
+                    LOG.error("Failed getting find face result. Reason: {}", e.getMessage(), e);
+                    return emptyList();
+                });
+    }
+
+    private static final class ImageSearch {
+        private final List<FaceMatch> faceMatches;
+        // Null when the matches came from the search result cache
+        private final ImagePreprocessor.PreparedImage preparedImage;
+        private final String error;
+
+        private ImageSearch(final List<FaceMatch> faceMatches,
+                            final ImagePreprocessor.PreparedImage preparedImage,
+                            final String error) {
+            this.faceMatches = faceMatches;
+            this.preparedImage = preparedImage;
+            this.error = error;
+        }
+
+        static ImageSearch failed(final String error) {
+            return new ImageSearch(emptyList(), null, String.valueOf(error));
+        }
+
+        String bestFaceId() {
+            return faceMatches.isEmpty() ? null : faceMatches.get(0).face().faceId();
+        }
+    }
+
+    /**
+     * Number of candidates and similarity threshold of a search, from the max-faces and threshold query parameters.
+     */
+    static final class SearchOptions {
+        static final SearchOptions DEFAULT = new SearchOptions(1, DEFAULT_THRESHOLD);
+
+        private final int maxFaces;
+        private final float threshold;
+
+        private SearchOptions(final int maxFaces,
+                              final float threshold) {
+            this.maxFaces = maxFaces;
+            this.threshold = threshold;
+        }
+
+        static SearchOptions from(final Map<String, String> queryStringParameters) {
+            if (queryStringParameters == null) {
+                return DEFAULT;
+            }
+
+            String maxFaces = queryStringParameters.get("max-faces");
+            String threshold = queryStringParameters.get("threshold");
+
+            if (maxFaces == null && threshold == null) {
+                return DEFAULT;
+            }
+
+            try {
+                SearchOptions searchOptions = new SearchOptions(maxFaces == null ? 1 : Integer.parseInt(maxFaces),
+                        threshold == null ? DEFAULT_THRESHOLD : Float.parseFloat(threshold));
+
+                if (searchOptions.maxFaces >= 1 && searchOptions.maxFaces <= MAX_FACES_LIMIT
+                        && searchOptions.threshold >= 0 && searchOptions.threshold <= 100) {
+                    return searchOptions;
+                }
+            } catch (NumberFormatException e) {
+                LOG.debug("Invalid search options. Reason: {}", e.getMessage());
+            }
+
+            throw new InvalidSearchOptionsException("max-faces must be between 1 and " + MAX_FACES_LIMIT
+                    + " and threshold between 0 and 100");
+        }
+
+        static class InvalidSearchOptionsException extends RuntimeException {
+            InvalidSearchOptionsException(final String message) {
+                super(message);
+            }
+        }
+    }
+
+    public static class BatchRequest {
+        private List<String> images;
+
+        public List<String> getImages() {
+            return images;
+        }
+
+        public void setImages(List<String> images) {
+            this.images = images;
         }
     }
 }
@@ -0,0 +1,71 @@
+package com.webapp.function;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import software.amazon.awssdk.services.rekognition.model.CreateCollectionRequest;
+import software.amazon.awssdk.services.rekognition.model.CreateCollectionResponse;
+import software.amazon.awssdk.services.rekognition.model.DeleteCollectionRequest;
+import software.amazon.awssdk.services.rekognition.model.DeleteCollectionResponse;
+import software.amazon.awssdk.services.rekognition.model.DeleteFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.DeleteFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.IndexFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.IndexFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.ListFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.ListFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.SearchFacesByImageRequest;
+import software.amazon.awssdk.services.rekognition.model.SearchFacesByImageResponse;
+
+/**
+ * Rekognition APIs the functions call, each returning a future. {@link AwsClients} implements them over the async
+ * client or runs them on the blocking one, and {@link RateLimitedRekognition} paces them.
+ */
+public interface RekognitionCalls {
+
+    CompletableFuture<SearchFacesByImageResponse> searchFacesByImage(SearchFacesByImageRequest request);
+
+    default CompletableFuture<SearchFacesByImageResponse> searchFacesByImage(
+            final Consumer<SearchFacesByImageRequest.Builder> request) {
+        return searchFacesByImage(SearchFacesByImageRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<IndexFacesResponse> indexFaces(IndexFacesRequest request);
+
+    default CompletableFuture<IndexFacesResponse> indexFaces(final Consumer<IndexFacesRequest.Builder> request) {
+        return indexFaces(IndexFacesRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<DetectFacesResponse> detectFaces(DetectFacesRequest request);
+
+    default CompletableFuture<DetectFacesResponse> detectFaces(final Consumer<DetectFacesRequest.Builder> request) {
+        return detectFaces(DetectFacesRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<ListFacesResponse> listFaces(ListFacesRequest request);
+
+    default CompletableFuture<ListFacesResponse> listFaces(final Consumer<ListFacesRequest.Builder> request) {
+        return listFaces(ListFacesRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<DeleteFacesResponse> deleteFaces(DeleteFacesRequest request);
+
+    default CompletableFuture<DeleteFacesResponse> deleteFaces(final Consumer<DeleteFacesRequest.Builder> request) {
+        return deleteFaces(DeleteFacesRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<CreateCollectionResponse> createCollection(CreateCollectionRequest request);
+
+    default CompletableFuture<CreateCollectionResponse> createCollection(
+            final Consumer<CreateCollectionRequest.Builder> request) {
+        return createCollection(CreateCollectionRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<DeleteCollectionResponse> deleteCollection(DeleteCollectionRequest request);
+
+    default CompletableFuture<DeleteCollectionResponse> deleteCollection(
+            final Consumer<DeleteCollectionRequest.Builder> request) {
+        return deleteCollection(DeleteCollectionRequest.builder().applyMutation(request).build());
+    }
+}
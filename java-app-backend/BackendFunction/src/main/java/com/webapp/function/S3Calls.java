@@ -0,0 +1,64 @@
+package com.webapp.function;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+
+/**
+ * S3 APIs the functions call, each returning a future. {@link AwsClients} implements them over the async client or
+ * runs them on the blocking one.
+ */
+public interface S3Calls {
+
+    CompletableFuture<HeadObjectResponse> headObject(HeadObjectRequest request);
+
+    default CompletableFuture<HeadObjectResponse> headObject(final Consumer<HeadObjectRequest.Builder> request) {
+        return headObject(HeadObjectRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request request);
+
+    default CompletableFuture<ListObjectsV2Response> listObjectsV2(
+            final Consumer<ListObjectsV2Request.Builder> request) {
+        return listObjectsV2(ListObjectsV2Request.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(CreateMultipartUploadRequest request);
+
+    default CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(
+            final Consumer<CreateMultipartUploadRequest.Builder> request) {
+        return createMultipartUpload(CreateMultipartUploadRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<ListPartsResponse> listParts(ListPartsRequest request);
+
+    default CompletableFuture<ListPartsResponse> listParts(final Consumer<ListPartsRequest.Builder> request) {
+        return listParts(ListPartsRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(CompleteMultipartUploadRequest request);
+
+    default CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(
+            final Consumer<CompleteMultipartUploadRequest.Builder> request) {
+        return completeMultipartUpload(CompleteMultipartUploadRequest.builder().applyMutation(request).build());
+    }
+
+    CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(AbortMultipartUploadRequest request);
+
+    default CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(
+            final Consumer<AbortMultipartUploadRequest.Builder> request) {
+        return abortMultipartUpload(AbortMultipartUploadRequest.builder().applyMutation(request).build());
+    }
+}
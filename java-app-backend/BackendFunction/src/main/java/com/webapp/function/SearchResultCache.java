@@ -0,0 +1,156 @@
+package com.webapp.function;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import software.amazon.awssdk.services.rekognition.model.FaceMatch;
+
+import static com.webapp.function.Env.intEnv;
+
+/**
+ * Short lived cache of search results keyed by a fingerprint of the decoded image bytes, so cameras resending the same
+ * frame do not pay for another searchFacesByImage call. Empty results are cached too, meaning "no match".
+ * <p>
+ * The fingerprint is a SHA-256 digest. A hit serves someone's identity, so it must not be possible to craft an image
+ * colliding with one searched before, as it would be with a fast non cryptographic hash.
+ */
+public class SearchResultCache {
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+    private static final int FACE_MATCH_BYTES = 512;
+
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LinkedHashMap<Fingerprint, CachedResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+
+    public SearchResultCache(final long maxBytes,
+                             final long ttlSeconds) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    public static SearchResultCache fromEnvironment() {
+        return new SearchResultCache(intEnv("SearchCacheMaxBytes", 1024 * 1024), intEnv("SearchCacheTtlSeconds", 10));
+    }
+
+    /**
+     * SHA-256 digest of the image bytes.
+     */
+    public static Fingerprint fingerprint(final byte[] image) {
+        try {
+            return new Fingerprint(MessageDigest.getInstance("SHA-256").digest(image), 0, 0);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return cached matches for the fingerprint, or null when nothing valid is cached.
+     */
+    public synchronized List<FaceMatch> get(final Fingerprint fingerprint) {
+        CachedResult cached = entries.get(fingerprint);
+
+        if (cached == null) {
+            return null;
+        }
+
+        if (System.nanoTime() - cached.cachedAt >= ttlNanos) {
+            remove(fingerprint);
+            return null;
+        }
+
+        return cached.faceMatches;
+    }
+
+    public synchronized void put(final Fingerprint fingerprint,
+                                 final List<FaceMatch> faceMatches) {
+        long weight = ENTRY_OVERHEAD_BYTES + (long) FACE_MATCH_BYTES * faceMatches.size();
+
+        if (weight > maxBytes) {
+            return;
+        }
+
+        remove(fingerprint);
+        entries.put(fingerprint, new CachedResult(faceMatches, weight, System.nanoTime()));
+        usedBytes += weight;
+
+        Iterator<CachedResult> eldest = entries.values().iterator();
+        while (usedBytes > maxBytes && eldest.hasNext()) {
+            usedBytes -= eldest.next().weight;
+            eldest.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    private void remove(final Fingerprint fingerprint) {
+        CachedResult removed = entries.remove(fingerprint);
+
+        if (removed != null) {
+            usedBytes -= removed.weight;
+        }
+    }
+
+    public static final class Fingerprint {
+        private final byte[] digest;
+        private final int maxFaces;
+        private final int thresholdBits;
+
+        private Fingerprint(final byte[] digest,
+                            final int maxFaces,
+                            final int thresholdBits) {
+            this.digest = digest;
+            this.maxFaces = maxFaces;
+            this.thresholdBits = thresholdBits;
+        }
+
+        /**
+         * Fingerprint of the same image searched with other options, so their results are cached apart.
+         */
+        public Fingerprint withSearchOptions(final int maxFaces,
+                                             final float threshold) {
+            return new Fingerprint(digest, maxFaces, Float.floatToIntBits(threshold));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint that = (Fingerprint) o;
+            return maxFaces == that.maxFaces && thresholdBits == that.thresholdBits && Arrays.equals(digest, that.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (digest[0] & 0xFF) << 24 | (digest[1] & 0xFF) << 16 | (digest[2] & 0xFF) << 8 | digest[3] & 0xFF;
+            return (hash * 31 + maxFaces) * 31 + thresholdBits;
+        }
+    }
+
+    private static final class CachedResult {
+        private final List<FaceMatch> faceMatches;
+        private final long weight;
+        private final long cachedAt;
+
+        private CachedResult(final List<FaceMatch> faceMatches,
+                             final long weight,
+                             final long cachedAt) {
+            this.faceMatches = faceMatches;
+            this.weight = weight;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.webapp.function;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+
+/**
+ * Scans a whole table with a parallel Scan, handing every page to the consumer as soon as it is read so the table is
+ * never held in memory as items.
+ */
+final class SegmentedScan {
+
+    private SegmentedScan() {
+    }
+
+    /**
+     * @param projection attributes to read, as a projection expression
+     * @param pages      called from several threads at once, one per segment
+     */
+    static void scan(final DynamoDbCalls dynamoDbClient,
+                     final String tableName,
+                     final String projection,
+                     final int segments,
+                     final Consumer<List<Map<String, AttributeValue>>> pages) {
+        // Each segment pages on its own thread, so the blocking client scans in parallel as well
+        ExecutorService scanners = Executors.newFixedThreadPool(segments, runnable -> {
+            Thread thread = new Thread(runnable, "table-scan");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<CompletableFuture<Void>> scans = new ArrayList<>();
+            for (int segment = 0; segment < segments; segment++) {
+                int scanned = segment;
+                scans.add(CompletableFuture.runAsync(() -> scanSegment(dynamoDbClient, tableName, projection, scanned, segments, pages),
+                        scanners));
+            }
+
+            CompletableFuture.allOf(scans.toArray(new CompletableFuture[0])).join();
+        } finally {
+            scanners.shutdown();
+        }
+    }
+
+    private static void scanSegment(final DynamoDbCalls dynamoDbClient,
+                                    final String tableName,
+                                    final String projection,
+                                    final int segment,
+                                    final int segments,
+                                    final Consumer<List<Map<String, AttributeValue>>> pages) {
+        Map<String, AttributeValue> startKey = null;
+
+        do {
+            Map<String, AttributeValue> exclusiveStartKey = startKey;
+            ScanResponse response = dynamoDbClient.scan(request -> request.tableName(tableName)
+                            .projectionExpression(projection)
+                            .segment(segment)
+                            .totalSegments(segments)
+                            .exclusiveStartKey(exclusiveStartKey))
+                    .join();
+
+            pages.accept(response.items());
+            startKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty() ? response.lastEvaluatedKey() : null;
+        } while (startKey != null);
+    }
+}
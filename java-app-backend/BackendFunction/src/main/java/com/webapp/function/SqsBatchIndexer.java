@@ -0,0 +1,138 @@
+package com.webapp.function;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Indexes the images of a batch of SQS messages carrying S3 event notifications, and reports the messages to retry.
+ * <p>
+ * All images of the batch are indexed together, so their faces are persisted with the fewest batched writes. A message
+ * is reported as failed only when one of its images failed, so the queue redelivers those messages alone and deletes
+ * the rest.
+ */
+public class SqsBatchIndexer {
+    private static final Logger LOG = LogManager.getLogger(SqsBatchIndexer.class);
+    private static final ObjectReader EVENT_READER = new ObjectMapper().readerFor(JsonNode.class);
+
+    private final Function<List<IndexImageHandler.UploadedImage>, List<IndexImageHandler.IndexRecordResult>> indexer;
+
+    /**
+     * @param indexer indexes the images and returns their outcome in the same order
+     */
+    public SqsBatchIndexer(final Function<List<IndexImageHandler.UploadedImage>, List<IndexImageHandler.IndexRecordResult>> indexer) {
+        this.indexer = indexer;
+    }
+
+    public Batch index(final List<SQSEvent.SQSMessage> messages) {
+        Map<String, List<IndexImageHandler.UploadedImage>> imagesByMessage = new LinkedHashMap<>();
+        Set<String> failedMessageIds = new HashSet<>();
+
+        for (SQSEvent.SQSMessage message : messages) {
+            try {
+                imagesByMessage.put(message.getMessageId(), uploadedImages(message.getBody()));
+            } catch (IOException | RuntimeException e) {
+                // Retried until the redrive policy moves it to the dead letter queue, where it can be inspected
+                LOG.error("Failed parsing S3 event from message {}", message.getMessageId(), e);
+                failedMessageIds.add(message.getMessageId());
+            }
+        }
+
+        List<String> messageIds = new ArrayList<>();
+        List<IndexImageHandler.UploadedImage> images = new ArrayList<>();
+
+        imagesByMessage.forEach((messageId, messageImages) -> {
+            for (IndexImageHandler.UploadedImage image : messageImages) {
+                messageIds.add(messageId);
+                images.add(image);
+            }
+        });
+
+        List<IndexImageHandler.IndexRecordResult> results = images.isEmpty()
+                ? Collections.emptyList()
+                : indexer.apply(images);
+
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).getError() != null) {
+                failedMessageIds.add(messageIds.get(i));
+            }
+        }
+
+        // Keeps the order of the batch, which makes redeliveries easier to follow in the logs
+        List<SQSBatchResponse.BatchItemFailure> failures = messages.stream()
+                .map(SQSEvent.SQSMessage::getMessageId)
+                .filter(failedMessageIds::contains)
+                .map(SQSBatchResponse.BatchItemFailure::new)
+                .collect(toList());
+
+        LOG.debug("Indexed {} images from {} messages, {} messages to retry", images.size(), messages.size(), failures.size());
+        return new Batch(new SQSBatchResponse(failures), results);
+    }
+
+    /**
+     * @return images of the event notification, none for the test event S3 sends when the notification is set up
+     */
+    static List<IndexImageHandler.UploadedImage> uploadedImages(final String body) throws IOException {
+        JsonNode records = EVENT_READER.<JsonNode>readValue(body).path("Records");
+        List<IndexImageHandler.UploadedImage> images = new ArrayList<>();
+
+        for (JsonNode record : records) {
+            JsonNode s3 = record.path("s3");
+            String bucket = s3.path("bucket").path("name").asText(null);
+            String key = s3.path("object").path("key").asText(null);
+
+            if (bucket == null || key == null) {
+                throw new IOException("Record without bucket name or object key");
+            }
+
+            images.add(new IndexImageHandler.UploadedImage(bucket, urlDecode(key)));
+        }
+
+        return images;
+    }
+
+    // Keys are URL encoded in event notifications
+    private static String urlDecode(final String key) throws UnsupportedEncodingException {
+        return URLDecoder.decode(key, "UTF-8");
+    }
+
+    /**
+     * Response to hand back to Lambda, along with the outcome of every image for metrics.
+     */
+    public static final class Batch {
+        private final SQSBatchResponse response;
+        private final List<IndexImageHandler.IndexRecordResult> results;
+
+        private Batch(final SQSBatchResponse response,
+                      final List<IndexImageHandler.IndexRecordResult> results) {
+            this.response = response;
+            this.results = results;
+        }
+
+        public SQSBatchResponse response() {
+            return response;
+        }
+
+        public List<IndexImageHandler.IndexRecordResult> results() {
+            return results;
+        }
+    }
+}
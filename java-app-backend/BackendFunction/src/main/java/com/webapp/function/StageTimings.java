@@ -0,0 +1,197 @@
+package com.webapp.function;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.cloudwatchlogs.emf.logger.MetricsLogger;
+import software.amazon.cloudwatchlogs.emf.model.Unit;
+
+/**
+ * Durations of the stages of an invocation, so a latency spike can be traced to decoding, preprocessing, a service or
+ * serialization. Durations are recorded from any thread into a histogram per stage and published by the handler, on
+ * its own thread, into the EMF blob powertools writes after the invocation, as {@code <Stage>StageTime} in
+ * milliseconds.
+ * <p>
+ * Buckets are an eighth of a power of two wide, from a microsecond to 16 seconds, so a duration is counted with two
+ * shifts and an atomic increment. Every sample is published as the middle of its bucket, and a stage with more samples
+ * than EMF takes values for a metric in one blob publishes them scaled down to that many, keeping their distribution.
+ * <p>
+ * Calls of the SDK clients built by AwsClients are timed by {@link SdkCalls}, from the start of the execution to its
+ * end, SDK retries included.
+ */
+public final class StageTimings {
+
+    public enum Stage {
+        DECODE("Decode"),
+        PREPROCESS("Preprocess"),
+        REKOGNITION("Rekognition"),
+        DYNAMODB("DynamoDb"),
+        S3("S3"),
+        SERIALIZATION("Serialization");
+
+        private final String metricName;
+
+        Stage(final String name) {
+            this.metricName = name + "StageTime";
+        }
+    }
+
+    // Values of one metric that fit in one EMF blob
+    static final int MAX_VALUES = 100;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MICROS_BITS = 24;
+    private static final int BUCKETS = (MAX_MICROS_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final Stage[] STAGES = Stage.values();
+
+    private static final AtomicIntegerArray counts = new AtomicIntegerArray(STAGES.length * BUCKETS);
+    private static final AtomicIntegerArray samples = new AtomicIntegerArray(STAGES.length);
+
+    private StageTimings() {
+    }
+
+    /**
+     * Counts the time since the start as a duration of the stage.
+     *
+     * @param startNanos {@link System#nanoTime()} when the stage started
+     * @return the current {@link System#nanoTime()}, to start the next stage from
+     */
+    public static long record(final Stage stage,
+                              final long startNanos) {
+        long now = System.nanoTime();
+        int index = stage.ordinal();
+
+        counts.incrementAndGet(index * BUCKETS + bucket((now - startNanos) / 1000));
+        samples.incrementAndGet(index);
+        return now;
+    }
+
+    /**
+     * Puts the stages timed since the last call and starts over. Call it from the handler thread only, the metrics
+     * logger of powertools is not thread safe.
+     */
+    public static void publishMetrics(final MetricsLogger metricsLogger) {
+        for (Stage stage : STAGES) {
+            int total = samples.getAndSet(stage.ordinal(), 0);
+
+            if (total > 0) {
+                publish(stage, total, metricsLogger);
+            }
+        }
+    }
+
+    /**
+     * Drops the stages timed so far, at the start of an invocation. Calls made while priming or completing after the
+     * previous invocation published are not counted in this one.
+     */
+    public static void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        for (int i = 0; i < samples.length(); i++) {
+            samples.set(i, 0);
+        }
+    }
+
+    private static void publish(final Stage stage,
+                                final int total,
+                                final MetricsLogger metricsLogger) {
+        int offset = stage.ordinal() * BUCKETS;
+        int published = 0;
+
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            int count = counts.getAndSet(offset + bucket, 0);
+
+            if (count == 0) {
+                continue;
+            }
+
+            int values = total <= MAX_VALUES ? count : Math.max(1, Math.round((float) count * MAX_VALUES / total));
+            double millis = middle(bucket) / 1000d;
+
+            for (int i = 0; i < values && published < MAX_VALUES; i++, published++) {
+                metricsLogger.putMetric(stage.metricName, millis, Unit.MILLISECONDS);
+            }
+        }
+    }
+
+    static int bucket(final long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_MICROS_BITS);
+        if (exponent == MAX_MICROS_BITS) {
+            return BUCKETS - 1;
+        }
+
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return middle of the bucket, in microseconds
+     */
+    static double middle(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 0.5;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (SUB_BUCKETS + bucket % SUB_BUCKETS) * width;
+        return lower + width / 2d;
+    }
+
+    /**
+     * Times the calls of a client as the stage of its service.
+     */
+    static final class SdkCalls implements ExecutionInterceptor {
+        private static final ExecutionAttribute<Long> START = new ExecutionAttribute<>("StageStartNanos");
+
+        @Override
+        public void beforeExecution(final Context.BeforeExecution context,
+                                    final ExecutionAttributes executionAttributes) {
+            executionAttributes.putAttribute(START, System.nanoTime());
+        }
+
+        @Override
+        public void afterExecution(final Context.AfterExecution context,
+                                   final ExecutionAttributes executionAttributes) {
+            record(executionAttributes);
+        }
+
+        @Override
+        public void onExecutionFailure(final Context.FailedExecution context,
+                                       final ExecutionAttributes executionAttributes) {
+            record(executionAttributes);
+        }
+
+        private static void record(final ExecutionAttributes executionAttributes) {
+            Long start = executionAttributes.getAttribute(START);
+            Stage stage = stage(executionAttributes.getAttribute(SdkExecutionAttribute.SERVICE_NAME));
+
+            if (start != null && stage != null) {
+                StageTimings.record(stage, start);
+            }
+        }
+
+        private static Stage stage(final String serviceName) {
+            if ("Rekognition".equals(serviceName)) {
+                return Stage.REKOGNITION;
+            }
+            if ("DynamoDB".equals(serviceName)) {
+                return Stage.DYNAMODB;
+            }
+            if ("S3".equals(serviceName)) {
+                return Stage.S3;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.webapp.function;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import com.amazonaws.xray.AWSXRay;
+import com.amazonaws.xray.entities.Entity;
+
+/**
+ * Bounded pool of daemon threads, kept across warm invocations, that carries the current X-Ray trace entity over to
+ * the worker so {@code @Tracing} subsegments created there attach to the invocation that submitted the work.
+ */
+public class TracedExecutor {
+    private final ExecutorService executorService;
+
+    private TracedExecutor(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    public static TracedExecutor fixed(final String name,
+                                       final int threads) {
+        AtomicInteger counter = new AtomicInteger();
+
+        return new TracedExecutor(Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public <T> CompletableFuture<T> supplyAsync(final Supplier<T> supplier) {
+        Entity traceEntity = AWSXRay.getTraceEntity();
+
+        if (traceEntity == null) {
+            return CompletableFuture.supplyAsync(supplier, executorService);
+        }
+
+        // Entity.run sets the entity on the worker for the call and puts back what the worker had before
+        return CompletableFuture.supplyAsync(() -> {
+            AtomicReference<T> result = new AtomicReference<>();
+            traceEntity.run(() -> result.set(supplier.get()));
+            return result.get();
+        }, executorService);
+    }
+}
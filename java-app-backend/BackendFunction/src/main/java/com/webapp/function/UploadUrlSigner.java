@@ -0,0 +1,101 @@
+package com.webapp.function;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Presigns PUT URLs for enrollment images. Single images go under the prefix IndexImageHandler is triggered on, batches
+ * under the prefix whose notifications are queued for QueuedIndexImageHandler. Presigning is local signing work, so
+ * many URLs can be handed out by one invocation.
+ */
+public class UploadUrlSigner {
+    private static final Logger LOG = LogManager.getLogger(UploadUrlSigner.class);
+
+    static final String KEY_PREFIX = "index/static/";
+    static final String BULK_KEY_PREFIX = "bulk/";
+
+    // Object names are a UUID and an extension of letters and digits, so a client cannot take a key out of its prefix
+    private static final String EXTENSION = "\\.[A-Za-z0-9]+";
+    static final Pattern FILE_NAME = Pattern.compile("[A-Za-z0-9-]+(" + EXTENSION + ")?");
+    private static final Pattern FILE_EXTENSION = Pattern.compile(EXTENSION);
+
+    private final S3Presigner presigner;
+    private final String bucket;
+    private final Duration signatureDuration;
+
+    public UploadUrlSigner(final S3Presigner presigner,
+                           final String bucket,
+                           final Duration signatureDuration) {
+        this.presigner = presigner;
+        this.bucket = bucket;
+        this.signatureDuration = signatureDuration;
+    }
+
+    static boolean isValidFileExtension(final String fileExtension) {
+        return fileExtension != null && FILE_EXTENSION.matcher(fileExtension).matches();
+    }
+
+    /**
+     * @throws InvalidFileExtensionException if the extension is not a dot followed by letters and digits
+     */
+    public ImageUploadHandler.ResponseBody sign(final String contentType,
+                                                final String fileExtension,
+                                                final String personName) {
+        return sign(KEY_PREFIX, contentType, fileExtension, personName);
+    }
+
+    /**
+     * Signs the URLs under {@link #BULK_KEY_PREFIX}, so a whole team enrolled at once is indexed from the queue at a
+     * steady rate instead of one invocation per photo hitting the IndexFaces quota together.
+     *
+     * @throws InvalidFileExtensionException if the extension of a request is not a dot followed by letters and digits
+     */
+    public List<ImageUploadHandler.ResponseBody> signAll(final List<ImageUploadHandler.UploadRequest> uploadRequests) {
+        return uploadRequests.stream()
+                .map(uploadRequest -> sign(BULK_KEY_PREFIX, uploadRequest.getContentType(),
+                        uploadRequest.getFileExtension(), uploadRequest.getPersonName()))
+                .collect(toList());
+    }
+
+    private ImageUploadHandler.ResponseBody sign(final String keyPrefix,
+                                                 final String contentType,
+                                                 final String fileExtension,
+                                                 final String personName) {
+        if (!isValidFileExtension(fileExtension)) {
+            throw new InvalidFileExtensionException("Invalid file extension " + fileExtension);
+        }
+
+        String fileName = UUID.randomUUID() + fileExtension;
+        String imagePath = keyPrefix + fileName;
+        LOG.debug("File path to be saved {} in bucket {}", imagePath, bucket);
+        LOG.debug("Received metadata {}", personName);
+
+        PresignedPutObjectRequest requestObject = presigner.presignPutObject(req ->
+                req.putObjectRequest(obj ->
+                        obj.metadata(Collections.singletonMap("fullname", personName))
+                                .bucket(bucket)
+                                .key(imagePath)
+                                .contentType(contentType)).signatureDuration(signatureDuration));
+
+        LOG.debug("Generated pre signed url {}", requestObject.url());
+        LOG.debug("Generated pre signed details meta {}", requestObject.signedHeaders());
+
+        return new ImageUploadHandler.ResponseBody(requestObject.url().toString(), fileName);
+    }
+
+    public static class InvalidFileExtensionException extends RuntimeException {
+        public InvalidFileExtensionException(final String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.webapp.function;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveRateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long COOL_DOWN = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private long now = 42 * SECOND;
+    private final AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(1, 10, () -> now);
+
+    @Test
+    public void startsWithASecondWorthOfTokensAtTheMaximumRate() {
+        for (int call = 0; call < 10; call++) {
+            assertEquals(0, limiter.reserve(0));
+        }
+
+        assertEquals(SECOND / 10, limiter.reserve(SECOND));
+        assertEquals(10, limiter.rate(), 0);
+    }
+
+    @Test
+    public void reservesNothingWhenTheWaitIsTooLong() {
+        drain();
+
+        assertEquals(-1, limiter.reserve(SECOND / 20));
+        assertEquals(SECOND / 10, limiter.reserve(SECOND / 10));
+    }
+
+    @Test
+    public void refillsAtTheCurrentRate() {
+        drain();
+        now += SECOND / 2;
+
+        for (int call = 0; call < 5; call++) {
+            assertEquals(0, limiter.reserve(0));
+        }
+        assertEquals(-1, limiter.reserve(0));
+    }
+
+    @Test
+    public void halvesTheRateOnceForABurstOfThrottledCalls() {
+        limiter.onThrottle();
+        limiter.onThrottle();
+        now += COOL_DOWN - 1;
+        limiter.onThrottle();
+
+        assertEquals(5, limiter.rate(), 0);
+
+        now += 1;
+        limiter.onThrottle();
+
+        assertEquals(2.5, limiter.rate(), 0);
+    }
+
+    @Test
+    public void emptiesTheBucketWhenThrottled() {
+        limiter.onThrottle();
+
+        assertEquals(SECOND / 5, limiter.reserve(SECOND));
+    }
+
+    @Test
+    public void neverGoesUnderTheMinimumRate() {
+        for (int throttle = 0; throttle < 10; throttle++) {
+            limiter.onThrottle();
+            now += COOL_DOWN;
+        }
+
+        assertEquals(1, limiter.rate(), 0);
+    }
+
+    @Test
+    public void recoversByAboutOneCallPerSecondEachSecond() {
+        limiter.onThrottle();
+        limiter.onSuccess();
+
+        assertEquals(5.2, limiter.rate(), 1e-9);
+
+        // Five seconds of successes at the rate allowed add about five calls per second
+        double rate = limiter.rate();
+        for (double elapsed = 0; elapsed < 5; elapsed += 1 / rate) {
+            limiter.onSuccess();
+            rate = limiter.rate();
+        }
+
+        assertTrue("rate " + rate, rate > 9 && rate <= 10);
+    }
+
+    @Test
+    public void neverGoesOverTheMaximumRate() {
+        limiter.onThrottle();
+
+        for (int success = 0; success < 1_000; success++) {
+            limiter.onSuccess();
+        }
+
+        assertEquals(10, limiter.rate(), 0);
+    }
+
+    @Test
+    public void keepsItsTokensWhenTheClockStepsBack() {
+        now -= 1_000 * SECOND;
+
+        assertEquals(0, limiter.reserve(0));
+        limiter.onThrottle();
+        assertEquals(5, limiter.rate(), 0);
+    }
+
+    @Test
+    public void keepsBackingOffWhenTheClockStepsBackAfterAThrottle() {
+        limiter.onThrottle();
+        now -= 1_000 * SECOND;
+        limiter.onThrottle();
+
+        assertEquals(2.5, limiter.rate(), 0);
+    }
+
+    @Test
+    public void refillsFromTheClockItRestartsAt() {
+        drain();
+        limiter.onThrottle();
+        now -= 1_000 * SECOND;
+        limiter.restartClock();
+
+        for (int call = 0; call < 5; call++) {
+            assertEquals(0, limiter.reserve(0));
+        }
+        assertEquals(SECOND / 5, limiter.reserve(SECOND));
+
+        now += SECOND;
+        limiter.onThrottle();
+        assertEquals(2.5, limiter.rate(), 0);
+    }
+
+    private void drain() {
+        while (limiter.reserve(0) == 0) {
+            // take every token available now
+        }
+    }
+}
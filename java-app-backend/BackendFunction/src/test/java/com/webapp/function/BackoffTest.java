@@ -0,0 +1,42 @@
+package com.webapp.function;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class BackoffTest {
+
+    @Test
+    public void delaysStayUnderTheDoublingCap() {
+        Backoff backoff = new Backoff(50, 2_000);
+
+        for (int attempt = 1; attempt <= 5; attempt++) {
+            long cap = 50L << attempt;
+            long longest = 0;
+
+            for (int draw = 0; draw < 1_000; draw++) {
+                long delay = backoff.delayMillis(attempt);
+                assertTrue("attempt " + attempt + " delay " + delay, delay >= 0 && delay <= cap);
+                longest = Math.max(longest, delay);
+            }
+
+            assertTrue("attempt " + attempt + " never came close to its cap", longest > cap / 2);
+        }
+    }
+
+    @Test
+    public void delaysStopGrowingAtTheMaximum() {
+        Backoff backoff = new Backoff(100, 2_000);
+
+        for (int attempt = 5; attempt <= 100; attempt++) {
+            assertTrue(backoff.delayMillis(attempt) <= 2_000);
+        }
+    }
+
+    @Test
+    public void completesAfterTheDelay() throws Exception {
+        new Backoff(1, 1).after(1).get(1, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,72 @@
+package com.webapp.function;
+
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class Base64ImageDecoderTest {
+
+    @Test
+    public void decodesAsTheJdkDecoderDoes() {
+        Random random = new Random(42);
+
+        for (int length = 0; length < 64; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            String padded = Base64.getEncoder().encodeToString(bytes);
+            String unpadded = Base64.getEncoder().withoutPadding().encodeToString(bytes);
+
+            assertArrayEquals(padded, bytes, Base64ImageDecoder.decode(padded));
+            assertArrayEquals(unpadded, bytes, Base64ImageDecoder.decode(unpadded));
+        }
+    }
+
+    @Test
+    public void decodesEmptyInput() {
+        assertEquals(0, Base64ImageDecoder.decode("").length);
+    }
+
+    @Test
+    public void rejectsInvalidPadding() {
+        assertInvalid("AB=");
+        assertInvalid("ABC==");
+        assertInvalid("A===");
+        assertInvalid("====");
+        assertInvalid("AB=C");
+    }
+
+    @Test
+    public void rejectsALastUnitOfOneCharacter() {
+        assertInvalid("A");
+        assertInvalid("ABCDE");
+    }
+
+    @Test
+    public void rejectsCharactersOutsideTheAlphabet() {
+        assertInvalid("AB-_");
+        assertInvalid("AB\nC");
+        assertInvalid("ABC\u00e9");
+        assertInvalid("data:image/png;base64,AAAA");
+    }
+
+    private static void assertInvalid(final String encoded) {
+        try {
+            Base64.getDecoder().decode(encoded);
+            fail("JDK decoder accepted " + encoded);
+        } catch (IllegalArgumentException expected) {
+            // Both decoders reject it
+        }
+
+        try {
+            Base64ImageDecoder.decode(encoded);
+            fail("Decoded " + encoded);
+        } catch (IllegalArgumentException expected) {
+            // Rejected as invalid base 64
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.webapp.function;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.cloudwatchlogs.emf.config.EnvironmentConfigurationProvider;
+import software.amazon.cloudwatchlogs.emf.environment.Environments;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class BulkIndexerTest {
+    private static final int PAGE_SIZE = 10;
+    private static final int BATCH_SIZE = 4;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> keys = new ArrayList<>();
+    private final List<String> indexed = new ArrayList<>();
+    private String crashAt;
+
+    @BeforeClass
+    public static void printMetrics() {
+        EnvironmentConfigurationProvider.getConfig().setEnvironmentOverride(Environments.Local);
+    }
+
+    @Test
+    public void resumesAfterTheLastCompletedBatch() throws IOException {
+        keys.add("bulk/folder/");
+        for (int i = 0; i < 25; i++) {
+            keys.add(String.format("bulk/image-%03d.jpg", i));
+        }
+        Collections.sort(keys);
+        Path file = folder.getRoot().toPath().resolve("bulk.checkpoint");
+
+        // Batches do not span pages, the one of image-013 dies with the process after four batches were saved
+        crashAt = "bulk/image-013.jpg";
+        try {
+            bulkIndexer().run(BulkIndexer.Checkpoint.load(file, "bucket", "bulk/"));
+            fail("the indexer did not crash");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+
+        BulkIndexer.Checkpoint saved = BulkIndexer.Checkpoint.load(file, "bucket", "bulk/");
+        assertEquals("bulk/image-012.jpg", saved.startAfter());
+        assertEquals(12, saved.indexed());
+        assertEquals(1, saved.failed());
+
+        crashAt = null;
+        indexed.clear();
+        bulkIndexer().run(saved);
+
+        assertEquals(keys.subList(keys.indexOf("bulk/image-013.jpg"), keys.size()), indexed);
+        assertEquals("bulk/image-024.jpg", saved.startAfter());
+        assertEquals(24, saved.indexed());
+        assertEquals(1, saved.failed());
+        assertEquals(Collections.singletonList("bulk/image-005.jpg\tcorrupt image"),
+                Files.readAllLines(file.resolveSibling("bulk.checkpoint.failed"), StandardCharsets.UTF_8));
+
+        BulkIndexer.Checkpoint done = BulkIndexer.Checkpoint.load(file, "bucket", "bulk/");
+        assertEquals("bulk/image-024.jpg", done.startAfter());
+        assertEquals(24, done.indexed());
+    }
+
+    @Test
+    public void skipsFolderPlaceholders() throws IOException {
+        keys.add("bulk/a/");
+        keys.add("bulk/a/image.jpg");
+        keys.add("bulk/b/");
+
+        BulkIndexer.Checkpoint checkpoint = BulkIndexer.Checkpoint.load(folder.getRoot().toPath().resolve("c"),
+                "bucket", "bulk/");
+        assertNull(checkpoint.startAfter());
+        bulkIndexer().run(checkpoint);
+
+        assertEquals(Collections.singletonList("bulk/a/image.jpg"), indexed);
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("c.failed")));
+    }
+
+    @Test
+    public void refusesTheCheckpointOfAnotherPrefix() throws IOException {
+        keys.add("bulk/image.jpg");
+        Path file = folder.getRoot().toPath().resolve("bulk.checkpoint");
+        bulkIndexer().run(BulkIndexer.Checkpoint.load(file, "bucket", "bulk/"));
+
+        try {
+            BulkIndexer.Checkpoint.load(file, "bucket", "index/static/");
+            fail("loaded the checkpoint of another prefix");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    private BulkIndexer bulkIndexer() {
+        return new BulkIndexer(new ListingS3(), images -> {
+            List<IndexImageHandler.IndexRecordResult> results = new ArrayList<>();
+
+            for (IndexImageHandler.UploadedImage image : images) {
+                if (image.getKey().equals(crashAt)) {
+                    throw new IllegalStateException("crashed");
+                }
+            }
+
+            for (IndexImageHandler.UploadedImage image : images) {
+                indexed.add(image.getKey());
+                results.add(image.getKey().equals("bulk/image-005.jpg")
+                        ? IndexImageHandler.IndexRecordResult.failed(image, new IllegalArgumentException("corrupt image"))
+                        : IndexImageHandler.IndexRecordResult.indexed(image.getBucket(), image.getKey(), "Jane",
+                        Collections.emptyList()));
+            }
+
+            return results;
+        }, BATCH_SIZE, 1_000);
+    }
+
+    /**
+     * Lists the keys in order, a page at a time, after the start key. Like the S3 one, the continuation token holds
+     * the last key listed.
+     */
+    private final class ListingS3 implements S3Calls {
+
+        @Override
+        public CompletableFuture<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request request) {
+            List<String> listed = keys.stream()
+                    .filter(key -> key.startsWith(request.prefix()))
+                    .filter(key -> request.startAfter() == null || key.compareTo(request.startAfter()) > 0)
+                    .filter(key -> request.continuationToken() == null || key.compareTo(request.continuationToken()) > 0)
+                    .collect(toList());
+            List<String> page = listed.subList(0, Math.min(listed.size(), PAGE_SIZE));
+
+            return CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+                    .contents(page.stream()
+                            .map(key -> S3Object.builder().key(key).build())
+                            .collect(toList()))
+                    .nextContinuationToken(page.size() < listed.size() ? page.get(page.size() - 1) : null)
+                    .build());
+        }
+
+        @Override
+        public CompletableFuture<HeadObjectResponse> headObject(HeadObjectRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(
+                CreateMultipartUploadRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<ListPartsResponse> listParts(ListPartsRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(
+                CompleteMultipartUploadRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(
+                AbortMultipartUploadRequest request) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
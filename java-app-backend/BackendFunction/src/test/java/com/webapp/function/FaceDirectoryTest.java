@@ -0,0 +1,104 @@
+package com.webapp.function;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FaceDirectoryTest {
+
+    @Test
+    public void findsEveryFaceAcrossGrowthAndScanPages() {
+        Random random = new Random(42);
+        Map<String, String> faces = new HashMap<>();
+        FaceDirectory.Builder builder = new FaceDirectory.Builder();
+
+        // More faces and names than the initial capacity of the arrays and the arena
+        for (int page = 0; page < 5; page++) {
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+
+            for (int i = 0; i < 1_000; i++) {
+                String faceId = new UUID(random.nextLong(), random.nextLong()).toString();
+                String fullName = "Person " + random.nextInt(1_500);
+                faces.put(faceId, fullName);
+                items.add(item(faceId, fullName));
+            }
+
+            builder.addAll(items);
+        }
+
+        FaceDirectory directory = builder.build();
+
+        assertEquals(faces.size(), directory.size());
+        faces.forEach((faceId, fullName) -> {
+            assertEquals(fullName, directory.get(faceId));
+            assertEquals(fullName, directory.get(faceId.toUpperCase()));
+        });
+        assertNull(directory.get(new UUID(random.nextLong(), random.nextLong()).toString()));
+    }
+
+    @Test
+    public void storesEveryNameOnce() {
+        FaceDirectory.Builder builder = new FaceDirectory.Builder();
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            items.add(item(UUID.randomUUID().toString(), "Zo\u00eb Doe"));
+        }
+        builder.addAll(items);
+
+        FaceDirectory directory = builder.build();
+        String faceId = items.get(7).get("RekognitionId").s();
+
+        assertEquals("Zo\u00eb Doe", directory.get(faceId));
+        // 20 bytes a face, the 8 UTF-8 bytes of the name once and two name offsets
+        assertEquals(100 * 20 + 8 + 2 * 4, directory.sizeInBytes());
+    }
+
+    @Test
+    public void keepsIdsThatAreNotUuidsAndSkipsIncompleteItems() {
+        FaceDirectory.Builder builder = new FaceDirectory.Builder();
+        String faceId = UUID.randomUUID().toString();
+        Map<String, AttributeValue> withoutName = new HashMap<>();
+        withoutName.put("RekognitionId", AttributeValue.builder().s(UUID.randomUUID().toString()).build());
+
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        items.add(item(faceId, "Jane Doe"));
+        items.add(item("legacy-face", "John Doe"));
+        items.add(withoutName);
+        items.add(Collections.singletonMap("FullName", AttributeValue.builder().s("Nobody").build()));
+        builder.addAll(items);
+
+        FaceDirectory directory = builder.build();
+
+        assertEquals(2, directory.size());
+        assertEquals("Jane Doe", directory.get(faceId));
+        assertEquals("John Doe", directory.get("legacy-face"));
+        assertNull(directory.get(withoutName.get("RekognitionId").s()));
+        assertNull(directory.get(null));
+    }
+
+    @Test
+    public void emptyDirectoryFindsNothing() {
+        assertTrue(FaceDirectory.EMPTY.isEmpty());
+        assertNull(FaceDirectory.EMPTY.get(UUID.randomUUID().toString()));
+    }
+
+    private static Map<String, AttributeValue> item(final String faceId,
+                                                    final String fullName) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("RekognitionId", AttributeValue.builder().s(faceId).build());
+        item.put("FullName", AttributeValue.builder().s(fullName).build());
+        return item;
+    }
+}
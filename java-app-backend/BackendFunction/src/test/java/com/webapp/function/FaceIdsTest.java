@@ -0,0 +1,113 @@
+package com.webapp.function;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FaceIdsTest {
+    private static final Comparator<long[]> BY_ID = (id, other) -> FaceIds.compare(id[0], id[1], other[0], other[1]);
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void parsesAsUuidDoes() {
+        long[] uuid = new long[2];
+
+        for (int i = 0; i < 1_000; i++) {
+            UUID id = new UUID(random.nextLong(), random.nextLong());
+
+            assertTrue(FaceIds.parse(id.toString(), uuid));
+            assertArrayEquals(new long[]{id.getMostSignificantBits(), id.getLeastSignificantBits()}, uuid);
+            assertTrue(FaceIds.parse(id.toString().toUpperCase(), uuid));
+            assertArrayEquals(new long[]{id.getMostSignificantBits(), id.getLeastSignificantBits()}, uuid);
+        }
+    }
+
+    @Test
+    public void rejectsIdsThatAreNotCanonicalUuids() {
+        long[] uuid = new long[2];
+        String valid = "0b1c2d3e-4f50-6172-8394-a5b6c7d8e9f0";
+
+        assertTrue(FaceIds.parse(valid, uuid));
+        assertFalse(FaceIds.parse(null, uuid));
+        assertFalse(FaceIds.parse("", uuid));
+        assertFalse(FaceIds.parse(valid.substring(1), uuid));
+        assertFalse(FaceIds.parse(valid + "0", uuid));
+        assertFalse(FaceIds.parse(valid.replace('e', 'g'), uuid));
+        assertFalse(FaceIds.parse("0b1c2d3e-4f5-06172-8394-a5b6c7d8e9f0", uuid));
+        assertFalse(FaceIds.parse("0b1c2d3e04f50-6172-8394-a5b6c7d8e9f0", uuid));
+        assertFalse(FaceIds.parse("+b1c2d3e-4f50-6172-8394-a5b6c7d8e9f0", uuid));
+    }
+
+    @Test
+    public void sortsTheIdsAndMovesTheValuesAlong() {
+        for (int size : new int[]{0, 1, 2, 3, 17, 1_000}) {
+            long[] most = new long[size];
+            long[] least = new long[size];
+            int[] values = new int[size];
+            List<long[]> expected = new ArrayList<>();
+
+            for (int i = 0; i < size; i++) {
+                // Few distinct most significant bits, so ties are broken by the least significant ones
+                most[i] = random.nextInt(4) - 2;
+                least[i] = random.nextLong();
+                values[i] = i;
+                expected.add(new long[]{most[i], least[i], i});
+            }
+            expected.sort(BY_ID);
+
+            long[] originalMost = most.clone();
+            long[] originalLeast = least.clone();
+            FaceIds.sort(most, least, values, 0, size - 1);
+
+            for (int i = 0; i < size; i++) {
+                assertEquals(expected.get(i)[0], most[i]);
+                assertEquals(expected.get(i)[1], least[i]);
+                assertEquals(originalMost[values[i]], most[i]);
+                assertEquals(originalLeast[values[i]], least[i]);
+            }
+        }
+    }
+
+    @Test
+    public void sortsDuplicatesWithoutValues() {
+        long[] most = {3, 1, 3, 1, 2, 3};
+        long[] least = {0, 5, 0, 5, 7, -1};
+
+        FaceIds.sort(most, least, null, 0, most.length - 1);
+
+        assertArrayEquals(new long[]{1, 1, 2, 3, 3, 3}, most);
+        assertArrayEquals(new long[]{5, 5, 7, -1, 0, 0}, least);
+    }
+
+    @Test
+    public void findsEveryIdOfTheSortedPrefix() {
+        int size = 500;
+        long[] most = new long[size + 10];
+        long[] least = new long[size + 10];
+
+        for (int i = 0; i < most.length; i++) {
+            most[i] = random.nextLong();
+            least[i] = random.nextLong();
+        }
+        FaceIds.sort(most, least, null, 0, size - 1);
+
+        for (int i = 0; i < size; i++) {
+            assertEquals(i, FaceIds.indexOf(most, least, size, most[i], least[i]));
+            assertEquals(-1, FaceIds.indexOf(most, least, size, most[i], least[i] + 1));
+        }
+        for (int i = size; i < most.length; i++) {
+            assertEquals(-1, FaceIds.indexOf(most, least, size, most[i], least[i]));
+        }
+        assertEquals(-1, FaceIds.indexOf(most, least, 0, most[0], least[0]));
+    }
+}
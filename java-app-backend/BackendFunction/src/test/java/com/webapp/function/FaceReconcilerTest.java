@@ -0,0 +1,290 @@
+package com.webapp.function;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.rekognition.model.CreateCollectionRequest;
+import software.amazon.awssdk.services.rekognition.model.CreateCollectionResponse;
+import software.amazon.awssdk.services.rekognition.model.DeleteCollectionRequest;
+import software.amazon.awssdk.services.rekognition.model.DeleteCollectionResponse;
+import software.amazon.awssdk.services.rekognition.model.DeleteFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.DeleteFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.Face;
+import software.amazon.awssdk.services.rekognition.model.IndexFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.IndexFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.ListFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.ListFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.SearchFacesByImageRequest;
+import software.amazon.awssdk.services.rekognition.model.SearchFacesByImageResponse;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FaceReconcilerTest {
+    private static final double MAX_ORPHAN_RATIO = 0.05;
+
+    private final Random random = new Random(42);
+    private final FaceCollection collection = new FaceCollection();
+    private final FaceTable table = new FaceTable();
+
+    @Test
+    public void keepsAFacePersistedDuringTheGracePeriod() {
+        List<String> faces = faces(40);
+        collection.faces.addAll(faces);
+        table.faceIds.addAll(faces.subList(2, 40));
+        // Indexing the first face completes while the reconciler waits
+        collection.onListed = () -> table.faceIds.add(faces.get(0));
+
+        FaceReconciler.Report report = reconciler(1, false, false).run();
+
+        assertEquals(Collections.singletonList(faces.get(1)), collection.deleted);
+        assertEquals(40, report.collectionFaces());
+        assertEquals(1, report.persistedSinceScan());
+        assertEquals(1, report.orphans());
+        assertEquals(1, report.deleted());
+    }
+
+    @Test
+    public void deletesNothingWhenTheOrphansAreAboveTheMaximumShare() {
+        fillWithOrphans(20, 5);
+
+        try {
+            reconciler(1, false, false).run();
+            fail("deleted 5 orphans out of 20 faces");
+        } catch (FaceReconciler.TooManyOrphansException expected) {
+            // expected
+        }
+
+        assertTrue(collection.deleted.isEmpty());
+        assertEquals(20, collection.faces.size());
+    }
+
+    @Test
+    public void deletesTheOrphansAboveTheMaximumShareWhenForced() {
+        List<String> orphans = fillWithOrphans(20, 5);
+
+        FaceReconciler.Report report = reconciler(1, false, true).run();
+
+        assertEquals(new HashSet<>(orphans), new HashSet<>(collection.deleted));
+        assertEquals(5, report.deleted());
+        assertEquals(15, collection.faces.size());
+    }
+
+    @Test
+    public void deletesNothingOnADryRun() {
+        fillWithOrphans(20, 5);
+
+        FaceReconciler.Report report = reconciler(1, true, false).run();
+
+        assertTrue(collection.deleted.isEmpty());
+        assertEquals(5, report.orphans());
+        assertEquals(0, report.deleted());
+    }
+
+    @Test
+    public void findsTheSameOrphansOverSeveralPartitions() {
+        List<String> orphans = fillWithOrphans(200, 10);
+        for (String itemWithoutFace : faces(30)) {
+            table.faceIds.add(itemWithoutFace);
+        }
+        List<String> faces = new ArrayList<>(collection.faces);
+        Set<String> faceIds = new HashSet<>(table.faceIds);
+
+        FaceReconciler.Report whole = reconciler(1, false, false).run();
+        List<String> deletedWhole = new ArrayList<>(collection.deleted);
+
+        collection.faces.clear();
+        collection.faces.addAll(faces);
+        collection.deleted.clear();
+        table.faceIds.clear();
+        table.faceIds.addAll(faceIds);
+
+        FaceReconciler.Report partitioned = reconciler(3, false, false).run();
+
+        assertEquals(new HashSet<>(orphans), new HashSet<>(deletedWhole));
+        assertEquals(new HashSet<>(deletedWhole), new HashSet<>(collection.deleted));
+        assertEquals(whole.collectionFaces(), partitioned.collectionFaces());
+        assertEquals(whole.tableFaces(), partitioned.tableFaces());
+        assertEquals(whole.orphans(), partitioned.orphans());
+        assertEquals(30, partitioned.itemsWithoutFace());
+    }
+
+    private FaceReconciler reconciler(final int partitions,
+                                      final boolean dryRun,
+                                      final boolean force) {
+        return new FaceReconciler(collection, table, "collection", "face-ids", 2, partitions, 0, MAX_ORPHAN_RATIO,
+                dryRun, force);
+    }
+
+    /**
+     * @return the faces of the collection left without an item
+     */
+    private List<String> fillWithOrphans(final int count,
+                                         final int orphans) {
+        List<String> faces = faces(count);
+        collection.faces.addAll(faces);
+        table.faceIds.addAll(faces.subList(orphans, count));
+        return faces.subList(0, orphans);
+    }
+
+    private List<String> faces(final int count) {
+        List<String> faces = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            faces.add(new UUID(random.nextLong(), random.nextLong()).toString());
+        }
+        return faces;
+    }
+
+    /**
+     * Collection listed in pages of 16 faces, with the index of the next face as token.
+     */
+    private static final class FaceCollection implements RekognitionCalls {
+        private static final int PAGE_SIZE = 16;
+
+        private final List<String> faces = new ArrayList<>();
+        private final List<String> deleted = new ArrayList<>();
+        private Runnable onListed = () -> {
+        };
+
+        @Override
+        public synchronized CompletableFuture<ListFacesResponse> listFaces(ListFacesRequest request) {
+            int from = request.nextToken() == null ? 0 : Integer.parseInt(request.nextToken());
+            int to = Math.min(faces.size(), from + PAGE_SIZE);
+
+            if (to == faces.size()) {
+                onListed.run();
+            }
+
+            return CompletableFuture.completedFuture(ListFacesResponse.builder()
+                    .faces(faces.subList(from, to).stream()
+                            .map(faceId -> Face.builder().faceId(faceId).build())
+                            .collect(toList()))
+                    .nextToken(to < faces.size() ? String.valueOf(to) : null)
+                    .build());
+        }
+
+        @Override
+        public synchronized CompletableFuture<DeleteFacesResponse> deleteFaces(DeleteFacesRequest request) {
+            List<String> removed = request.faceIds().stream()
+                    .filter(faces::remove)
+                    .collect(toList());
+            deleted.addAll(removed);
+
+            return CompletableFuture.completedFuture(DeleteFacesResponse.builder()
+                    .deletedFaces(removed)
+                    .build());
+        }
+
+        @Override
+        public CompletableFuture<SearchFacesByImageResponse> searchFacesByImage(SearchFacesByImageRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<IndexFacesResponse> indexFaces(IndexFacesRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<DetectFacesResponse> detectFaces(DetectFacesRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<CreateCollectionResponse> createCollection(CreateCollectionRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<DeleteCollectionResponse> deleteCollection(DeleteCollectionRequest request) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Table keyed on RekognitionId, scanned as one page per segment.
+     */
+    private static final class FaceTable implements DynamoDbCalls {
+        private final Set<String> faceIds = Collections.synchronizedSet(new HashSet<>());
+
+        @Override
+        public CompletableFuture<ScanResponse> scan(ScanRequest request) {
+            List<Map<String, AttributeValue>> items;
+            synchronized (faceIds) {
+                items = faceIds.stream()
+                        .filter(faceId -> Math.floorMod(faceId.hashCode(), request.totalSegments()) == request.segment())
+                        .map(FaceTable::item)
+                        .collect(toList());
+            }
+
+            return CompletableFuture.completedFuture(ScanResponse.builder()
+                    .items(items)
+                    .build());
+        }
+
+        @Override
+        public CompletableFuture<BatchGetItemResponse> batchGetItem(BatchGetItemRequest request) {
+            Map.Entry<String, ?> table = request.requestItems().entrySet().iterator().next();
+            List<Map<String, AttributeValue>> found = request.requestItems().get(table.getKey()).keys().stream()
+                    .map(key -> key.get("RekognitionId").s())
+                    .filter(faceIds::contains)
+                    .map(FaceTable::item)
+                    .collect(toList());
+
+            return CompletableFuture.completedFuture(BatchGetItemResponse.builder()
+                    .responses(Collections.singletonMap(table.getKey(), found))
+                    .build());
+        }
+
+        @Override
+        public CompletableFuture<GetItemResponse> getItem(GetItemRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<PutItemResponse> putItem(PutItemRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<DeleteItemResponse> deleteItem(DeleteItemRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<BatchWriteItemResponse> batchWriteItem(BatchWriteItemRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        private static Map<String, AttributeValue> item(final String faceId) {
+            return Collections.singletonMap("RekognitionId", AttributeValue.builder()
+                    .s(faceId)
+                    .build());
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.webapp.function;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImagePreprocessorTest {
+
+    private final ImagePreprocessor preprocessor = new ImagePreprocessor(150, 0.9f, 1_000_000);
+
+    @Test
+    public void readsJpegDimensions() throws IOException {
+        ImagePreprocessor.ImageHeader header = ImagePreprocessor.ImageHeader.read(image("jpeg", 200, 100));
+
+        assertEquals("JPEG", header.format);
+        assertEquals(200, header.width);
+        assertEquals(100, header.height);
+        assertEquals(ImagePreprocessor.ImageHeader.ORIENTATION_NORMAL, header.orientation);
+    }
+
+    @Test
+    public void readsPngDimensions() throws IOException {
+        ImagePreprocessor.ImageHeader header = ImagePreprocessor.ImageHeader.read(image("png", 120, 90));
+
+        assertEquals("PNG", header.format);
+        assertEquals(120, header.width);
+        assertEquals(90, header.height);
+    }
+
+    @Test
+    public void readsTheExifOrientation() throws IOException {
+        for (boolean littleEndian : new boolean[]{true, false}) {
+            byte[] jpeg = withExifOrientation(image("jpeg", 200, 100), 6, littleEndian);
+
+            assertEquals(6, ImagePreprocessor.ImageHeader.read(jpeg).orientation);
+        }
+    }
+
+    @Test
+    public void ignoresAnExifDirectoryOutsideTheSegment() throws IOException {
+        byte[] jpeg = withExifOrientation(image("jpeg", 200, 100), 6, true);
+        // Offset of the first IFD from the TIFF header, pointing past the end of the segment
+        jpeg[2 + 4 + 6 + 4] = (byte) 200;
+
+        assertEquals(ImagePreprocessor.ImageHeader.ORIENTATION_NORMAL,
+                ImagePreprocessor.ImageHeader.read(jpeg).orientation);
+    }
+
+    @Test
+    public void rejectsTruncatedHeaders() throws IOException {
+        byte[] jpeg = image("jpeg", 200, 100);
+        byte[] png = image("png", 200, 100);
+
+        assertInvalid(Arrays.copyOf(jpeg, 20));
+        assertInvalid(Arrays.copyOf(png, 20));
+        assertInvalid(new byte[]{(byte) 0xFF, (byte) 0xD8});
+        assertInvalid(new byte[0]);
+    }
+
+    @Test
+    public void rejectsCorruptHeaders() throws IOException {
+        byte[] png = image("png", 200, 100);
+        png[12] = 'X';
+        byte[] jpeg = image("jpeg", 200, 100);
+        jpeg[2 + 2 + 16] = 0;
+
+        assertInvalid(png);
+        assertInvalid(jpeg);
+        assertInvalid("GIF89a and some more bytes to pass".getBytes());
+    }
+
+    @Test
+    public void rejectsImagesBelowTheMinimumDimension() throws IOException {
+        assertInvalid(image("jpeg", 200, 79));
+    }
+
+    @Test
+    public void rejectsImagesOverThePixelBudgetBeforeDecodingThem() throws IOException {
+        byte[] png = image("png", 100, 100);
+        // Declares 30000x30000 pixels in an otherwise tiny file
+        writeInt32(png, 16, 30000);
+        writeInt32(png, 20, 30000);
+
+        assertInvalid(png);
+    }
+
+    @Test
+    public void rejectsImagesOverTheSizeLimitBeforeParsingThem() {
+        byte[] image = new byte[5 * 1024 * 1024 + 1];
+
+        assertInvalid(image);
+    }
+
+    @Test
+    public void keepsImagesWithinTheMaximumDimension() throws IOException {
+        byte[] jpeg = image("jpeg", 150, 100);
+
+        assertSame(jpeg, preprocessor.prepare(jpeg).bytes());
+    }
+
+    @Test
+    public void downscalesImagesOverTheMaximumDimension() throws IOException {
+        BufferedImage prepared = decode(preprocessor.prepare(image("png", 600, 300)).bytes());
+
+        assertEquals(150, prepared.getWidth());
+        assertEquals(75, prepared.getHeight());
+    }
+
+    @Test
+    public void appliesTheExifOrientationWhenDownscaling() throws IOException {
+        byte[] jpeg = withExifOrientation(image("jpeg", 600, 300), 6, false);
+        BufferedImage prepared = decode(preprocessor.prepare(jpeg).bytes());
+
+        assertEquals(75, prepared.getWidth());
+        assertEquals(150, prepared.getHeight());
+        // The marked top left corner of the stored image is the top right one once turned clockwise
+        assertRed(prepared.getRGB(prepared.getWidth() - 3, 2));
+    }
+
+    @Test
+    public void appliesTheExifOrientationWhenDecodingForCrops() throws IOException {
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            byte[] jpeg = withExifOrientation(image("jpeg", 200, 100), orientation, true);
+            BufferedImage decoded = preprocessor.decode(jpeg);
+            boolean swapped = orientation >= ImagePreprocessor.ImageHeader.ORIENTATION_TRANSPOSE;
+
+            assertEquals(swapped ? 100 : 200, decoded.getWidth());
+            assertEquals(swapped ? 200 : 100, decoded.getHeight());
+
+            // Where the stored top left corner ends up, per EXIF orientation
+            int right = decoded.getWidth() - 3;
+            int bottom = decoded.getHeight() - 3;
+            int[][] corners = {{2, 2}, {right, 2}, {right, bottom}, {2, bottom}, {2, 2}, {right, 2}, {right, bottom},
+                    {2, bottom}};
+            assertRed(decoded.getRGB(corners[orientation - 1][0], corners[orientation - 1][1]));
+        }
+    }
+
+    private void assertInvalid(final byte[] image) {
+        try {
+            preprocessor.prepare(image);
+            fail("Prepared an invalid image");
+        } catch (ImagePreprocessor.InvalidImageException expected) {
+            // Rejected before any remote call
+        }
+    }
+
+    private static void assertRed(final int rgb) {
+        Color color = new Color(rgb);
+        assertTrue("Not red: " + color, color.getRed() > 200 && color.getGreen() < 60 && color.getBlue() < 60);
+    }
+
+    /**
+     * Grey image with its top left corner marked red.
+     */
+    private static byte[] image(final String format,
+                                final int width,
+                                final int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.GRAY);
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, 16, 16);
+        graphics.dispose();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(final byte[] image) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(image));
+    }
+
+    /**
+     * Inserts an APP1 segment holding an EXIF IFD with the orientation tag alone, right after the start of image.
+     */
+    private static byte[] withExifOrientation(final byte[] jpeg,
+                                              final int orientation,
+                                              final boolean littleEndian) {
+        byte[] tiff = littleEndian
+                ? new byte[]{'I', 'I', 0x2A, 0, 8, 0, 0, 0, 1, 0, 0x12, 0x01, 3, 0, 1, 0, 0, 0,
+                (byte) orientation, 0, 0, 0, 0, 0, 0, 0}
+                : new byte[]{'M', 'M', 0, 0x2A, 0, 0, 0, 8, 0, 1, 0x01, 0x12, 0, 3, 0, 0, 0, 1,
+                0, (byte) orientation, 0, 0, 0, 0, 0, 0};
+        int length = 2 + 6 + tiff.length;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        out.write(0xFF);
+        out.write(0xE1);
+        out.write(length >> 8);
+        out.write(length);
+        out.write(new byte[]{'E', 'x', 'i', 'f', 0, 0}, 0, 6);
+        out.write(tiff, 0, tiff.length);
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    private static void writeInt32(final byte[] bytes,
+                                   final int offset,
+                                   final int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,136 @@
+package com.webapp.function;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import static org.junit.Assert.assertEquals;
+
+public class IndexedImagesTest {
+    private static final String CONTENT = "collection#etag#1024";
+
+    private final ClaimTable table = new ClaimTable();
+
+    @Test
+    public void retriesContentBeingIndexedUntilTheFirstAttemptFailsAndReleasesIt() {
+        IndexedImages indexedImages = new IndexedImages(table, "indexed-images", 60_000);
+
+        assertEquals(IndexedImages.Claim.CLAIMED, indexedImages.claim(CONTENT, "bulk/a.jpg").join());
+        // A duplicate notification while the first attempt runs must be retried, not counted as indexed
+        assertEquals(IndexedImages.Claim.INDEXING, indexedImages.claim(CONTENT, "bulk/a.jpg").join());
+
+        indexedImages.release(CONTENT).join();
+
+        assertEquals(IndexedImages.Claim.CLAIMED, indexedImages.claim(CONTENT, "bulk/a.jpg").join());
+    }
+
+    @Test
+    public void skipsContentOnlyOnceItIsIndexed() {
+        IndexedImages indexedImages = new IndexedImages(table, "indexed-images", 60_000);
+
+        assertEquals(IndexedImages.Claim.CLAIMED, indexedImages.claim(CONTENT, "index/static/a.jpg").join());
+        indexedImages.markIndexed(Collections.singletonMap(CONTENT, Arrays.asList("face-1", "face-2")));
+
+        assertEquals(IndexedImages.Claim.INDEXED, indexedImages.claim(CONTENT, "index/static/b.jpg").join());
+        assertEquals("INDEXED", table.items.get(CONTENT).get("State").s());
+    }
+
+    @Test
+    public void takesOverAClaimLeftPastTheTimeout() throws InterruptedException {
+        IndexedImages indexedImages = new IndexedImages(table, "indexed-images", 0);
+
+        assertEquals(IndexedImages.Claim.CLAIMED, indexedImages.claim(CONTENT, "bulk/a.jpg").join());
+        Thread.sleep(5);
+
+        assertEquals(IndexedImages.Claim.CLAIMED, indexedImages.claim(CONTENT, "bulk/a.jpg").join());
+    }
+
+    @Test
+    public void claimsEverythingWithoutATable() {
+        IndexedImages indexedImages = new IndexedImages(table, null, 60_000);
+
+        assertEquals(IndexedImages.Claim.CLAIMED, indexedImages.claim(CONTENT, "bulk/a.jpg").join());
+        assertEquals(IndexedImages.Claim.CLAIMED, indexedImages.claim(CONTENT, "bulk/a.jpg").join());
+    }
+
+    /**
+     * Table keyed on ContentKey, which applies the condition of a claim.
+     */
+    private static final class ClaimTable implements DynamoDbCalls {
+        private final Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+
+        @Override
+        public synchronized CompletableFuture<PutItemResponse> putItem(PutItemRequest request) {
+            Map<String, AttributeValue> existing = items.get(request.item().get("ContentKey").s());
+
+            if (existing != null) {
+                String state = existing.get("State").s();
+                AttributeValue claimedAt = existing.get("ClaimedAt");
+                long stale = Long.parseLong(request.expressionAttributeValues().get(":stale").n());
+
+                if (!state.equals("INDEXING") || claimedAt == null || Long.parseLong(claimedAt.n()) >= stale) {
+                    CompletableFuture<PutItemResponse> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(ConditionalCheckFailedException.builder()
+                            .message("The conditional request failed")
+                            .build());
+                    return failed;
+                }
+            }
+
+            items.put(request.item().get("ContentKey").s(), request.item());
+            return CompletableFuture.completedFuture(PutItemResponse.builder().build());
+        }
+
+        @Override
+        public synchronized CompletableFuture<GetItemResponse> getItem(GetItemRequest request) {
+            Map<String, AttributeValue> item = items.get(request.key().get("ContentKey").s());
+
+            return CompletableFuture.completedFuture(item == null
+                    ? GetItemResponse.builder().build()
+                    : GetItemResponse.builder().item(item).build());
+        }
+
+        @Override
+        public synchronized CompletableFuture<DeleteItemResponse> deleteItem(DeleteItemRequest request) {
+            items.remove(request.key().get("ContentKey").s());
+            return CompletableFuture.completedFuture(DeleteItemResponse.builder().build());
+        }
+
+        @Override
+        public synchronized CompletableFuture<BatchWriteItemResponse> batchWriteItem(BatchWriteItemRequest request) {
+            for (WriteRequest write : request.requestItems().values().iterator().next()) {
+                items.put(write.putRequest().item().get("ContentKey").s(), write.putRequest().item());
+            }
+            return CompletableFuture.completedFuture(BatchWriteItemResponse.builder().build());
+        }
+
+        @Override
+        public CompletableFuture<BatchGetItemResponse> batchGetItem(BatchGetItemRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<ScanResponse> scan(ScanRequest request) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
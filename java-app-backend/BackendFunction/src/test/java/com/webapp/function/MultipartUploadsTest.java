@@ -0,0 +1,135 @@
+package com.webapp.function;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.model.Part;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultipartUploadsTest {
+    private static final long MB = 1024 * 1024;
+
+    private final FakeS3 s3 = new FakeS3();
+    private final MultipartUploads uploads = new MultipartUploads(s3, null, "bucket", 5 * MB, 15 * MB,
+            Duration.ofMinutes(15));
+
+    @Test
+    public void completesAnUploadWithinTheMaximum() {
+        s3.parts.add(part(1, 5 * MB));
+        s3.parts.add(part(2, 5 * MB));
+        s3.parts.add(part(3, 5 * MB));
+
+        assertEquals(UploadUrlSigner.KEY_PREFIX + "a-b.jpg", uploads.complete("a-b.jpg", "upload").join());
+        assertEquals(3, s3.completed.multipartUpload().parts().size());
+        assertNull(s3.aborted);
+    }
+
+    @Test
+    public void abortsAnUploadWhosePartsAreAboveTheMaximum() {
+        s3.parts.add(part(1, 5 * MB));
+        s3.parts.add(part(2, 5 * MB));
+        s3.parts.add(part(3, 5 * MB));
+        s3.parts.add(part(4, 1));
+
+        try {
+            uploads.complete("a-b.jpg", "upload").join();
+            fail("completed an upload above the maximum");
+        } catch (CompletionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof MultipartUploads.InvalidUploadException);
+        }
+
+        assertNull(s3.completed);
+        assertEquals("upload", s3.aborted.uploadId());
+        assertEquals(UploadUrlSigner.KEY_PREFIX + "a-b.jpg", s3.aborted.key());
+    }
+
+    @Test
+    public void rejectsAnExtensionOutsideTheFileNamePattern() {
+        for (String extension : new String[]{"/../../evil.jpg", ".jpg/x", ". jpg", ".jpg.exe"}) {
+            try {
+                uploads.start("image/jpeg", extension, "Jane", MB);
+                fail("started an upload with extension " + extension);
+            } catch (MultipartUploads.InvalidUploadException expected) {
+                // expected
+            }
+        }
+
+        assertEquals(0, s3.created);
+    }
+
+    private static Part part(final int partNumber,
+                             final long size) {
+        return Part.builder()
+                .partNumber(partNumber)
+                .eTag("etag-" + partNumber)
+                .size(size)
+                .build();
+    }
+
+    private static final class FakeS3 implements S3Calls {
+        private final List<Part> parts = new ArrayList<>();
+        private int created;
+        private CompleteMultipartUploadRequest completed;
+        private AbortMultipartUploadRequest aborted;
+
+        @Override
+        public CompletableFuture<HeadObjectResponse> headObject(HeadObjectRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(
+                CreateMultipartUploadRequest request) {
+            created++;
+            return CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder()
+                    .uploadId("upload")
+                    .build());
+        }
+
+        @Override
+        public CompletableFuture<ListPartsResponse> listParts(ListPartsRequest request) {
+            return CompletableFuture.completedFuture(ListPartsResponse.builder()
+                    .parts(parts)
+                    .build());
+        }
+
+        @Override
+        public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(
+                CompleteMultipartUploadRequest request) {
+            completed = request;
+            return CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().build());
+        }
+
+        @Override
+        public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(
+                AbortMultipartUploadRequest request) {
+            aborted = request;
+            return CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build());
+        }
+    }
+}
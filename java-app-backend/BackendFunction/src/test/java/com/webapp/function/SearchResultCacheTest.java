@@ -0,0 +1,69 @@
+package com.webapp.function;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.rekognition.model.FaceMatch;
+
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SearchResultCacheTest {
+
+    // No match is cached too, and weighs the entry overhead alone
+    private static final List<FaceMatch> MATCHES = new ArrayList<>();
+
+    @Test
+    public void servesTheSameImageSearchedWithTheSameOptions() {
+        SearchResultCache cache = new SearchResultCache(1024 * 1024, 60);
+        byte[] image = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+        cache.put(SearchResultCache.fingerprint(image).withSearchOptions(1, 90f), MATCHES);
+
+        assertSame(MATCHES, cache.get(SearchResultCache.fingerprint(image.clone()).withSearchOptions(1, 90f)));
+        assertNull(cache.get(SearchResultCache.fingerprint(image).withSearchOptions(1, 80f)));
+        assertNull(cache.get(SearchResultCache.fingerprint(image).withSearchOptions(5, 90f)));
+    }
+
+    @Test
+    public void doesNotServeAnotherImageOfTheSameLength() {
+        SearchResultCache cache = new SearchResultCache(1024 * 1024, 60);
+        byte[] image = new byte[4096];
+        byte[] other = new byte[4096];
+        other[4095] = 1;
+
+        cache.put(SearchResultCache.fingerprint(image), MATCHES);
+
+        assertNotEquals(SearchResultCache.fingerprint(image), SearchResultCache.fingerprint(other));
+        assertNull(cache.get(SearchResultCache.fingerprint(other)));
+    }
+
+    @Test
+    public void expiresEntriesAfterTheTtl() {
+        SearchResultCache cache = new SearchResultCache(1024 * 1024, 0);
+        byte[] image = {1, 2, 3};
+
+        cache.put(SearchResultCache.fingerprint(image), MATCHES);
+
+        assertNull(cache.get(SearchResultCache.fingerprint(image)));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntryOverTheBudget() {
+        SearchResultCache cache = new SearchResultCache(2 * 128, 60);
+        SearchResultCache.Fingerprint first = SearchResultCache.fingerprint(new byte[]{1});
+        SearchResultCache.Fingerprint second = SearchResultCache.fingerprint(new byte[]{2});
+        SearchResultCache.Fingerprint third = SearchResultCache.fingerprint(new byte[]{3});
+
+        cache.put(first, MATCHES);
+        cache.put(second, MATCHES);
+        cache.get(first);
+        cache.put(third, MATCHES);
+
+        assertSame(MATCHES, cache.get(first));
+        assertNull(cache.get(second));
+        assertSame(MATCHES, cache.get(third));
+    }
+}
@@ -0,0 +1,91 @@
+package com.webapp.function;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import org.junit.Test;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SqsBatchIndexerTest {
+    private final List<IndexImageHandler.UploadedImage> indexed = new ArrayList<>();
+
+    // Fails the images whose key contains "fail", indexes the others
+    private final SqsBatchIndexer indexer = new SqsBatchIndexer(images -> {
+        indexed.addAll(images);
+        return images.stream()
+                .map(image -> image.getKey().contains("fail")
+                        ? IndexImageHandler.IndexRecordResult.failed(image, new IllegalStateException("failed"))
+                        : IndexImageHandler.IndexRecordResult.indexed(image.getBucket(), image.getKey(), "Jane",
+                        Collections.emptyList()))
+                .collect(toList());
+    });
+
+    @Test
+    public void reportsOnlyTheMessagesWithAFailedImageInBatchOrder() {
+        SqsBatchIndexer.Batch batch = indexer.index(Arrays.asList(
+                message("m1", notification("bulk/a.jpg")),
+                message("m2", notification("bulk/fail-b.jpg", "bulk/c.jpg")),
+                message("m3", notification("bulk/d.jpg")),
+                message("m4", notification("bulk/fail-e.jpg"))));
+
+        assertEquals(Arrays.asList("m2", "m4"), failedMessageIds(batch));
+        assertEquals(5, batch.results().size());
+        assertEquals(5, indexed.size());
+    }
+
+    @Test
+    public void reportsAMessageThatIsNotAnEventNotification() {
+        SqsBatchIndexer.Batch batch = indexer.index(Arrays.asList(
+                message("m1", "not json"),
+                message("m2", notification("bulk/a.jpg")),
+                message("m3", "{\"Records\":[{\"s3\":{\"bucket\":{\"name\":\"bucket\"}}}]}")));
+
+        assertEquals(Arrays.asList("m1", "m3"), failedMessageIds(batch));
+        assertEquals(1, indexed.size());
+    }
+
+    @Test
+    public void deletesTheTestEventWithoutIndexing() {
+        SqsBatchIndexer.Batch batch = indexer.index(Collections.singletonList(
+                message("m1", "{\"Service\":\"Amazon S3\",\"Event\":\"s3:TestEvent\"}")));
+
+        assertTrue(failedMessageIds(batch).isEmpty());
+        assertTrue(indexed.isEmpty());
+    }
+
+    @Test
+    public void decodesTheObjectKeys() {
+        indexer.index(Collections.singletonList(message("m1", notification("bulk/jane+doe%281%29.jpg"))));
+
+        assertEquals("bulk/jane doe(1).jpg", indexed.get(0).getKey());
+        assertEquals("bucket", indexed.get(0).getBucket());
+    }
+
+    private static List<String> failedMessageIds(final SqsBatchIndexer.Batch batch) {
+        return batch.response().getBatchItemFailures().stream()
+                .map(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .collect(toList());
+    }
+
+    private static SQSEvent.SQSMessage message(final String messageId,
+                                               final String body) {
+        SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+        message.setMessageId(messageId);
+        message.setBody(body);
+        return message;
+    }
+
+    private static String notification(final String... keys) {
+        return Arrays.stream(keys)
+                .map(key -> "{\"s3\":{\"bucket\":{\"name\":\"bucket\"},\"object\":{\"key\":\"" + key + "\"}}}")
+                .collect(joining(",", "{\"Records\":[", "]}"));
+    }
+}
@@ -0,0 +1,139 @@
+package com.webapp.function;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import software.amazon.cloudwatchlogs.emf.config.EnvironmentConfigurationProvider;
+import software.amazon.cloudwatchlogs.emf.environment.Environments;
+import software.amazon.cloudwatchlogs.emf.logger.MetricsLogger;
+import software.amazon.cloudwatchlogs.emf.model.Unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StageTimingsTest {
+    private final RecordingMetricsLogger metricsLogger = new RecordingMetricsLogger();
+
+    @BeforeClass
+    public static void printMetrics() {
+        EnvironmentConfigurationProvider.getConfig().setEnvironmentOverride(Environments.Local);
+    }
+
+    @Before
+    public void startOver() {
+        StageTimings.reset();
+    }
+
+    @Test
+    public void countsTheFirstMicrosecondsExactly() {
+        for (int micros = 0; micros < 8; micros++) {
+            assertEquals(micros, StageTimings.bucket(micros));
+            assertEquals(micros + 0.5, StageTimings.middle(micros), 0);
+        }
+    }
+
+    @Test
+    public void putsADurationInABucketAnEighthOfItsPowerOfTwoWide() {
+        int previous = 0;
+
+        for (long micros = 8; micros < 1L << 24; micros += Math.max(1, micros / 100)) {
+            int bucket = StageTimings.bucket(micros);
+            double middle = StageTimings.middle(bucket);
+
+            assertTrue("bucket of " + micros + " went down", bucket >= previous);
+            assertTrue(micros + " published as " + middle, Math.abs(middle - micros) <= micros / 16d);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void clampsTheDurationsOutOfRange() {
+        int last = StageTimings.bucket((1L << 24) - 1);
+
+        assertEquals(0, StageTimings.bucket(-5));
+        assertEquals(last, StageTimings.bucket(1L << 24));
+        assertEquals(last, StageTimings.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void publishesEverySampleAsMillisecondsOfItsStage() {
+        for (int sample = 0; sample < 3; sample++) {
+            StageTimings.record(StageTimings.Stage.DECODE, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(3));
+        }
+        StageTimings.record(StageTimings.Stage.DYNAMODB, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(20));
+
+        StageTimings.publishMetrics(metricsLogger);
+
+        assertEquals(3, metricsLogger.values("DecodeStageTime").size());
+        for (double millis : metricsLogger.values("DecodeStageTime")) {
+            assertTrue("decode took " + millis, millis > 2.8 && millis < 3.5);
+        }
+        assertEquals(1, metricsLogger.values("DynamoDbStageTime").size());
+        assertEquals(4, metricsLogger.names.size());
+    }
+
+    @Test
+    public void scalesDownTheSamplesOverTheLimitKeepingTheirDistribution() {
+        for (int sample = 0; sample < 150; sample++) {
+            StageTimings.record(StageTimings.Stage.REKOGNITION, System.nanoTime() - 1_100_000);
+        }
+        for (int sample = 0; sample < 100; sample++) {
+            StageTimings.record(StageTimings.Stage.REKOGNITION, System.nanoTime() - 11_000_000);
+        }
+
+        StageTimings.publishMetrics(metricsLogger);
+
+        List<Double> values = metricsLogger.values("RekognitionStageTime");
+        long fast = values.stream().filter(millis -> millis < 5).count();
+
+        assertTrue("published " + values.size(), values.size() <= StageTimings.MAX_VALUES && values.size() >= 98);
+        assertTrue("fast " + fast, Math.abs(fast - 60) <= 2);
+    }
+
+    @Test
+    public void publishesOnlyTheSamplesSinceTheLastCall() {
+        StageTimings.record(StageTimings.Stage.S3, System.nanoTime());
+        StageTimings.publishMetrics(metricsLogger);
+        StageTimings.publishMetrics(metricsLogger);
+
+        assertEquals(1, metricsLogger.names.size());
+    }
+
+    @Test
+    public void resetDropsTheSamples() {
+        StageTimings.record(StageTimings.Stage.SERIALIZATION, System.nanoTime());
+        StageTimings.reset();
+        StageTimings.publishMetrics(metricsLogger);
+
+        assertTrue(metricsLogger.names.isEmpty());
+    }
+
+    private static final class RecordingMetricsLogger extends MetricsLogger {
+        private final List<String> names = new ArrayList<>();
+        private final List<Double> values = new ArrayList<>();
+
+        @Override
+        public MetricsLogger putMetric(final String key,
+                                       final double value,
+                                       final Unit unit) {
+            assertEquals(Unit.MILLISECONDS, unit);
+            names.add(key);
+            values.add(value);
+            return this;
+        }
+
+        private List<Double> values(final String name) {
+            List<Double> named = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                if (names.get(i).equals(name)) {
+                    named.add(values.get(i));
+                }
+            }
+            return named;
+        }
+    }
+}
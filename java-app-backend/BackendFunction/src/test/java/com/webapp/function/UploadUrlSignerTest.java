@@ -0,0 +1,66 @@
+package com.webapp.function;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.amazonaws.xray.AWSXRay;
+import com.amazonaws.xray.strategy.IgnoreErrorContextMissingStrategy;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UploadUrlSignerTest {
+    private final UploadUrlSigner signer = new UploadUrlSigner(S3Presigner.builder()
+            .region(Region.US_EAST_1)
+            .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("access", "secret")))
+            .build(), "bucket", Duration.ofSeconds(60));
+
+    @BeforeClass
+    public static void traceWithoutASegment() {
+        // The X-Ray interceptor on the classpath traces every SDK call, outside Lambda there is no segment to add to
+        AWSXRay.getGlobalRecorder().setContextMissingStrategy(new IgnoreErrorContextMissingStrategy());
+    }
+
+    @Test
+    public void signsABatchUnderTheBulkPrefix() {
+        List<ImageUploadHandler.ResponseBody> bodies = signer.signAll(Arrays.asList(
+                new ImageUploadHandler.UploadRequest("image/jpeg", ".jpg", "Jane"),
+                new ImageUploadHandler.UploadRequest("image/png", ".png", "John")));
+
+        assertEquals(2, bodies.size());
+        assertTrue(bodies.get(0).getFileName().endsWith(".jpg"));
+        assertTrue(bodies.get(0).getUploadURL(), bodies.get(0).getUploadURL().contains(
+                "/" + UploadUrlSigner.BULK_KEY_PREFIX + bodies.get(0).getFileName() + "?"));
+    }
+
+    @Test
+    public void rejectsAnExtensionOutsideTheFileNamePatternOnBothPaths() {
+        for (String extension : new String[]{"/../../evil.jpg", ".jpg/x", ". jpg", ".jpg.exe", "", null}) {
+            assertTrue(extension, !UploadUrlSigner.isValidFileExtension(extension));
+
+            try {
+                signer.sign("image/jpeg", extension, "Jane");
+                fail("signed an upload with extension " + extension);
+            } catch (UploadUrlSigner.InvalidFileExtensionException expected) {
+                // expected
+            }
+
+            try {
+                signer.signAll(Collections.singletonList(new ImageUploadHandler.UploadRequest("image/jpeg", extension,
+                        "Jane")));
+                fail("signed a batch upload with extension " + extension);
+            } catch (UploadUrlSigner.InvalidFileExtensionException expected) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+#!/usr/bin/env bash
+# Runs the JMH benchmarks of the BackendFunction hot paths and writes the results as JSON.
+#
+# Usage: scripts/benchmarks.sh [results.json] [extra JMH options]
+#
+# Allocation rates are reported next to the timings through the GC profiler. Keep the JSON of every release and
+# compare a new run against it to catch regressions.
+# A subset can be selected with a regular expression, for example:
+#   scripts/benchmarks.sh target/recognise.json 'RecognizeImageBenchmark'
+set -euo pipefail
+
+RESULTS=${1:-BackendBenchmarks/target/jmh-result.json}
+shift || true
+
+(cd BackendFunction && mvn -B -q install -DskipTests)
+(cd BackendBenchmarks && mvn -B -q package)
+
+java -jar BackendBenchmarks/target/benchmarks.jar -prof gc -rf json -rff "$RESULTS" "$@"
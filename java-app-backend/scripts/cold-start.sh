@@ -0,0 +1,41 @@
+#!/usr/bin/env bash
+# Reports the median static init time of each handler class over several fresh JVMs.
+#
+# Usage: scripts/cold-start.sh [path/to/BackendFunction-1.0.jar] [runs]
+#
+# Build the jar on two commits and run the script against each to compare before and after.
+# Dummy credentials are enough because creating clients does not call AWS.
+#
+# Extra ColdStartProbe options can be passed through PROBE_ARGS, for example to simulate a SnapStart
+# checkpoint and restore and then time the first request against real resources:
+#   PROBE_ARGS="--restore --event events/event.json" scripts/cold-start.sh
+set -euo pipefail
+
+JAR=${1:-BackendFunction/target/BackendFunction-1.0.jar}
+RUNS=${2:-10}
+PROBE_ARGS=${PROBE_ARGS:-}
+HANDLERS="com.webapp.function.IndexImageHandler
+com.webapp.function.QueuedIndexImageHandler
+com.webapp.function.RecognizeImageHandler
+com.webapp.function.ImageUploadHandler
+com.webapp.function.CreateCollectionHandler"
+
+export AWS_REGION=${AWS_REGION:-eu-west-1}
+export AWS_ACCESS_KEY_ID=${AWS_ACCESS_KEY_ID:-cold-start-probe}
+export AWS_SECRET_ACCESS_KEY=${AWS_SECRET_ACCESS_KEY:-cold-start-probe}
+export AWS_XRAY_CONTEXT_MISSING=LOG_ERROR
+
+for handler in $HANDLERS; do
+    for run in $(seq "$RUNS"); do
+        # shellcheck disable=SC2086
+        java -cp "$JAR" com.webapp.function.ColdStartProbe $PROBE_ARGS "$handler" 2>/dev/null
+    done | awk -F '\t' -v runs="$RUNS" '
+        { times[$1 "\t" $2] = times[$1 "\t" $2] " " $3 }
+        END {
+            for (phase in times) {
+                n = split(substr(times[phase], 2), values, " ")
+                asort(values)
+                printf "%s\tmedian %d ms over %d runs\n", phase, values[int((n + 1) / 2)], n
+            }
+        }'
+done